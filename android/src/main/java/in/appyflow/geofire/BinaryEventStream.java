@@ -0,0 +1,261 @@
+package in.appyflow.geofire;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
+
+/**
+ * Fixed-layout encoding of key events, sent over a BasicMessageChannel instead
+ * of the StandardMessageCodec maps used on geofireStream.
+ *
+ * A message is a sequence of little-endian records, each starting with a type
+ * byte:
+ * <pre>
+ *   RESET    (1)                              forget all key ids
+ *   KEY      (2) int id, int length, utf8     defines a key id
+ *   ENTERED  (3) int id, double lat, double lng
+ *   MOVED    (4) int id, double lat, double lng
+ *   EXITED   (5) int id                       the id is released afterwards
+ *   READY    (6) int count, int id * count
+ * </pre>
+ * Key strings are sent once and referenced by id until the key exits or the
+ * query is restarted. Records are written into a reusable direct buffer; the
+ * messenger copies it synchronously on send, so it is cleared right after.
+ *
+ * Must only be used from the main thread.
+ */
+class BinaryEventStream {
+
+    static final String CHANNEL = "geofireBinaryStream";
+
+    static final byte RESET = 1;
+    static final byte KEY = 2;
+    static final byte ENTERED = 3;
+    static final byte MOVED = 4;
+    static final byte EXITED = 5;
+    static final byte READY = 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final BasicMessageChannel<ByteBuffer> channel;
+    private final PluginMetrics metrics;
+    private final Scheduler scheduler;
+
+    private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+    private final HashMap<String, Integer> keyIds = new HashMap<>();
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+    // per key id: offset of the key's latest record in the current message,
+    // or -1 if the key has no record in it
+    private int[] lastRecord = new int[64];
+    private final ArrayList<Integer> touched = new ArrayList<>();
+
+    private boolean enabled;
+    private long windowMs = -1;
+    private boolean scheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            flush();
+        }
+    };
+
+    BinaryEventStream(BinaryMessenger messenger, PluginMetrics metrics, Scheduler scheduler) {
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        channel = new BasicMessageChannel<>(messenger, CHANNEL, BinaryCodec.INSTANCE);
+        Arrays.fill(lastRecord, -1);
+    }
+
+    void setEnabled(boolean enabled) {
+        if (!enabled) {
+            flush();
+        }
+        this.enabled = enabled;
+        reset();
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param windowMs how long records are collected into one message, or a
+     *                 negative value to send every record on its own
+     */
+    void setWindow(long windowMs) {
+        flush();
+        this.windowMs = windowMs;
+    }
+
+    /** Starts a new key namespace, e.g. when a query is restarted. */
+    void reset() {
+        keyIds.clear();
+        freeCount = 0;
+        nextId = 0;
+        if (enabled) {
+            ensureCapacity(1);
+            buffer.put(RESET);
+            clearTouched();
+            scheduleFlush();
+        }
+    }
+
+    void keyEntered(String key, double latitude, double longitude) {
+        metrics.countEvent("onKeyEntered");
+        writeLocation(ENTERED, key, latitude, longitude);
+    }
+
+    void keyMoved(String key, double latitude, double longitude) {
+        metrics.countEvent("onKeyMoved");
+        writeLocation(MOVED, key, latitude, longitude);
+    }
+
+    void keyExited(String key) {
+        metrics.countEvent("onKeyExited");
+        Integer id = keyIds.remove(key);
+        if (id == null) {
+            return;
+        }
+        ensureCapacity(5);
+        markRecord(id);
+        buffer.put(EXITED);
+        buffer.putInt(id);
+        releaseId(id);
+        scheduleFlush();
+    }
+
+    void queryReady(List<String> keys) {
+        metrics.countEvent("onGeoQueryReady");
+        int[] ids = new int[keys.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = idFor(keys.get(i));
+        }
+        ensureCapacity(5 + 4 * ids.length);
+        buffer.put(READY);
+        buffer.putInt(ids.length);
+        for (int id : ids) {
+            buffer.putInt(id);
+        }
+        scheduleFlush();
+    }
+
+    void flush() {
+        if (scheduled) {
+            scheduler.removeCallbacks(flushRunnable);
+            scheduled = false;
+        }
+        if (buffer.position() == 0) {
+            return;
+        }
+        // the messenger sends the bytes up to position()
+        long start = System.nanoTime();
+        channel.send(buffer);
+        metrics.channelEncodeUs.record((System.nanoTime() - start) / 1000);
+        buffer.clear();
+        clearTouched();
+    }
+
+    void dispose() {
+        scheduler.removeCallbacks(flushRunnable);
+        scheduled = false;
+        channel.setMessageHandler(null);
+    }
+
+    private void writeLocation(byte type, String key, double latitude, double longitude) {
+        int id = idFor(key);
+        if (type == MOVED && windowMs >= 0) {
+            int offset = lastRecord[id];
+            if (offset >= 0 && buffer.get(offset) == MOVED) {
+                // overwrite the pending move in place
+                buffer.putDouble(offset + 5, latitude);
+                buffer.putDouble(offset + 13, longitude);
+                return;
+            }
+        }
+        ensureCapacity(21);
+        markRecord(id);
+        buffer.put(type);
+        buffer.putInt(id);
+        buffer.putDouble(latitude);
+        buffer.putDouble(longitude);
+        scheduleFlush();
+    }
+
+    private int idFor(String key) {
+        Integer existing = keyIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        keyIds.put(key, id);
+        if (id >= lastRecord.length) {
+            int oldLength = lastRecord.length;
+            lastRecord = Arrays.copyOf(lastRecord, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(lastRecord, oldLength, lastRecord.length, -1);
+        }
+        byte[] bytes = key.getBytes(UTF_8);
+        ensureCapacity(9 + bytes.length);
+        buffer.put(KEY);
+        buffer.putInt(id);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return id;
+    }
+
+    private void releaseId(int id) {
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    private void markRecord(int id) {
+        if (lastRecord[id] < 0) {
+            touched.add(id);
+        }
+        lastRecord[id] = buffer.position();
+    }
+
+    private void clearTouched() {
+        for (int i = 0; i < touched.size(); i++) {
+            lastRecord[touched.get(i)] = -1;
+        }
+        touched.clear();
+    }
+
+    private void scheduleFlush() {
+        if (windowMs < 0) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            scheduler.postDelayed(flushRunnable, windowMs);
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer grown = allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,16 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoFire;
+import com.google.firebase.database.DatabaseReference;
+
+/**
+ * Where the plugin gets its database references and GeoFire instances from.
+ * The plugin uses {@link FirebaseDatabaseProvider}; tests back them with an
+ * in-memory store.
+ */
+interface DatabaseProvider {
+
+    DatabaseReference getReference(String path);
+
+    GeoFire newGeoFire(DatabaseReference reference);
+}
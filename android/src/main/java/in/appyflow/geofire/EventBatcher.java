@@ -0,0 +1,343 @@
+package in.appyflow.geofire;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Outbound queue between the query listeners and the geofireStream EventSink.
+ *
+ * With batching enabled, events are collected over a short window and
+ * delivered as a single list. Repeated moves of the same key within a window
+ * collapse into the latest one, which takes the slot of the first.
+ *
+ * With a queue capacity set, the queue also applies backpressure: at most
+ * maxInFlight messages are outstanding until Dart acknowledges them (see
+ * {@link #onAck(int)}), and moves beyond the capacity are coalesced or dropped
+ * according to the {@link OverflowPolicy}. Enter, exit, change and ready
+ * events are never dropped, and under COALESCE neither is the latest queued
+ * move of a key.
+ *
+ * Must only be used from the main thread, like the EventSink itself.
+ */
+class EventBatcher {
+
+    enum OverflowPolicy {
+        /**
+         * Keep only the newest state per key: drop a queued move a later event
+         * of the same key supersedes, otherwise the incoming move.
+         */
+        COALESCE,
+        /** Drop the oldest queued move. */
+        DROP_OLDEST;
+
+        static OverflowPolicy parse(String name) {
+            return "dropOldest".equals(name) ? DROP_OLDEST : COALESCE;
+        }
+    }
+
+    static final long DEFAULT_WINDOW_MS = 16;
+    static final int DEFAULT_MAX_EVENTS = 256;
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final Scheduler scheduler;
+    private final PluginMetrics metrics;
+    // Queued events from head on; dropped events leave a null behind
+    private final ArrayList<HashMap<String, Object>> pending = new ArrayList<>();
+    private int head;
+    private int live;
+    // no move is queued before this index
+    private int moveScan;
+    // queryId/key -> index in pending of the latest event for that key
+    private final HashMap<String, Integer> lastIndex = new HashMap<>();
+    // indices in pending of moves a later event of the same key followed
+    private final ArrayDeque<Integer> superseded = new ArrayDeque<>();
+
+    private EventChannel.EventSink sink;
+    private boolean enabled;
+    private long windowMs = DEFAULT_WINDOW_MS;
+    private int maxEvents = DEFAULT_MAX_EVENTS;
+    private boolean scheduled;
+
+    // 0 means unbounded and no flow control
+    private int capacity;
+    private OverflowPolicy policy = OverflowPolicy.COALESCE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int inFlight;
+    private long dropped;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            flush();
+        }
+    };
+
+    EventBatcher(PluginMetrics metrics, Scheduler scheduler) {
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+    }
+
+    void configure(boolean enabled, long windowMs, int maxEvents) {
+        flush(true);
+        this.enabled = enabled;
+        this.windowMs = Math.max(0, windowMs);
+        this.maxEvents = Math.max(1, maxEvents);
+    }
+
+    void configureQueue(int capacity, OverflowPolicy policy, int maxInFlight) {
+        flush(true);
+        this.capacity = Math.max(0, capacity);
+        this.policy = policy;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        // messages sent before still return their credits; without a queue
+        // Dart stops acknowledging, so there is nothing left to wait for
+        if (this.capacity == 0) {
+            inFlight = 0;
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setSink(EventChannel.EventSink sink) {
+        if (sink == null) {
+            clear();
+            inFlight = 0;
+        }
+        this.sink = sink;
+    }
+
+    /** Dart finished handling count messages; sends more if any are queued. */
+    void onAck(int count) {
+        inFlight = Math.max(0, inFlight - count);
+        if (live == 0) {
+            return;
+        }
+        if (enabled) {
+            // queued events already waited at least one window
+            flush();
+        } else {
+            drain();
+        }
+    }
+
+    HashMap<String, Object> stats() {
+        HashMap<String, Object> stats = new HashMap<>();
+        stats.put("depth", live);
+        stats.put("dropped", dropped);
+        stats.put("inFlight", inFlight);
+        return stats;
+    }
+
+    void add(HashMap<String, Object> event) {
+        if (sink == null) {
+            return;
+        }
+        if (!enabled && (capacity == 0 || (live == 0 && inFlight < maxInFlight))) {
+            send(event);
+            return;
+        }
+
+        String callBack = (String) event.get("callBack");
+        Object key = event.get("key");
+        String slotKey = null;
+        if (key != null) {
+            // the same key can be reported by several named queries
+            slotKey = event.get("queryId") + "/" + key;
+            if (coalesce(slotKey, callBack, event)) {
+                return;
+            }
+        }
+        if (capacity > 0 && live >= capacity && isMove(callBack)
+                && !(policy == OverflowPolicy.COALESCE ? dropSupersededMove() : dropOldestMove())) {
+            // nothing queued may be dropped in its place; drop this move
+            dropped++;
+            return;
+        }
+        if (slotKey != null) {
+            Integer previous = lastIndex.put(slotKey, pending.size());
+            if (previous != null && previous >= head && isDroppableMove(pending.get(previous))) {
+                superseded.add(previous);
+            }
+        }
+        pending.add(event);
+        live++;
+
+        if (!enabled) {
+            drain();
+        } else if (live >= maxEvents) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            scheduler.postDelayed(flushRunnable, windowMs);
+        }
+    }
+
+    void flush() {
+        flush(false);
+    }
+
+    /**
+     * Sends everything collected so far as one list. Errors force a flush,
+     * even past maxInFlight, so they are not delivered ahead of the events
+     * that preceded them.
+     */
+    void flush(boolean force) {
+        if (scheduled) {
+            scheduler.removeCallbacks(flushRunnable);
+            scheduled = false;
+        }
+        if (live == 0 || (!force && capacity > 0 && inFlight >= maxInFlight)) {
+            return;
+        }
+        ArrayList<HashMap<String, Object>> batch = new ArrayList<>(live);
+        for (int i = head; i < pending.size(); i++) {
+            if (pending.get(i) != null) {
+                batch.add(pending.get(i));
+            }
+        }
+        clear();
+        if (sink == null) {
+            return;
+        }
+        if (enabled) {
+            send(batch);
+        } else {
+            for (HashMap<String, Object> event : batch) {
+                send(event);
+            }
+        }
+    }
+
+    void clear() {
+        scheduler.removeCallbacks(flushRunnable);
+        scheduled = false;
+        pending.clear();
+        lastIndex.clear();
+        superseded.clear();
+        head = 0;
+        live = 0;
+        moveScan = 0;
+    }
+
+    private void send(Object message) {
+        if (capacity > 0) {
+            inFlight++;
+        }
+        long start = System.nanoTime();
+        sink.success(message);
+        // the sink encodes synchronously, so this is the channel encode time
+        metrics.channelEncodeUs.record((System.nanoTime() - start) / 1000);
+    }
+
+    // Unbatched delivery under flow control: one event per credit
+    private void drain() {
+        while (live > 0 && inFlight < maxInFlight && sink != null) {
+            HashMap<String, Object> event = pending.get(head++);
+            if (event != null) {
+                live--;
+                send(event);
+            }
+        }
+        if (live == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Folds a move or change into the key's latest queued event. Only the
+     * latest one is used, so a move never jumps ahead of an enter, exit or
+     * change that came after it. Delta payloads (those with "removed") only
+     * make sense in sequence and are never folded, and an event only replaces
+     * one that carries the same kind of content: in lazy mode a payload
+     * change has "data" but no location and a geo-node change the reverse,
+     * so neither may stand in for the other.
+     */
+    private boolean coalesce(String slotKey, String callBack, HashMap<String, Object> event) {
+        Integer index = lastIndex.get(slotKey);
+        if (index == null || index < head || !isCollapsible(callBack) || event.containsKey("removed")) {
+            return false;
+        }
+        boolean folding = enabled || (capacity > 0 && policy == OverflowPolicy.COALESCE);
+        if (!folding) {
+            return false;
+        }
+        HashMap<String, Object> previous = pending.get(index);
+        if (previous == null) {
+            return false;
+        }
+        if (callBack.equals(previous.get("callBack"))
+                && previous.containsKey("data") == event.containsKey("data")
+                && previous.containsKey("latitude") == event.containsKey("latitude")) {
+            pending.set(index, event);
+            return true;
+        }
+        // When full, an enter that has not been sent yet takes the new position
+        if (capacity > 0 && policy == OverflowPolicy.COALESCE && live >= capacity && isMove(callBack)
+                && enterFor(callBack).equals(previous.get("callBack"))) {
+            previous.put("latitude", event.get("latitude"));
+            previous.put("longitude", event.get("longitude"));
+            if (event.containsKey("data")) {
+                previous.put("data", event.get("data"));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // The key's later event still reports where it went, so no key loses its last known position
+    private boolean dropSupersededMove() {
+        while (!superseded.isEmpty()) {
+            int index = superseded.poll();
+            if (index >= head && isDroppableMove(pending.get(index))) {
+                pending.set(index, null);
+                live--;
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean dropOldestMove() {
+        moveScan = Math.max(moveScan, head);
+        for (; moveScan < pending.size(); moveScan++) {
+            HashMap<String, Object> event = pending.get(moveScan);
+            if (isDroppableMove(event)) {
+                pending.set(moveScan, null);
+                live--;
+                dropped++;
+                String slotKey = event.get("queryId") + "/" + event.get("key");
+                Integer index = lastIndex.get(slotKey);
+                if (index != null && index == moveScan) {
+                    lastIndex.remove(slotKey);
+                }
+                moveScan++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDroppableMove(HashMap<String, Object> event) {
+        return event != null && isMove((String) event.get("callBack")) && !event.containsKey("removed");
+    }
+
+    private static boolean isCollapsible(String callBack) {
+        return isMove(callBack) || "onDataKeyChanged".equals(callBack);
+    }
+
+    private static boolean isMove(String callBack) {
+        return "onKeyMoved".equals(callBack)
+                || "onDataKeyMoved".equals(callBack);
+    }
+
+    private static String enterFor(String moveCallBack) {
+        return "onKeyMoved".equals(moveCallBack) ? "onKeyEntered" : "onDataKeyEntered";
+    }
+}
@@ -0,0 +1,240 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Static geofences, circles or polygons, checked against positions reported
+ * by the app.
+ *
+ * Fences are indexed in a stack of grids whose cells match geohash cells:
+ * level l splits latitude and longitude into 2^l rows and columns. A fence is
+ * stored at the finest level where its bounding box spans at most two cells
+ * in each direction, so checking a position looks up one cell per level in
+ * use and tests only the fences bucketed there, however many are loaded.
+ *
+ * The registry remembers which fences contain the last checked position and
+ * reports only the transitions.
+ *
+ * Must only be used from the main thread.
+ */
+class FenceRegistry {
+
+    private static final int MAX_LEVEL = 20;
+
+    static final class Fence {
+        final String id;
+        // null for circles
+        private final GeoRegion region;
+        private final double latitude;
+        private final double longitude;
+        private final double radius;
+        private long[] cells;
+
+        private Fence(String id, GeoRegion region, double latitude, double longitude, double radius) {
+            this.id = id;
+            this.region = region;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+        }
+
+        /** A circle of radius kilometers. */
+        static Fence circle(String id, double latitude, double longitude, double radius) {
+            return new Fence(id, null, latitude, longitude, radius);
+        }
+
+        static Fence polygon(String id, double[] latitudes, double[] longitudes) {
+            return new Fence(id, GeoRegion.polygon(latitudes, longitudes), 0, 0, 0);
+        }
+
+        boolean contains(double lat, double lng) {
+            if (region != null) {
+                return region.contains(lat, lng);
+            }
+            return GeoUtils.distance(latitude, longitude, lat, lng) <= radius * 1000;
+        }
+
+        /** Boxes, as {south, west, north, east}, that together enclose the fence without wrapping. */
+        double[][] bounds() {
+            if (region != null) {
+                return region.bounds();
+            }
+            double dLat = GeoUtils.distanceToLatitudeDegrees(radius * 1000);
+            double south = Math.max(-90, latitude - dLat);
+            double north = Math.min(90, latitude + dLat);
+            double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+            double dLng = cosLat > 1e-9 ? dLat / cosLat : 180;
+            if (south == -90 || north == 90 || dLng >= 180) {
+                return new double[][] {{south, -180, north, 180}};
+            }
+            double west = longitude - dLng;
+            double east = longitude + dLng;
+            if (west < -180) {
+                return new double[][] {{south, west + 360, north, 180}, {south, -180, north, east}};
+            }
+            if (east > 180) {
+                return new double[][] {{south, west, north, 180}, {south, -180, north, east - 360}};
+            }
+            return new double[][] {{south, west, north, east}};
+        }
+    }
+
+    private final LinkedHashMap<String, Fence> fences = new LinkedHashMap<>();
+    private final HashMap<Long, ArrayList<Fence>> cells = new HashMap<>();
+    // fences stored per level, so empty levels are skipped
+    private final int[] levels = new int[MAX_LEVEL + 1];
+    // ids of the fences containing the last checked position
+    private LinkedHashSet<String> inside = new LinkedHashSet<>();
+
+    /** Adds the fences, replacing those with the same id, or all fences if replace is set. */
+    void put(List<Fence> added, boolean replace) {
+        if (replace) {
+            fences.clear();
+            cells.clear();
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                levels[level] = 0;
+            }
+        }
+        for (Fence fence : added) {
+            Fence previous = fences.remove(fence.id);
+            if (previous != null) {
+                unindex(previous);
+            }
+            fences.put(fence.id, fence);
+            index(fence);
+        }
+        // positions are only compared against fences that still exist
+        inside.retainAll(fences.keySet());
+    }
+
+    /** Removes fences without reporting an exit. Returns how many existed. */
+    int remove(List<String> ids) {
+        int removed = 0;
+        for (String id : ids) {
+            Fence fence = fences.remove(id);
+            if (fence != null) {
+                unindex(fence);
+                inside.remove(id);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return fences.size();
+    }
+
+    /**
+     * Moves the tracked position, adding the ids of the fences it entered and
+     * left to the given lists. Returns the ids of the fences now containing it.
+     */
+    ArrayList<String> check(double latitude, double longitude, List<String> entered, List<String> exited) {
+        LinkedHashSet<String> now = containing(latitude, longitude);
+        for (String id : inside) {
+            if (!now.contains(id)) {
+                exited.add(id);
+            }
+        }
+        for (String id : now) {
+            if (!inside.contains(id)) {
+                entered.add(id);
+            }
+        }
+        inside = now;
+        return new ArrayList<>(now);
+    }
+
+    private LinkedHashSet<String> containing(double latitude, double longitude) {
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            if (levels[level] == 0) {
+                continue;
+            }
+            ArrayList<Fence> bucket = cells.get(cellKey(level, row(level, latitude), column(level, longitude)));
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 0; i < bucket.size(); i++) {
+                Fence fence = bucket.get(i);
+                if (fence.contains(latitude, longitude)) {
+                    ids.add(fence.id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void index(Fence fence) {
+        double[][] bounds = fence.bounds();
+        double height = 0;
+        double width = 0;
+        for (double[] box : bounds) {
+            height = Math.max(height, box[2] - box[0]);
+            width = Math.max(width, box[3] - box[1]);
+        }
+        int level = 0;
+        while (level < MAX_LEVEL
+                && 180.0 / (1 << (level + 1)) >= height
+                && 360.0 / (1 << (level + 1)) >= width) {
+            level++;
+        }
+
+        HashSet<Long> keys = new HashSet<>();
+        for (double[] box : bounds) {
+            for (int row = row(level, box[0]); row <= row(level, box[2]); row++) {
+                for (int column = column(level, box[1]); column <= column(level, box[3]); column++) {
+                    keys.add(cellKey(level, row, column));
+                }
+            }
+        }
+        fence.cells = new long[keys.size()];
+        int i = 0;
+        for (Long key : keys) {
+            fence.cells[i++] = key;
+            ArrayList<Fence> bucket = cells.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+                cells.put(key, bucket);
+            }
+            bucket.add(fence);
+        }
+        levels[level]++;
+    }
+
+    private void unindex(Fence fence) {
+        for (long key : fence.cells) {
+            ArrayList<Fence> bucket = cells.get(key);
+            if (bucket != null) {
+                bucket.remove(fence);
+                if (bucket.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+        if (fence.cells.length > 0) {
+            levels[(int) (fence.cells[0] >>> 42)]--;
+        }
+    }
+
+    private static long cellKey(int level, int row, int column) {
+        return ((long) level << 42) | ((long) row << 21) | column;
+    }
+
+    private static int row(int level, double latitude) {
+        int rows = 1 << level;
+        return Math.min(rows - 1, Math.max(0, (int) ((latitude + 90) / 180 * rows)));
+    }
+
+    private static int column(int level, double longitude) {
+        int columns = 1 << level;
+        return Math.min(columns - 1, Math.max(0, (int) ((longitude + 180) / 360 * columns)));
+    }
+}
@@ -0,0 +1,21 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoFire;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+/**
+ * {@link DatabaseProvider} backed by the default FirebaseDatabase instance.
+ */
+class FirebaseDatabaseProvider implements DatabaseProvider {
+
+    @Override
+    public DatabaseReference getReference(String path) {
+        return FirebaseDatabase.getInstance().getReference(path);
+    }
+
+    @Override
+    public GeoFire newGeoFire(DatabaseReference reference) {
+        return new GeoFire(reference);
+    }
+}
@@ -0,0 +1,135 @@
+package in.appyflow.geofire;
+
+import java.util.Arrays;
+
+/**
+ * Geohash encoding and decoding over primitive arrays. Produces the same
+ * strings as com.firebase.geofire.core.GeoHash, packed as fixed-width ASCII
+ * with no per-point allocation.
+ */
+final class GeoHashBatch {
+
+    static final int MAX_PRECISION = 22;
+
+    private static final byte[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".getBytes();
+    private static final int[] BASE32_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE32_VALUES, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            BASE32_VALUES[BASE32[i]] = i;
+        }
+    }
+
+    private GeoHashBatch() {
+    }
+
+    /**
+     * Encodes the points into {@code precision} bytes each.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length or a
+     *                                  coordinate is out of range
+     */
+    static byte[] encode(double[] latitudes, double[] longitudes, int precision) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("lat and lng must have the same length");
+        }
+        checkPrecision(precision);
+        byte[] hashes = new byte[latitudes.length * precision];
+        int out = 0;
+        for (int i = 0; i < latitudes.length; i++) {
+            double latitude = latitudes[i];
+            double longitude = longitudes[i];
+            if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+                throw new IllegalArgumentException("Invalid coordinates at index " + i);
+            }
+            double latMin = -90, latMax = 90;
+            double lngMin = -180, lngMax = 180;
+            boolean even = true;
+            for (int c = 0; c < precision; c++) {
+                int value = 0;
+                for (int bit = 0; bit < 5; bit++) {
+                    value <<= 1;
+                    if (even) {
+                        double mid = (lngMin + lngMax) / 2;
+                        if (longitude > mid) {
+                            value |= 1;
+                            lngMin = mid;
+                        } else {
+                            lngMax = mid;
+                        }
+                    } else {
+                        double mid = (latMin + latMax) / 2;
+                        if (latitude > mid) {
+                            value |= 1;
+                            latMin = mid;
+                        } else {
+                            latMax = mid;
+                        }
+                    }
+                    even = !even;
+                }
+                hashes[out++] = BASE32[value];
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Decodes fixed-width hashes into cell bounds, four values per hash:
+     * minLat, minLng, maxLat, maxLng.
+     *
+     * @throws IllegalArgumentException if the input is not a whole number of
+     *                                  hashes or holds a non-geohash character
+     */
+    static double[] decodeBounds(byte[] hashes, int precision) {
+        checkPrecision(precision);
+        if (hashes.length % precision != 0) {
+            throw new IllegalArgumentException("hashes length must be a multiple of precision");
+        }
+        int count = hashes.length / precision;
+        double[] bounds = new double[count * 4];
+        for (int i = 0; i < count; i++) {
+            double latMin = -90, latMax = 90;
+            double lngMin = -180, lngMax = 180;
+            boolean even = true;
+            for (int c = 0; c < precision; c++) {
+                byte b = hashes[i * precision + c];
+                int value = b >= 0 ? BASE32_VALUES[b] : -1;
+                if (value < 0) {
+                    throw new IllegalArgumentException("Invalid geohash character at index " + i);
+                }
+                for (int bit = 4; bit >= 0; bit--) {
+                    boolean set = ((value >> bit) & 1) != 0;
+                    if (even) {
+                        double mid = (lngMin + lngMax) / 2;
+                        if (set) {
+                            lngMin = mid;
+                        } else {
+                            lngMax = mid;
+                        }
+                    } else {
+                        double mid = (latMin + latMax) / 2;
+                        if (set) {
+                            latMin = mid;
+                        } else {
+                            latMax = mid;
+                        }
+                    }
+                    even = !even;
+                }
+            }
+            bounds[i * 4] = latMin;
+            bounds[i * 4 + 1] = lngMin;
+            bounds[i * 4 + 2] = latMax;
+            bounds[i * 4 + 3] = lngMax;
+        }
+        return bounds;
+    }
+
+    private static void checkPrecision(int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision of GeoHash must be between 1 and " + MAX_PRECISION);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.core.GeoHash;
+import com.firebase.geofire.core.GeoHashQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Covers a {@link GeoRegion} with geohash cells and turns them into as few
+ * GeoFire range queries as possible.
+ *
+ * The finest precision is used whose cells over the region's bounds stay
+ * within {@link #MAX_CELLS} and whose cells overlapping the region merge
+ * into at most {@link #MAX_QUERIES} ranges. Cells that are adjacent in
+ * geohash order share one range.
+ */
+final class GeoHashCover {
+
+    static final int MAX_CELLS = 256;
+    static final int MAX_QUERIES = 16;
+    // GeoFire stores hashes with 10 characters
+    private static final int MAX_PRECISION = 10;
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private GeoHashCover() {
+    }
+
+    static List<GeoHashQuery> cover(GeoRegion region) {
+        double[][] bounds = region.bounds();
+        List<GeoHashQuery> queries = null;
+        for (int precision = MAX_PRECISION; precision >= 1; precision--) {
+            if (cellCount(bounds, precision) > MAX_CELLS) {
+                continue;
+            }
+            queries = ranges(region, bounds, precision);
+            if (queries.size() <= MAX_QUERIES) {
+                return queries;
+            }
+        }
+        return queries;
+    }
+
+    private static long cellCount(double[][] bounds, int precision) {
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        long count = 0;
+        for (double[] box : bounds) {
+            long rows = (long) Math.floor((box[2] + 90) / cellHeight) - (long) Math.floor((box[0] + 90) / cellHeight) + 1;
+            long columns = (long) Math.floor((box[3] + 180) / cellWidth) - (long) Math.floor((box[1] + 180) / cellWidth) + 1;
+            count += rows * columns;
+        }
+        return count;
+    }
+
+    private static List<GeoHashQuery> ranges(GeoRegion region, double[][] bounds, int precision) {
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        // hashes by their numeric value, so adjacent cells are consecutive
+        TreeMap<Long, String> cells = new TreeMap<>();
+        for (double[] box : bounds) {
+            int firstRow = (int) Math.floor((box[0] + 90) / cellHeight);
+            int lastRow = (int) Math.min(Math.floor((box[2] + 90) / cellHeight), Math.round(180 / cellHeight) - 1);
+            int firstColumn = (int) Math.floor((box[1] + 180) / cellWidth);
+            int lastColumn = (int) Math.min(Math.floor((box[3] + 180) / cellWidth), Math.round(360 / cellWidth) - 1);
+            for (int row = firstRow; row <= lastRow; row++) {
+                double south = -90 + row * cellHeight;
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    double west = -180 + column * cellWidth;
+                    if (region.intersects(south, west, south + cellHeight, west + cellWidth)) {
+                        String hash = new GeoHash(south + cellHeight / 2, west + cellWidth / 2, precision)
+                                .getGeoHashString();
+                        cells.put(valueOf(hash), hash);
+                    }
+                }
+            }
+        }
+
+        ArrayList<GeoHashQuery> queries = new ArrayList<>();
+        String start = null;
+        String end = null;
+        long previous = Long.MIN_VALUE;
+        for (Map.Entry<Long, String> cell : cells.entrySet()) {
+            if (start != null && cell.getKey() != previous + 1) {
+                queries.add(new GeoHashQuery(start, end + "~"));
+                start = null;
+            }
+            if (start == null) {
+                start = cell.getValue();
+            }
+            end = cell.getValue();
+            previous = cell.getKey();
+        }
+        if (start != null) {
+            queries.add(new GeoHashQuery(start, end + "~"));
+        }
+        return queries;
+    }
+
+    private static long valueOf(String hash) {
+        long value = 0;
+        for (int i = 0; i < hash.length(); i++) {
+            value = (value << 5) | BASE32.indexOf(hash.charAt(i));
+        }
+        return value;
+    }
+
+    // Geohashes alternate bits starting with longitude
+    private static double cellWidth(int precision) {
+        return 360.0 / (1L << ((5 * precision + 1) / 2));
+    }
+
+    private static double cellHeight(int precision) {
+        return 180.0 / (1L << (5 * precision / 2));
+    }
+}
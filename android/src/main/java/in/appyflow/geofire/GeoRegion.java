@@ -0,0 +1,236 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoLocation;
+
+/**
+ * An area for region queries: a polygon or a bounding box, in degrees.
+ *
+ * Polygons are tested in plain latitude/longitude space, which is accurate
+ * enough for zones a few hundred kilometers across. A polygon whose points
+ * span more than 180 degrees of longitude is taken to cross the antimeridian
+ * instead, and must span less than that once unwrapped. Bounding boxes with
+ * west greater than east wrap around it.
+ */
+abstract class GeoRegion {
+
+    /** Whether the point is inside the region. */
+    abstract boolean contains(double latitude, double longitude);
+
+    /** Whether the region overlaps the given cell. May err on the side of true. */
+    abstract boolean intersects(double south, double west, double north, double east);
+
+    /** Boxes, as {south, west, north, east}, that together enclose the region without wrapping. */
+    abstract double[][] bounds();
+
+    static GeoRegion boundingBox(double south, double west, double north, double east) {
+        checkCoordinates(south, west);
+        checkCoordinates(north, east);
+        return new Box(south, west, north, east);
+    }
+
+    /** Vertices in order; the last one connects back to the first. */
+    static GeoRegion polygon(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length || latitudes.length < 3) {
+            throw new IllegalArgumentException("A polygon needs at least 3 points");
+        }
+        for (int i = 0; i < latitudes.length; i++) {
+            checkCoordinates(latitudes[i], longitudes[i]);
+        }
+        double[] unwrapped = longitudes.clone();
+        if (span(unwrapped) > 180) {
+            // crosses the antimeridian: continue the western hemisphere past 180
+            for (int i = 0; i < unwrapped.length; i++) {
+                if (unwrapped[i] < 0) {
+                    unwrapped[i] += 360;
+                }
+            }
+            if (span(unwrapped) > 180) {
+                throw new IllegalArgumentException("A polygon must span less than 180 degrees of longitude");
+            }
+        }
+        // twice the signed area, in square degrees
+        double area = 0;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            area += unwrapped[j] * latitudes[i] - unwrapped[i] * latitudes[j];
+        }
+        if (Math.abs(area) < 1e-12) {
+            throw new IllegalArgumentException("A polygon must enclose an area");
+        }
+        return new Polygon(latitudes, unwrapped);
+    }
+
+    private static double span(double[] longitudes) {
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (double longitude : longitudes) {
+            west = Math.min(west, longitude);
+            east = Math.max(east, longitude);
+        }
+        return east - west;
+    }
+
+    private static void checkCoordinates(double latitude, double longitude) {
+        if (!GeoLocation.coordinatesValid(latitude, longitude)) {
+            throw new IllegalArgumentException("Invalid coordinates: " + latitude + ", " + longitude);
+        }
+    }
+
+    private static final class Box extends GeoRegion {
+        private final double south;
+        private final double west;
+        private final double north;
+        private final double east;
+
+        Box(double south, double west, double north, double east) {
+            this.south = Math.min(south, north);
+            this.north = Math.max(south, north);
+            this.west = west;
+            this.east = east;
+        }
+
+        @Override
+        boolean contains(double latitude, double longitude) {
+            if (latitude < south || latitude > north) {
+                return false;
+            }
+            return west <= east
+                ? longitude >= west && longitude <= east
+                : longitude >= west || longitude <= east;
+        }
+
+        @Override
+        boolean intersects(double cellSouth, double cellWest, double cellNorth, double cellEast) {
+            for (double[] box : bounds()) {
+                if (cellSouth <= box[2] && cellNorth >= box[0] && cellWest <= box[3] && cellEast >= box[1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        double[][] bounds() {
+            if (west <= east) {
+                return new double[][] {{south, west, north, east}};
+            }
+            return new double[][] {{south, west, north, 180}, {south, -180, north, east}};
+        }
+    }
+
+    /** Longitudes run past 180 when the polygon crosses the antimeridian. */
+    private static final class Polygon extends GeoRegion {
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double south;
+        private final double west;
+        private final double north;
+        private final double east;
+
+        Polygon(double[] latitudes, double[] longitudes) {
+            this.latitudes = latitudes.clone();
+            this.longitudes = longitudes.clone();
+            double minLat = 90;
+            double maxLat = -90;
+            double minLng = Double.POSITIVE_INFINITY;
+            double maxLng = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < latitudes.length; i++) {
+                minLat = Math.min(minLat, latitudes[i]);
+                maxLat = Math.max(maxLat, latitudes[i]);
+                minLng = Math.min(minLng, longitudes[i]);
+                maxLng = Math.max(maxLng, longitudes[i]);
+            }
+            south = minLat;
+            north = maxLat;
+            west = minLng;
+            east = maxLng;
+        }
+
+        @Override
+        boolean contains(double latitude, double longitude) {
+            return containsUnwrapped(latitude, east > 180 && longitude < 0 ? longitude + 360 : longitude);
+        }
+
+        // Ray casting towards increasing longitude
+        private boolean containsUnwrapped(double latitude, double longitude) {
+            if (latitude < south || latitude > north || longitude < west || longitude > east) {
+                return false;
+            }
+            boolean inside = false;
+            for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+                if ((latitudes[i] > latitude) != (latitudes[j] > latitude)) {
+                    double crossing = longitudes[j] + (latitude - latitudes[j])
+                            * (longitudes[i] - longitudes[j]) / (latitudes[i] - latitudes[j]);
+                    if (longitude < crossing) {
+                        inside = !inside;
+                    }
+                }
+            }
+            return inside;
+        }
+
+        @Override
+        boolean intersects(double cellSouth, double cellWest, double cellNorth, double cellEast) {
+            // cells west of the antimeridian are tested again one turn further east
+            return intersectsUnwrapped(cellSouth, cellWest, cellNorth, cellEast)
+                    || east > 180 && intersectsUnwrapped(cellSouth, cellWest + 360, cellNorth, cellEast + 360);
+        }
+
+        private boolean intersectsUnwrapped(double cellSouth, double cellWest, double cellNorth, double cellEast) {
+            if (cellSouth > north || cellNorth < south || cellWest > east || cellEast < west) {
+                return false;
+            }
+            // a vertex in the cell, or the cell in the polygon
+            for (int i = 0; i < latitudes.length; i++) {
+                if (latitudes[i] >= cellSouth && latitudes[i] <= cellNorth
+                        && longitudes[i] >= cellWest && longitudes[i] <= cellEast) {
+                    return true;
+                }
+            }
+            if (containsUnwrapped(cellSouth, cellWest)) {
+                return true;
+            }
+            // otherwise an edge must cross the cell
+            for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+                if (segmentCrossesBox(latitudes[j], longitudes[j], latitudes[i], longitudes[i],
+                        cellSouth, cellWest, cellNorth, cellEast)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        double[][] bounds() {
+            if (east <= 180) {
+                return new double[][] {{south, west, north, east}};
+            }
+            return new double[][] {{south, west, north, 180}, {south, -180, north, east - 360}};
+        }
+
+        // Clips the segment against the box (Liang-Barsky)
+        private static boolean segmentCrossesBox(double lat0, double lng0, double lat1, double lng1,
+                double south, double west, double north, double east) {
+            double dLat = lat1 - lat0;
+            double dLng = lng1 - lng0;
+            double[] p = {-dLng, dLng, -dLat, dLat};
+            double[] q = {lng0 - west, east - lng0, lat0 - south, north - lat0};
+            double enter = 0;
+            double exit = 1;
+            for (int i = 0; i < 4; i++) {
+                if (p[i] == 0) {
+                    if (q[i] < 0) {
+                        return false;
+                    }
+                } else {
+                    double t = q[i] / p[i];
+                    if (p[i] < 0) {
+                        enter = Math.max(enter, t);
+                    } else {
+                        exit = Math.min(exit, t);
+                    }
+                }
+            }
+            return enter <= exit;
+        }
+    }
+}
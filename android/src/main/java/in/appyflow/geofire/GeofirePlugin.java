@@ -14,10 +14,15 @@ import com.firebase.geofire.core.GeoHash;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.plugin.common.BinaryMessenger;
@@ -33,6 +38,10 @@ import io.flutter.plugin.common.MethodChannel.Result;
 public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventChannel.StreamHandler {
 
     private static final String TAG = "GeofirePlugin";
+    private static final long DEFAULT_GET_LOCATIONS_TIMEOUT_MS = 10000;
+    private static final double DEFAULT_NEAREST_INITIAL_RADIUS_KM = 1.0;
+    // queryId of the fence events
+    private static final String FENCES_QUERY_ID = "fences";
 
     private GeoFire geoFire;
     private DatabaseReference databaseReference;
@@ -41,12 +50,236 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
     private EventChannel.EventSink events;
 
     private GeoQuery geoQuery;
-    private HashMap<String, Object> hashMap = new HashMap<>();
+    private final Scheduler scheduler;
+    private final DatabaseProvider database;
+    private final PluginMetrics metrics;
+    // getMetrics and the periodic push each report rates over their own interval
+    private final PluginMetrics.RateBaseline queriedRates;
+    private final PluginMetrics.RateBaseline pushedRates;
+    private long metricsPushIntervalMs;
+    private final Runnable metricsPush = new Runnable() {
+        @Override
+        public void run() {
+            if (events != null) {
+                // without a queryId, so Dart delivers it on the unnamed query's stream
+                HashMap<String, Object> hashMap = new HashMap<>();
+                hashMap.put("callBack", "onMetrics");
+                hashMap.put("metrics", metrics.snapshot(pushedRates));
+                sendEvent(hashMap);
+            }
+            scheduler.postDelayed(this, metricsPushIntervalMs);
+        }
+    };
+    private final EventBatcher eventBatcher;
+    private BinaryEventStream binaryEvents;
+    private final SnapshotPipeline snapshotPipeline;
+    private final QueryEventSink queryEventSink = new QueryEventSink() {
+        @Override
+        public boolean isListening() {
+            return events != null;
+        }
+
+        @Override
+        public void send(String queryId, HashMap<String, Object> event) {
+            if (queryId != null) {
+                event.put("queryId", queryId);
+            }
+            sendEvent(event);
+        }
+
+        @Override
+        public void sendError(String queryId, DatabaseError error) {
+            GeofirePlugin.this.sendError(queryId, error);
+        }
+
+        @Override
+        public BinaryEventStream binaryEvents() {
+            return binaryEvents != null && binaryEvents.isEnabled() ? binaryEvents : null;
+        }
+    };
+    private final LocationPublisher locationPublisher;
+    // setLocation goes through locationPublisher instead of straight to GeoFire
+    private boolean publishLocations;
+    // created with the engine's context; queryAtLocation uses it once enabled
+    private QueryCache queryCache;
+    private boolean cacheQueries;
+    private String databasePath;
 
     // Store listener references for selective removal
     private PluginGeoQueryEventListener currentGeoQueryEventListener;
     private PluginGeoQueryDataEventListener currentGeoQueryDataEventListener;
 
+    // Queries created with createQuery, keyed by the caller-supplied query id.
+    // They live next to the unnamed query above and do not affect it.
+    private final HashMap<String, NamedGeoQuery> namedQueries = new HashMap<>();
+
+    // Subscribers of subscribeNearby, all served by one shared GeoQuery
+    private QueryMultiplexer queryMultiplexer;
+    private final QueryMultiplexer.Emitter multiplexerEmitter = new QueryMultiplexer.Emitter() {
+        @Override
+        public void emit(HashMap<String, Object> event) {
+            if (events != null) {
+                sendEvent(event);
+            }
+        }
+
+        @Override
+        public void emitError(String subscriberId, DatabaseError error) {
+            if (events != null) {
+                sendError(subscriberId, error);
+            }
+        }
+    };
+
+    // Static fences checked with checkPosition, independent of the database
+    private final FenceRegistry fenceRegistry = new FenceRegistry();
+
+    public GeofirePlugin() {
+        this(new MainThreadScheduler(), new FirebaseDatabaseProvider());
+    }
+
+    GeofirePlugin(Scheduler scheduler, DatabaseProvider database) {
+        this.scheduler = scheduler;
+        this.database = database;
+        metrics = new PluginMetrics(scheduler);
+        queriedRates = metrics.newRateBaseline();
+        pushedRates = metrics.newRateBaseline();
+        eventBatcher = new EventBatcher(metrics, scheduler);
+        snapshotPipeline = new SnapshotPipeline(scheduler);
+        locationPublisher = new LocationPublisher(new LocationPublisher.Writer() {
+            @Override
+            public void write(List<Map<String, Object>> entries, Result result) {
+                writeLocations(entries, true, result);
+            }
+        }, scheduler);
+    }
+
+    private class NamedGeoQuery {
+        // either a GeoQuery or, for polygons and bounding boxes, a RegionQuery
+        final GeoQuery geoQuery;
+        final RegionQuery regionQuery;
+        final PluginGeoQueryEventListener eventListener;
+        final PluginGeoQueryDataEventListener dataListener;
+        final PluginNearestQueryListener nearestListener;
+
+        NamedGeoQuery(GeoQuery geoQuery, PluginNearestQueryListener nearestListener) {
+            this.geoQuery = geoQuery;
+            this.regionQuery = null;
+            this.eventListener = null;
+            this.dataListener = null;
+            this.nearestListener = nearestListener;
+        }
+
+        NamedGeoQuery(String queryId, RegionQuery regionQuery, QueryOptions options) {
+            this.geoQuery = null;
+            this.regionQuery = regionQuery;
+            this.eventListener = newEventListener(queryId, options);
+            this.dataListener = null;
+            this.nearestListener = null;
+        }
+
+        NamedGeoQuery(String queryId, GeoQuery geoQuery, boolean withData, QueryOptions options,
+                GeoLocation center, double radius) {
+            this.geoQuery = geoQuery;
+            this.regionQuery = null;
+            this.nearestListener = null;
+            if (withData) {
+                eventListener = null;
+                dataListener = newDataListener(queryId, options);
+            } else {
+                eventListener = newEventListener(queryId, options);
+                dataListener = null;
+                if (options.hasRecenterPolicy()) {
+                    eventListener.setRecenterController(new RecenterController(geoQuery, options,
+                            eventListener, center, radius, scheduler));
+                }
+            }
+        }
+
+        void setLocation(GeoLocation center, double radius) {
+            if (nearestListener != null) {
+                nearestListener.restart(center, radius);
+                return;
+            }
+            RecenterController recenterController = eventListener != null
+                ? eventListener.getRecenterController()
+                : null;
+            if (recenterController != null) {
+                recenterController.request(center, radius);
+            } else {
+                // GeoQuery keeps the geohash ranges that still overlap the new area
+                geoQuery.setLocation(center, radius);
+            }
+        }
+
+        void attach() {
+            if (regionQuery != null) {
+                eventListener.reset();
+                regionQuery.attach(eventListener);
+            } else if (nearestListener != null) {
+                nearestListener.reset();
+                geoQuery.addGeoQueryEventListener(nearestListener);
+            } else if (eventListener != null) {
+                eventListener.reset();
+                geoQuery.addGeoQueryEventListener(eventListener);
+            } else {
+                dataListener.reset();
+                geoQuery.addGeoQueryDataEventListener(dataListener);
+            }
+        }
+
+        void detach() {
+            if (eventListener != null) {
+                eventListener.cancelTimers();
+            }
+            if (dataListener != null) {
+                dataListener.cancelTimers();
+            }
+            if (nearestListener != null) {
+                nearestListener.cancel();
+            }
+            if (regionQuery != null) {
+                regionQuery.detach();
+                return;
+            }
+            try {
+                geoQuery.removeAllListeners();
+            } catch (Exception e) {
+                // defensive – ignore
+            }
+        }
+    }
+
+    // Index of the keys currently inside a query; the unnamed query prefers its
+    // key listener over its data listener
+    private SpatialIndex indexFor(String queryId) {
+        if (queryId == null) {
+            if (currentGeoQueryEventListener != null) {
+                return currentGeoQueryEventListener.getIndex();
+            }
+            return currentGeoQueryDataEventListener != null ? currentGeoQueryDataEventListener.getIndex() : null;
+        }
+        NamedGeoQuery query = namedQueries.get(queryId);
+        if (query == null) {
+            return null;
+        }
+        if (query.eventListener != null) {
+            return query.eventListener.getIndex();
+        }
+        return query.dataListener != null ? query.dataListener.getIndex() : null;
+    }
+
+    private void disposeNamedQueries() {
+        for (NamedGeoQuery query : namedQueries.values()) {
+            query.detach();
+        }
+        namedQueries.clear();
+        if (queryMultiplexer != null) {
+            queryMultiplexer.dispose();
+            queryMultiplexer = null;
+        }
+    }
+
     // Helper to remove listeners defensively (GeoFire throws if the listener wasn't
     // added)
     private void safeRemoveGeoQueryEventListener(GeoQueryEventListener listener) {
@@ -69,8 +302,9 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
         }
     }
 
-    private void teardown() {
+    void teardown() {
         Log.d(TAG, "Teardown called");
+        saveQueryCache();
         if (geoQuery != null) {
             try {
                 geoQuery.removeAllListeners();
@@ -79,9 +313,23 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
             }
             geoQuery = null;
         }
+        releaseEventListener();
         currentGeoQueryEventListener = null;
+        releaseDataListener();
         currentGeoQueryDataEventListener = null;
+        disposeNamedQueries();
+        locationPublisher.flush();
+        eventBatcher.setSink(null);
+        snapshotPipeline.shutdown();
+        scheduler.removeCallbacks(metricsPush);
+        if (queryCache != null) {
+            queryCache.shutdown();
+        }
 
+        if (binaryEvents != null) {
+            binaryEvents.dispose();
+            binaryEvents = null;
+        }
         if (channel != null) {
             channel.setMethodCallHandler(null);
             channel = null;
@@ -93,17 +341,21 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
         events = null;
     }
 
-    private void setupChannel(BinaryMessenger messenger) {
+    /** Sets up the channels on the messenger and keeps the query cache in cacheDirectory. */
+    void attach(BinaryMessenger messenger, File cacheDirectory) {
         channel = new MethodChannel(messenger, "geofire");
         channel.setMethodCallHandler(this);
 
         eventChannel = new EventChannel(messenger, "geofireStream");
         eventChannel.setStreamHandler(this);
+
+        binaryEvents = new BinaryEventStream(messenger, metrics, scheduler);
+        queryCache = new QueryCache(cacheDirectory, scheduler);
     }
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
-        setupChannel(binding.getBinaryMessenger());
+        attach(binding.getBinaryMessenger(), new File(binding.getApplicationContext().getCacheDir(), "geofire"));
     }
 
     @Override
@@ -116,6 +368,7 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
         // Log.i(TAG, call.method);
 
         if (call.method.equals("GeoFire.start")) {
+            saveQueryCache();
             // Ensure we start fresh
             if (geoQuery != null) {
                 try {
@@ -125,8 +378,14 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 }
                 geoQuery = null;
             }
+            releaseEventListener();
             currentGeoQueryEventListener = null;
+            releaseDataListener();
             currentGeoQueryDataEventListener = null;
+            disposeNamedQueries();
+
+            // held writes belong to the previous path
+            locationPublisher.clear();
 
             String path = call.argument("path");
             if (path == null) {
@@ -134,8 +393,9 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 return;
             }
 
-            databaseReference = FirebaseDatabase.getInstance().getReference(path);
-            geoFire = new GeoFire(databaseReference);
+            databasePath = path;
+            databaseReference = database.getReference(path);
+            geoFire = database.newGeoFire(databaseReference);
 
             if (geoFire.getDatabaseReference() != null) {
                 result.success(true);
@@ -147,12 +407,20 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
                 return;
             }
+            if (publishLocations) {
+                locationPublisher.offer(call.argument("id").toString(),
+                        Double.parseDouble(call.argument("lat").toString()),
+                        Double.parseDouble(call.argument("lng").toString()), result);
+                return;
+            }
+            metrics.pendingWrites.add(1);
             geoFire.setLocation(call.argument("id").toString(),
                     new GeoLocation(Double.parseDouble(call.argument("lat").toString()),
                             Double.parseDouble(call.argument("lng").toString())),
                     new GeoFire.CompletionListener() {
                         @Override
                         public void onComplete(String key, DatabaseError error) {
+                            metrics.pendingWrites.add(-1);
                             if (error != null) {
                                 result.success(false);
                             } else {
@@ -165,9 +433,12 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
                 return;
             }
+            locationPublisher.forget(call.argument("id").toString());
+            metrics.pendingWrites.add(1);
             geoFire.removeLocation(call.argument("id").toString(), new GeoFire.CompletionListener() {
                 @Override
                 public void onComplete(String key, DatabaseError error) {
+                    metrics.pendingWrites.add(-1);
                     if (error != null) {
                         result.success(false);
                     } else {
@@ -175,6 +446,60 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                     }
                 }
             });
+        } else if (call.method.equals("setQueryCache")) {
+            cacheQueries = Boolean.TRUE.equals(call.argument("enabled"));
+            if (queryCache != null) {
+                queryCache.setMaxBytes(call.argument("maxBytes") != null
+                    ? Long.parseLong(call.argument("maxBytes").toString())
+                    : QueryCache.DEFAULT_MAX_BYTES);
+            }
+            result.success(queryCache != null);
+        } else if (call.method.equals("clearQueryCache")) {
+            if (queryCache != null) {
+                queryCache.clear();
+            }
+            result.success(true);
+        } else if (call.method.equals("setLocationPublisher")) {
+            publishLocations = Boolean.TRUE.equals(call.argument("enabled"));
+            locationPublisher.configure(
+                    call.argument("intervalMs") != null
+                        ? Long.parseLong(call.argument("intervalMs").toString())
+                        : LocationPublisher.DEFAULT_INTERVAL_MS,
+                    call.argument("minDistance") != null
+                        ? Double.parseDouble(call.argument("minDistance").toString())
+                        : LocationPublisher.DEFAULT_MIN_DISTANCE,
+                    call.argument("precision") != null
+                        ? Integer.parseInt(call.argument("precision").toString())
+                        : LocationPublisher.DEFAULT_PRECISION);
+            result.success(true);
+        } else if (call.method.equals("setLocations")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            List<Map<String, Object>> locations = call.argument("locations");
+            if (locations == null) {
+                result.error("INVALID_ARGUMENTS", "locations cannot be null", null);
+                return;
+            }
+            writeLocations(locations, true, result);
+        } else if (call.method.equals("removeLocations")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            List<String> ids = call.argument("ids");
+            if (ids == null) {
+                result.error("INVALID_ARGUMENTS", "ids cannot be null", null);
+                return;
+            }
+            List<Map<String, Object>> removals = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                HashMap<String, Object> entry = new HashMap<>();
+                entry.put("id", id);
+                removals.add(entry);
+            }
+            writeLocations(removals, false, result);
         } else if (call.method.equals("getLocation")) {
             if (geoFire == null) {
                 result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
@@ -183,24 +508,28 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
             geoFire.getLocation(call.argument("id").toString(), new LocationCallback() {
                 @Override
                 public void onLocationResult(String key, GeoLocation location) {
-                    HashMap<String, Object> map = new HashMap<>();
-                    if (location != null) {
-                        map.put("lat", location.latitude);
-                        map.put("lng", location.longitude);
-                        map.put("error", null);
-                    } else {
-                        map.put("error", String.format("There is no location for key %s in GeoFire", key));
-                    }
-                    result.success(map);
+                    result.success(locationResult(key, location));
                 }
 
                 @Override
                 public void onCancelled(DatabaseError databaseError) {
-                    HashMap<String, Object> map = new HashMap<>();
-                    map.put("error", "There was an error getting the GeoFire location: " + databaseError);
-                    result.success(map);
+                    result.success(locationError(databaseError));
                 }
             });
+        } else if (call.method.equals("getLocations")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            List<String> ids = call.argument("ids");
+            if (ids == null) {
+                result.error("INVALID_ARGUMENTS", "ids cannot be null", null);
+                return;
+            }
+            long timeoutMs = call.argument("timeout") != null
+                ? Long.parseLong(call.argument("timeout").toString())
+                : DEFAULT_GET_LOCATIONS_TIMEOUT_MS;
+            getLocations(ids, timeoutMs, result);
         } else if (call.method.equals("queryAtLocation")) {
             if (geoFire == null) {
                 result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
@@ -208,7 +537,7 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
             }
             geoFireArea(Double.parseDouble(call.argument("lat").toString()),
                     Double.parseDouble(call.argument("lng").toString()), result,
-                    Double.parseDouble(call.argument("radius").toString()));
+                    Double.parseDouble(call.argument("radius").toString()), QueryOptions.from(call));
         } else if (call.method.equals("queryAtLocationWithData")) {
             if (geoFire == null) {
                 result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
@@ -216,30 +545,364 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
             }
             geoFireAreaWithData(Double.parseDouble(call.argument("lat").toString()),
                     Double.parseDouble(call.argument("lng").toString()), result,
+                    Double.parseDouble(call.argument("radius").toString()), QueryOptions.from(call));
+        } else if (call.method.equals("fetchData")) {
+            LazyPayloads payloads = currentGeoQueryDataEventListener != null
+                ? currentGeoQueryDataEventListener.getLazyPayloads()
+                : null;
+            if (payloads == null) {
+                result.error("NO_QUERY", "No lazy queryAtLocationWithData running", null);
+                return;
+            }
+            List<String> keys = call.argument("keys");
+            if (keys == null) {
+                result.error("INVALID_ARGUMENTS", "keys cannot be null", null);
+                return;
+            }
+            long timeoutMs = call.argument("timeoutMs") != null
+                ? Long.parseLong(call.argument("timeoutMs").toString())
+                : DEFAULT_GET_LOCATIONS_TIMEOUT_MS;
+            final HashMap<String, Object> invalid = new HashMap<>();
+            ArrayList<String> valid = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                if (isValidKey(key)) {
+                    valid.add(key);
+                } else {
+                    invalid.put(key, null);
+                }
+            }
+            payloads.fetch(valid, timeoutMs, new LazyPayloads.FetchCallback() {
+                @Override
+                public void onFetched(HashMap<String, Object> fetched) {
+                    fetched.putAll(invalid);
+                    result.success(fetched);
+                }
+            });
+        } else if (call.method.equals("setVisibleKeys")) {
+            LazyPayloads payloads = currentGeoQueryDataEventListener != null
+                ? currentGeoQueryDataEventListener.getLazyPayloads()
+                : null;
+            if (payloads == null) {
+                result.error("NO_QUERY", "No lazy queryAtLocationWithData running", null);
+                return;
+            }
+            List<String> keys = call.argument("keys");
+            ArrayList<String> visible = new ArrayList<>();
+            if (keys != null) {
+                for (String key : keys) {
+                    if (isValidKey(key)) {
+                        visible.add(key);
+                    }
+                }
+            }
+            payloads.setVisible(visible);
+            result.success(true);
+        } else if (call.method.equals("createQuery")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            String queryId = call.argument("queryId");
+            if (queryId == null) {
+                result.error("INVALID_QUERY_ID", "queryId cannot be null", null);
+                return;
+            }
+            if (!checkQueryId(queryId, false, result)) {
+                return;
+            }
+            GeoLocation center = new GeoLocation(Double.parseDouble(call.argument("lat").toString()),
+                    Double.parseDouble(call.argument("lng").toString()));
+            double radius = Double.parseDouble(call.argument("radius").toString());
+            boolean withData = Boolean.TRUE.equals(call.argument("withData"));
+            QueryOptions options = QueryOptions.from(call);
+
+            NamedGeoQuery existing = namedQueries.remove(queryId);
+            if (existing != null) {
+                existing.detach();
+            }
+            NamedGeoQuery query = new NamedGeoQuery(queryId,
+                    geoFire.queryAtLocation(center, options.subscribedRadius(radius)), withData, options,
+                    center, radius);
+            namedQueries.put(queryId, query);
+            query.attach();
+            result.success(true);
+        } else if (call.method.equals("queryNearest")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            String queryId = call.argument("queryId");
+            if (queryId == null) {
+                result.error("INVALID_QUERY_ID", "queryId cannot be null", null);
+                return;
+            }
+            if (!checkQueryId(queryId, false, result)) {
+                return;
+            }
+            GeoLocation center = new GeoLocation(Double.parseDouble(call.argument("lat").toString()),
+                    Double.parseDouble(call.argument("lng").toString()));
+            int k = Integer.parseInt(call.argument("k").toString());
+            double maxRadius = Double.parseDouble(call.argument("maxRadius").toString());
+            double initialRadius = call.argument("initialRadius") != null
+                ? Double.parseDouble(call.argument("initialRadius").toString())
+                : DEFAULT_NEAREST_INITIAL_RADIUS_KM;
+            if (k <= 0 || maxRadius <= 0 || initialRadius <= 0) {
+                result.error("INVALID_ARGUMENTS", "k, maxRadius and initialRadius must be positive", null);
+                return;
+            }
+            initialRadius = Math.min(initialRadius, maxRadius);
+
+            NamedGeoQuery existing = namedQueries.remove(queryId);
+            if (existing != null) {
+                existing.detach();
+            }
+            GeoQuery nearestQuery = geoFire.queryAtLocation(center, initialRadius);
+            NamedGeoQuery query = new NamedGeoQuery(nearestQuery,
+                    new PluginNearestQueryListener(queryId, nearestQuery, center, k, initialRadius, maxRadius));
+            namedQueries.put(queryId, query);
+            query.attach();
+            result.success(true);
+        } else if (call.method.equals("queryPolygon") || call.method.equals("queryBoundingBox")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            String queryId = call.argument("queryId");
+            if (queryId == null) {
+                result.error("INVALID_QUERY_ID", "queryId cannot be null", null);
+                return;
+            }
+            if (!checkQueryId(queryId, false, result)) {
+                return;
+            }
+            GeoRegion region;
+            try {
+                if (call.method.equals("queryBoundingBox")) {
+                    region = GeoRegion.boundingBox(Double.parseDouble(call.argument("minLat").toString()),
+                            Double.parseDouble(call.argument("minLng").toString()),
+                            Double.parseDouble(call.argument("maxLat").toString()),
+                            Double.parseDouble(call.argument("maxLng").toString()));
+                } else {
+                    List<List<Object>> points = call.argument("points");
+                    if (points == null || points.size() < 3) {
+                        result.error("INVALID_ARGUMENTS", "A polygon needs at least 3 points", null);
+                        return;
+                    }
+                    double[] latitudes = new double[points.size()];
+                    double[] longitudes = new double[points.size()];
+                    for (int i = 0; i < points.size(); i++) {
+                        latitudes[i] = Double.parseDouble(points.get(i).get(0).toString());
+                        longitudes[i] = Double.parseDouble(points.get(i).get(1).toString());
+                    }
+                    region = GeoRegion.polygon(latitudes, longitudes);
+                }
+            } catch (IllegalArgumentException | NullPointerException | IndexOutOfBoundsException e) {
+                result.error("INVALID_ARGUMENTS", "Invalid region: " + e.getMessage(), null);
+                return;
+            }
+
+            NamedGeoQuery existing = namedQueries.remove(queryId);
+            if (existing != null) {
+                existing.detach();
+            }
+            NamedGeoQuery query = new NamedGeoQuery(queryId, new RegionQuery(databaseReference, region),
+                    QueryOptions.from(call));
+            namedQueries.put(queryId, query);
+            query.attach();
+            result.success(true);
+        } else if (call.method.equals("subscribeNearby")) {
+            if (geoFire == null) {
+                result.error("NO_GEOFIRE", "GeoFire not initialized. Call GeoFire.start first.", null);
+                return;
+            }
+            String subscriberId = call.argument("subscriberId");
+            if (subscriberId == null) {
+                result.error("INVALID_QUERY_ID", "subscriberId cannot be null", null);
+                return;
+            }
+            if (!checkQueryId(subscriberId, true, result)) {
+                return;
+            }
+            if (queryMultiplexer == null) {
+                queryMultiplexer = new QueryMultiplexer(geoFire, multiplexerEmitter, scheduler);
+            }
+            queryMultiplexer.subscribe(subscriberId,
+                    new GeoLocation(Double.parseDouble(call.argument("lat").toString()),
+                            Double.parseDouble(call.argument("lng").toString())),
+                    Double.parseDouble(call.argument("radius").toString()));
+            result.success(true);
+        } else if (call.method.equals("unsubscribeNearby")) {
+            result.success(queryMultiplexer != null
+                    && queryMultiplexer.unsubscribe((String) call.argument("subscriberId")));
+        } else if (call.method.equals("setFences")) {
+            List<Map<String, Object>> entries = call.argument("fences");
+            if (entries == null) {
+                result.error("INVALID_ARGUMENTS", "fences cannot be null", null);
+                return;
+            }
+            ArrayList<FenceRegistry.Fence> fences = new ArrayList<>(entries.size());
+            try {
+                for (Map<String, Object> entry : entries) {
+                    fences.add(parseFence(entry));
+                }
+            } catch (IllegalArgumentException | NullPointerException | ClassCastException e) {
+                result.error("INVALID_ARGUMENTS", "Invalid fence: " + e.getMessage(), null);
+                return;
+            }
+            boolean replace = call.argument("replace") == null || Boolean.TRUE.equals(call.argument("replace"));
+            fenceRegistry.put(fences, replace);
+            result.success(fenceRegistry.size());
+        } else if (call.method.equals("removeFences")) {
+            List<String> ids = call.argument("ids");
+            result.success(ids != null ? fenceRegistry.remove(ids) : 0);
+        } else if (call.method.equals("checkPosition") || call.method.equals("checkPositions")) {
+            List<?> positions;
+            if (call.method.equals("checkPosition")) {
+                positions = Collections.singletonList(
+                        Arrays.asList(call.argument("lat"), call.argument("lng"), call.argument("timestamp")));
+            } else {
+                positions = call.argument("positions");
+            }
+            if (positions == null) {
+                result.error("INVALID_ARGUMENTS", "positions cannot be null", null);
+                return;
+            }
+            // all positions are checked before any transition is reported
+            for (int i = 0; i < positions.size(); i++) {
+                if (!isValidPosition(positions.get(i))) {
+                    result.error("INVALID_ARGUMENTS", "Invalid position at index " + i
+                            + ": expected [lat, lng, timestamp?] with numbers in range", null);
+                    return;
+                }
+            }
+            ArrayList<String> containing = new ArrayList<>();
+            ArrayList<String> entered = new ArrayList<>();
+            ArrayList<String> exited = new ArrayList<>();
+            for (Object entry : positions) {
+                List<?> position = (List<?>) entry;
+                double latitude = ((Number) position.get(0)).doubleValue();
+                double longitude = ((Number) position.get(1)).doubleValue();
+                Object timestamp = position.size() > 2 ? position.get(2) : null;
+                containing = fenceRegistry.check(latitude, longitude, entered, exited);
+                // exits first, so a position moving between fences reads in order
+                sendFenceEvents("onFenceExited", exited, latitude, longitude, timestamp);
+                sendFenceEvents("onFenceEntered", entered, latitude, longitude, timestamp);
+                entered.clear();
+                exited.clear();
+            }
+            result.success(containing);
+        } else if (call.method.equals("updateQuery")) {
+            NamedGeoQuery query = namedQueries.get(call.argument("queryId"));
+            if (query == null) {
+                result.error("UNKNOWN_QUERY", "No query with id " + call.argument("queryId"), null);
+                return;
+            }
+            if (query.regionQuery != null) {
+                result.error("INVALID_ARGUMENTS", "Polygon and bounding box queries are replaced, not moved", null);
+                return;
+            }
+            query.setLocation(new GeoLocation(Double.parseDouble(call.argument("lat").toString()),
+                    Double.parseDouble(call.argument("lng").toString())),
                     Double.parseDouble(call.argument("radius").toString()));
+            result.success(true);
+        } else if (call.method.equals("disposeQuery")) {
+            NamedGeoQuery query = namedQueries.remove(call.argument("queryId"));
+            if (query != null) {
+                query.detach();
+            }
+            result.success(query != null);
         } else if (call.method.equals("stopListener")) {
+            saveQueryCache();
             if (geoQuery != null) {
                 try {
                     geoQuery.removeAllListeners();
                 } catch (Exception e) {
                     // defensive – ignore
                 }
+                releaseEventListener();
                 currentGeoQueryEventListener = null;
+                releaseDataListener();
                 currentGeoQueryDataEventListener = null;
             }
             result.success(true);
         } else if (call.method.equals("removeGeoQueryEventListener")) {
+            saveQueryCache();
             if (geoQuery != null && currentGeoQueryEventListener != null) {
                 safeRemoveGeoQueryEventListener(currentGeoQueryEventListener);
+                releaseEventListener();
                 currentGeoQueryEventListener = null;
             }
             result.success(true);
         } else if (call.method.equals("removeGeoQueryDataEventListener")) {
             if (geoQuery != null && currentGeoQueryDataEventListener != null) {
                 safeRemoveGeoQueryDataEventListener(currentGeoQueryDataEventListener);
+                releaseDataListener();
                 currentGeoQueryDataEventListener = null;
             }
             result.success(true);
+        } else if (call.method.equals("keysWithinRadius")
+                || call.method.equals("keysInBoundingBox")
+                || call.method.equals("querySnapshot")) {
+            SpatialIndex index = indexFor((String) call.argument("queryId"));
+            if (index == null) {
+                result.error("NO_QUERY", "No active query for " + call.argument("queryId"), null);
+                return;
+            }
+            if (call.method.equals("keysWithinRadius")) {
+                result.success(index.keysWithinRadius(Double.parseDouble(call.argument("lat").toString()),
+                        Double.parseDouble(call.argument("lng").toString()),
+                        Double.parseDouble(call.argument("radius").toString())));
+            } else if (call.method.equals("keysInBoundingBox")) {
+                result.success(index.keysInBoundingBox(Double.parseDouble(call.argument("minLat").toString()),
+                        Double.parseDouble(call.argument("minLng").toString()),
+                        Double.parseDouble(call.argument("maxLat").toString()),
+                        Double.parseDouble(call.argument("maxLng").toString())));
+            } else {
+                result.success(index.snapshot());
+            }
+        } else if (call.method.equals("setEventBatching")) {
+            boolean enabled = Boolean.TRUE.equals(call.argument("enabled"));
+            long windowMs = call.argument("windowMs") != null
+                ? Long.parseLong(call.argument("windowMs").toString())
+                : EventBatcher.DEFAULT_WINDOW_MS;
+            int maxEvents = call.argument("maxEvents") != null
+                ? Integer.parseInt(call.argument("maxEvents").toString())
+                : EventBatcher.DEFAULT_MAX_EVENTS;
+            eventBatcher.configure(enabled, windowMs, maxEvents);
+            binaryEvents.setWindow(enabled ? windowMs : -1);
+            result.success(true);
+        } else if (call.method.equals("setEventQueue")) {
+            int capacity = call.argument("capacity") != null
+                ? Integer.parseInt(call.argument("capacity").toString())
+                : 0;
+            int maxInFlight = call.argument("maxInFlight") != null
+                ? Integer.parseInt(call.argument("maxInFlight").toString())
+                : EventBatcher.DEFAULT_MAX_IN_FLIGHT;
+            eventBatcher.configureQueue(capacity,
+                    EventBatcher.OverflowPolicy.parse((String) call.argument("policy")), maxInFlight);
+            result.success(true);
+        } else if (call.method.equals("ackEvents")) {
+            eventBatcher.onAck(call.argument("count") != null
+                ? Integer.parseInt(call.argument("count").toString())
+                : 1);
+            result.success(true);
+        } else if (call.method.equals("getEventQueueStats")) {
+            result.success(eventBatcher.stats());
+        } else if (call.method.equals("getMetrics")) {
+            result.success(metrics.snapshot(queriedRates));
+        } else if (call.method.equals("setMetricsPush")) {
+            metricsPushIntervalMs = call.argument("intervalMs") != null
+                ? Long.parseLong(call.argument("intervalMs").toString())
+                : 0;
+            scheduler.removeCallbacks(metricsPush);
+            if (metricsPushIntervalMs > 0) {
+                pushedRates.reset();
+                scheduler.postDelayed(metricsPush, metricsPushIntervalMs);
+            }
+            result.success(true);
+        } else if (call.method.equals("setBinaryEvents")) {
+            binaryEvents.setEnabled(Boolean.TRUE.equals(call.argument("enabled")));
+            result.success(true);
         } else if (call.method.equals("getLocationHash")) {
             double lat = Double.parseDouble(call.argument("lat").toString());
             double lng = Double.parseDouble(call.argument("lng").toString());
@@ -248,26 +911,297 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 : 10;
             GeoHash geoHash = new GeoHash(lat, lng, precision);
             result.success(geoHash.getGeoHashString());
+        } else if (call.method.equals("getLocationHashes")) {
+            double[] lats = call.argument("lat");
+            double[] lngs = call.argument("lng");
+            int precision = call.argument("precision") != null
+                ? Integer.parseInt(call.argument("precision").toString())
+                : 10;
+            if (lats == null || lngs == null) {
+                result.error("INVALID_ARGUMENTS", "lat and lng cannot be null", null);
+                return;
+            }
+            try {
+                result.success(GeoHashBatch.encode(lats, lngs, precision));
+            } catch (IllegalArgumentException e) {
+                result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+            }
+        } else if (call.method.equals("decodeLocationHashes")) {
+            byte[] hashes = call.argument("hashes");
+            int precision = call.argument("precision") != null
+                ? Integer.parseInt(call.argument("precision").toString())
+                : 10;
+            if (hashes == null) {
+                result.error("INVALID_ARGUMENTS", "hashes cannot be null", null);
+                return;
+            }
+            try {
+                result.success(GeoHashBatch.decodeBounds(hashes, precision));
+            } catch (IllegalArgumentException e) {
+                result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+            }
         } else {
             result.notImplemented();
         }
     }
 
-    private void geoFireArea(final double latitude, double longitude, final Result result, double radius) {
+    /**
+     * Commits several setLocation/removeLocation operations as a single atomic
+     * multi-path write. Each entry is written in the same layout GeoFire uses
+     * ({@code g}, {@code l} and the geohash as priority). Entries with an invalid
+     * key or coordinates are reported as failed and left out of the write; all
+     * other entries share the outcome of the write. An entry without an id has
+     * no key to report under, so it fails the whole call before anything is
+     * written.
+     */
+    private void writeLocations(List<Map<String, Object>> entries, boolean set, final Result result) {
+        final HashMap<String, Object> updates = new HashMap<>();
+        final HashMap<String, Object> outcome = new HashMap<>();
+
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i) == null || entries.get(i).get("id") == null) {
+                result.error("INVALID_ARGUMENTS", "Entry " + i + " has no id", null);
+                return;
+            }
+        }
+        for (Map<String, Object> entry : entries) {
+            String key = entry.get("id").toString();
+            if (!isValidKey(key)) {
+                outcome.put(key, false);
+                continue;
+            }
+            if (!set) {
+                updates.put(key, null);
+                continue;
+            }
+            Double latitude = parseCoordinate(entry.get("lat"));
+            Double longitude = parseCoordinate(entry.get("lng"));
+            if (latitude == null || longitude == null || !GeoLocation.coordinatesValid(latitude, longitude)) {
+                outcome.put(key, false);
+                continue;
+            }
+            String hash = new GeoHash(latitude, longitude).getGeoHashString();
+            HashMap<String, Object> value = new HashMap<>();
+            value.put("g", hash);
+            value.put("l", Arrays.asList(latitude, longitude));
+            value.put(".priority", hash);
+            updates.put(key, value);
+        }
+
+        if (updates.isEmpty()) {
+            result.success(outcome);
+            return;
+        }
+
+        metrics.pendingWrites.add(1);
+        databaseReference.updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, @NonNull DatabaseReference ref) {
+                metrics.pendingWrites.add(-1);
+                if (error != null) {
+                    Log.w(TAG, "Batched write failed: " + error.getMessage());
+                }
+                for (String key : updates.keySet()) {
+                    outcome.put(key, error == null);
+                }
+                result.success(outcome);
+            }
+        });
+    }
+
+    // null when the value is missing or not a number
+    private static Double parseCoordinate(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Named queries and nearby subscribers tag their events with the same queryId
+    // on the shared stream, so an id may only live in one of them, and never be
+    // the id fence events are tagged with.
+    private boolean checkQueryId(String queryId, boolean subscriber, Result result) {
+        String usedBy = null;
+        if (queryId.equals(FENCES_QUERY_ID)) {
+            usedBy = "fence events";
+        } else if (subscriber && namedQueries.containsKey(queryId)) {
+            usedBy = "a named query";
+        } else if (!subscriber && queryMultiplexer != null && queryMultiplexer.isSubscribed(queryId)) {
+            usedBy = "a nearby subscriber";
+        }
+        if (usedBy != null) {
+            result.error("INVALID_ARGUMENTS", "The id " + queryId + " is already used by " + usedBy, null);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isValidPosition(Object entry) {
+        if (!(entry instanceof List) || ((List<?>) entry).size() < 2) {
+            return false;
+        }
+        List<?> position = (List<?>) entry;
+        if (!(position.get(0) instanceof Number) || !(position.get(1) instanceof Number)) {
+            return false;
+        }
+        double latitude = ((Number) position.get(0)).doubleValue();
+        double longitude = ((Number) position.get(1)).doubleValue();
+        return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180;
+    }
+
+    // Mirrors the key restrictions of the Realtime Database; a '/' would otherwise
+    // turn a multi-path update into a write to a nested path.
+    private static boolean isValidKey(String key) {
+        if (key.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '.' || c == '#' || c == '$' || c == '[' || c == ']' || c == '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static HashMap<String, Object> locationResult(String key, GeoLocation location) {
+        HashMap<String, Object> map = new HashMap<>();
+        if (location != null) {
+            map.put("lat", location.latitude);
+            map.put("lng", location.longitude);
+            map.put("error", null);
+        } else {
+            map.put("error", String.format("There is no location for key %s in GeoFire", key));
+        }
+        return map;
+    }
+
+    private static HashMap<String, Object> locationError(DatabaseError databaseError) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("error", "There was an error getting the GeoFire location: " + databaseError);
+        return map;
+    }
+
+    /**
+     * Starts all lookups at once and answers with a single map of id to the
+     * same result getLocation returns. Lookups still running when the timeout
+     * expires are reported with an error.
+     */
+    private void getLocations(List<String> ids, long timeoutMs, final Result result) {
+        final LinkedHashSet<String> pending = new LinkedHashSet<>();
+        final HashMap<String, Object> results = new HashMap<>();
+        for (String id : ids) {
+            if (isValidKey(id)) {
+                pending.add(id);
+            } else {
+                HashMap<String, Object> map = new HashMap<>();
+                map.put("error", String.format("Invalid GeoFire key %s", id));
+                results.put(id, map);
+            }
+        }
+        if (pending.isEmpty()) {
+            result.success(results);
+            return;
+        }
+
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                for (String key : pending) {
+                    HashMap<String, Object> map = new HashMap<>();
+                    map.put("error", "Timed out getting the GeoFire location");
+                    results.put(key, map);
+                }
+                pending.clear();
+                result.success(results);
+            }
+        };
+        scheduler.postDelayed(timeout, timeoutMs);
+
+        // callbacks arrive on the main thread, so the shared state needs no locking
+        for (final String id : new ArrayList<>(pending)) {
+            geoFire.getLocation(id, new LocationCallback() {
+                @Override
+                public void onLocationResult(String key, GeoLocation location) {
+                    complete(id, locationResult(key, location));
+                }
+
+                @Override
+                public void onCancelled(DatabaseError databaseError) {
+                    complete(id, locationError(databaseError));
+                }
+
+                private void complete(String id, HashMap<String, Object> map) {
+                    if (!pending.remove(id)) {
+                        return;
+                    }
+                    results.put(id, map);
+                    if (pending.isEmpty()) {
+                        scheduler.removeCallbacks(timeout);
+                        result.success(results);
+                    }
+                }
+            });
+        }
+    }
+
+    private void geoFireArea(final double latitude, double longitude, final Result result, double radius,
+            QueryOptions options) {
         try {
+            GeoLocation center = new GeoLocation(latitude, longitude);
+            RecenterController recenterController = currentGeoQueryEventListener != null
+                ? currentGeoQueryEventListener.getRecenterController()
+                : null;
+            if (recenterController != null && options.hasRecenterPolicy()
+                    && options.sameMovePolicy(currentGeoQueryEventListener.getOptions())) {
+                // keep the listener and its keys, only the area changes
+                recenterController.request(center, radius);
+                result.success(true);
+                return;
+            }
+
+            double subscribedRadius = options.subscribedRadius(radius);
+            // cached keys only help until the first live results arrive; a
+            // replaced listener saved its keys when it became ready
+            boolean showCached = currentGeoQueryEventListener == null;
             if (geoQuery != null) {
                 // Remove only the current event listener, not data listener
                 if (currentGeoQueryEventListener != null) {
                     safeRemoveGeoQueryEventListener(currentGeoQueryEventListener);
+                    releaseEventListener();
                     currentGeoQueryEventListener = null;
                 }
-                geoQuery.setLocation(new GeoLocation(latitude, longitude), radius);
+                geoQuery.setLocation(center, subscribedRadius);
             } else {
-                geoQuery = geoFire.queryAtLocation(new GeoLocation(latitude, longitude), radius);
+                geoQuery = geoFire.queryAtLocation(center, subscribedRadius);
             }
 
-            currentGeoQueryEventListener = new PluginGeoQueryEventListener();
+            // the new listener replays every key, so start a fresh key namespace
+            binaryEvents.reset();
+            currentGeoQueryEventListener = newEventListener(null, options);
+            if (options.hasRecenterPolicy()) {
+                currentGeoQueryEventListener.setRecenterController(new RecenterController(geoQuery, options,
+                        currentGeoQueryEventListener, center, radius, scheduler));
+            }
             geoQuery.addGeoQueryEventListener(currentGeoQueryEventListener);
+            if (cacheQueries && queryCache != null && databasePath != null) {
+                final PluginGeoQueryEventListener listener = currentGeoQueryEventListener;
+                listener.useCache(queryCache, databasePath, center, radius);
+                if (showCached) {
+                    queryCache.load(databasePath, latitude, longitude, radius, new QueryCache.LoadCallback() {
+                        @Override
+                        public void onLoaded(QueryCache.Snapshot snapshot) {
+                            if (listener == currentGeoQueryEventListener) {
+                                listener.showCached(snapshot);
+                            }
+                        }
+                    });
+                }
+            }
             result.success(true);
         } catch (Exception e) {
             e.printStackTrace();
@@ -275,12 +1209,14 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
         }
     }
 
-    private void geoFireAreaWithData(final double latitude, double longitude, final Result result, double radius) {
+    private void geoFireAreaWithData(final double latitude, double longitude, final Result result, double radius,
+            QueryOptions options) {
         try {
             if (geoQuery != null) {
                 // Remove only the current data listener, not event listener
                 if (currentGeoQueryDataEventListener != null) {
                     safeRemoveGeoQueryDataEventListener(currentGeoQueryDataEventListener);
+                    releaseDataListener();
                     currentGeoQueryDataEventListener = null;
                 }
                 geoQuery.setLocation(new GeoLocation(latitude, longitude), radius);
@@ -288,7 +1224,15 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 geoQuery = geoFire.queryAtLocation(new GeoLocation(latitude, longitude), radius);
             }
 
-            currentGeoQueryDataEventListener = new PluginGeoQueryDataEventListener();
+            currentGeoQueryDataEventListener = newDataListener(null, options);
+            if (options.lazy) {
+                if (options.dataPath != null) {
+                    currentGeoQueryDataEventListener.setLazyPayloads(
+                            database.getReference(options.dataPath), false, options.cacheSize);
+                } else {
+                    currentGeoQueryDataEventListener.setLazyPayloads(databaseReference, true, options.cacheSize);
+                }
+            }
             geoQuery.addGeoQueryDataEventListener(currentGeoQueryDataEventListener);
             result.success(true);
         } catch (Exception e) {
@@ -302,6 +1246,7 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
         // Track if this is a reconnection (hot restart) vs initial connection
         boolean isReconnection = (events != null);
         events = eventSink;
+        eventBatcher.setSink(eventSink);
         
         // Only re-hook listeners on hot restart reconnection.
         // On initial connection, listeners are already attached by queryAtLocation().
@@ -311,13 +1256,27 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
                 PluginGeoQueryEventListener listener = currentGeoQueryEventListener;
                 safeRemoveGeoQueryEventListener(listener);
                 listener.reset();
+                binaryEvents.reset();
                 geoQuery.addGeoQueryEventListener(listener);
+                metrics.listenerReattaches.add(1);
             }
             if (currentGeoQueryDataEventListener != null) {
                 PluginGeoQueryDataEventListener listener = currentGeoQueryDataEventListener;
                 safeRemoveGeoQueryDataEventListener(listener);
                 listener.reset();
                 geoQuery.addGeoQueryDataEventListener(listener);
+                metrics.listenerReattaches.add(1);
+            }
+        }
+        if (isReconnection) {
+            for (NamedGeoQuery query : namedQueries.values()) {
+                query.detach();
+                query.attach();
+                metrics.listenerReattaches.add(1);
+            }
+            if (queryMultiplexer != null) {
+                queryMultiplexer.reattach();
+                metrics.listenerReattaches.add(1);
             }
         }
     }
@@ -325,203 +1284,259 @@ public class GeofirePlugin implements FlutterPlugin, MethodCallHandler, EventCha
     @Override
     public void onCancel(Object o) {
         events = null;
+        eventBatcher.setSink(null);
+    }
+
+    private PluginGeoQueryEventListener newEventListener(String queryId, QueryOptions options) {
+        return new PluginGeoQueryEventListener(queryId, options, queryEventSink, scheduler, metrics);
+    }
+
+    private PluginGeoQueryDataEventListener newDataListener(String queryId, QueryOptions options) {
+        return new PluginGeoQueryDataEventListener(queryId, options, queryEventSink, scheduler, metrics,
+                snapshotPipeline);
+    }
+
+    private void releaseEventListener() {
+        if (currentGeoQueryEventListener != null) {
+            currentGeoQueryEventListener.cancelTimers();
+        }
+    }
+
+    private void releaseDataListener() {
+        if (currentGeoQueryDataEventListener != null) {
+            currentGeoQueryDataEventListener.release();
+        }
+    }
+
+    private void saveQueryCache() {
+        if (currentGeoQueryEventListener != null) {
+            currentGeoQueryEventListener.saveCache();
+        }
+    }
+
+    // Events of named queries carry their query id so Dart can route them
+    private static HashMap<String, Object> newEvent(String queryId) {
+        HashMap<String, Object> event = new HashMap<>();
+        if (queryId != null) {
+            event.put("queryId", queryId);
+        }
+        return event;
+    }
+
+    private void sendEvent(HashMap<String, Object> event) {
+        metrics.countEvent((String) event.get("callBack"));
+        eventBatcher.add(event);
     }
 
-    private class PluginGeoQueryEventListener implements GeoQueryEventListener {
-        private final ArrayList<String> arrayListKeys = new ArrayList<>();
+    // {id, lat, lng, radius} for a circle or {id, points} for a polygon
+    private static FenceRegistry.Fence parseFence(Map<String, Object> entry) {
+        String id = entry.get("id").toString();
+        List<?> points = (List<?>) entry.get("points");
+        if (points == null) {
+            return FenceRegistry.Fence.circle(id, Double.parseDouble(entry.get("lat").toString()),
+                    Double.parseDouble(entry.get("lng").toString()),
+                    Double.parseDouble(entry.get("radius").toString()));
+        }
+        double[] latitudes = new double[points.size()];
+        double[] longitudes = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            List<?> point = (List<?>) points.get(i);
+            latitudes[i] = Double.parseDouble(point.get(0).toString());
+            longitudes[i] = Double.parseDouble(point.get(1).toString());
+        }
+        return FenceRegistry.Fence.polygon(id, latitudes, longitudes);
+    }
 
-        public void reset() {
-            arrayListKeys.clear();
+    private void sendFenceEvents(String callBack, List<String> fenceIds, double latitude, double longitude,
+            Object timestamp) {
+        if (events == null) {
+            return;
+        }
+        for (String fenceId : fenceIds) {
+            HashMap<String, Object> event = newEvent(FENCES_QUERY_ID);
+            event.put("callBack", callBack);
+            event.put("fenceId", fenceId);
+            event.put("latitude", latitude);
+            event.put("longitude", longitude);
+            if (timestamp != null) {
+                event.put("timestamp", timestamp);
+            }
+            sendEvent(event);
+        }
+    }
+
+    // The details carry the query id, so Dart can route the error, and the
+    // database error as plain values the message codec can encode
+    private void sendError(String queryId, DatabaseError error) {
+        eventBatcher.flush(true);
+        binaryEvents.flush();
+        HashMap<String, Object> details = new HashMap<>();
+        details.put("queryId", queryId);
+        details.put("code", error.getCode());
+        details.put("message", error.getMessage());
+        events.error("Error ", "GeoQueryError", details);
+    }
+
+    /**
+     * Keeps the k keys closest to the center. The query starts at a small
+     * radius and doubles it, up to maxRadius, until it holds at least k keys;
+     * it grows again when keys leave and fewer than k remain. Changes to the
+     * top k are sent as one distance-ordered list per main loop turn.
+     */
+    private class PluginNearestQueryListener implements GeoQueryEventListener {
+        private final String queryId;
+        private final GeoQuery geoQuery;
+        private final NearestKeys nearest;
+        private final double initialRadius;
+        private GeoLocation center;
+        private double maxRadius;
+        private double radius;
+        // set once the current radius has loaded, until then changes are not sent
+        private boolean ready;
+        // GeoFire reported ready for the ranges the query listens to
+        private boolean queryReady;
+        private boolean emitScheduled;
+        private boolean replayScheduled;
+
+        private final Runnable emitRunnable = new Runnable() {
+            @Override
+            public void run() {
+                emitScheduled = false;
+                emit();
+            }
+        };
+        // GeoFire only reports ready again when a move adds geohash ranges
+        private final Runnable replayReady = new Runnable() {
+            @Override
+            public void run() {
+                replayScheduled = false;
+                onGeoQueryReady();
+            }
+        };
+
+        PluginNearestQueryListener(String queryId, GeoQuery geoQuery, GeoLocation center, int k,
+                double initialRadius, double maxRadius) {
+            this.queryId = queryId;
+            this.geoQuery = geoQuery;
+            this.nearest = new NearestKeys(k, center.latitude, center.longitude);
+            this.initialRadius = initialRadius;
+            this.center = center;
+            this.maxRadius = maxRadius;
+            this.radius = initialRadius;
+        }
+
+        void reset() {
+            cancel();
+            nearest.clear();
+            ready = false;
+            queryReady = false;
+        }
+
+        void cancel() {
+            cancelEmit();
+            scheduler.removeCallbacks(replayReady);
+            replayScheduled = false;
+        }
+
+        /** Starts the search over around a new center, with maxRadius as the new limit. */
+        void restart(GeoLocation center, double maxRadius) {
+            cancelEmit();
+            this.maxRadius = maxRadius;
+            ready = false;
+            nearest.setCenter(center.latitude, center.longitude);
+            moveQuery(center, Math.min(initialRadius, maxRadius));
         }
 
         @Override
         public void onKeyEntered(String key, GeoLocation location) {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onKeyEntered");
-                hashMap.put("key", key);
-                hashMap.put("latitude", location.latitude);
-                hashMap.put("longitude", location.longitude);
-                events.success(hashMap);
+            if (nearest.put(key, location.latitude, location.longitude)) {
+                scheduleEmit();
             }
-            arrayListKeys.add(key);
         }
 
         @Override
         public void onKeyExited(String key) {
-            arrayListKeys.remove(key);
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onKeyExited");
-                hashMap.put("key", key);
-                events.success(hashMap);
+            if (nearest.remove(key)) {
+                scheduleEmit();
+            }
+            if (ready) {
+                growIfNeeded();
             }
         }
 
         @Override
         public void onKeyMoved(String key, GeoLocation location) {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onKeyMoved");
-                hashMap.put("key", key);
-                hashMap.put("latitude", location.latitude);
-                hashMap.put("longitude", location.longitude);
-                events.success(hashMap);
+            if (nearest.put(key, location.latitude, location.longitude)) {
+                scheduleEmit();
             }
         }
 
         @Override
         public void onGeoQueryReady() {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onGeoQueryReady");
-                hashMap.put("result", arrayListKeys);
-                events.success(hashMap);
+            queryReady = true;
+            scheduler.removeCallbacks(replayReady);
+            replayScheduled = false;
+            if (growIfNeeded()) {
+                // wait for the larger radius to load
+                return;
             }
+            ready = true;
+            cancelEmit();
+            emit();
         }
 
         @Override
         public void onGeoQueryError(DatabaseError error) {
             if (events != null) {
-                events.error("Error ", "GeoQueryError", error);
+                sendError(queryId, error);
             }
         }
-    }
-
-    private class PluginGeoQueryDataEventListener implements GeoQueryDataEventListener {
-        private final ArrayList<String> arrayListKeys = new ArrayList<>();
-
-        public void reset() {
-            arrayListKeys.clear();
-        }
 
-        @Override
-        public void onDataEntered(DataSnapshot dataSnapshot, GeoLocation location) {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onDataKeyEntered");
-                hashMap.put("key", dataSnapshot.getKey());
-                hashMap.put("latitude", location.latitude);
-                hashMap.put("longitude", location.longitude);
-
-                // Convert DataSnapshot to HashMap
-                HashMap<String, Object> dataMap = new HashMap<>();
-                if (dataSnapshot.getValue() != null) {
-                    try {
-                        Object value = dataSnapshot.getValue();
-                        if (value instanceof HashMap) {
-                            dataMap = (HashMap<String, Object>) value;
-                        } else {
-                            dataMap.put("value", value);
-                        }
-                    } catch (Exception e) {
-                        dataMap.put("value", dataSnapshot.getValue());
-                    }
-                }
-                hashMap.put("data", dataMap);
-                events.success(hashMap);
+        private boolean growIfNeeded() {
+            if (nearest.size() >= nearest.capacity() || radius >= maxRadius) {
+                return false;
             }
-            arrayListKeys.add(dataSnapshot.getKey());
+            moveQuery(center, Math.min(maxRadius, radius * 2));
+            return true;
         }
 
-        @Override
-        public void onDataExited(DataSnapshot dataSnapshot) {
-            arrayListKeys.remove(dataSnapshot.getKey());
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onDataKeyExited");
-                hashMap.put("key", dataSnapshot.getKey());
-
-                // Convert DataSnapshot to HashMap
-                HashMap<String, Object> dataMap = new HashMap<>();
-                if (dataSnapshot.getValue() != null) {
-                    try {
-                        Object value = dataSnapshot.getValue();
-                        if (value instanceof HashMap) {
-                            dataMap = (HashMap<String, Object>) value;
-                        } else {
-                            dataMap.put("value", value);
-                        }
-                    } catch (Exception e) {
-                        dataMap.put("value", dataSnapshot.getValue());
-                    }
-                }
-                hashMap.put("data", dataMap);
-                events.success(hashMap);
+        // The listener stays attached; GeoQuery reports the keys that changed
+        private void moveQuery(GeoLocation center, double radius) {
+            // a scheduled replay stands for a ready GeoFire will not send
+            boolean loaded = queryReady || replayScheduled;
+            boolean replay = loaded && !QueryMultiplexer.addsRanges(this.center, this.radius, center, radius);
+            this.center = center;
+            this.radius = radius;
+            queryReady = false;
+            scheduler.removeCallbacks(replayReady);
+            replayScheduled = replay;
+            geoQuery.setLocation(center, radius);
+            if (replay) {
+                // GeoQuery posts the keys it re-evaluated ahead of this
+                scheduler.postDelayed(replayReady, 0);
             }
         }
 
-        @Override
-        public void onDataMoved(DataSnapshot dataSnapshot, GeoLocation location) {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onDataKeyMoved");
-                hashMap.put("key", dataSnapshot.getKey());
-                hashMap.put("latitude", location.latitude);
-                hashMap.put("longitude", location.longitude);
-
-                // Convert DataSnapshot to HashMap
-                HashMap<String, Object> dataMap = new HashMap<>();
-                if (dataSnapshot.getValue() != null) {
-                    try {
-                        Object value = dataSnapshot.getValue();
-                        if (value instanceof HashMap) {
-                            dataMap = (HashMap<String, Object>) value;
-                        } else {
-                            dataMap.put("value", value);
-                        }
-                    } catch (Exception e) {
-                        dataMap.put("value", dataSnapshot.getValue());
-                    }
-                }
-                hashMap.put("data", dataMap);
-                events.success(hashMap);
-            }
+        private void cancelEmit() {
+            scheduler.removeCallbacks(emitRunnable);
+            emitScheduled = false;
         }
 
-        @Override
-        public void onDataChanged(DataSnapshot dataSnapshot, GeoLocation location) {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onDataKeyChanged");
-                hashMap.put("key", dataSnapshot.getKey());
-                hashMap.put("latitude", location.latitude);
-                hashMap.put("longitude", location.longitude);
-
-                // Convert DataSnapshot to HashMap
-                HashMap<String, Object> dataMap = new HashMap<>();
-                if (dataSnapshot.getValue() != null) {
-                    try {
-                        Object value = dataSnapshot.getValue();
-                        if (value instanceof HashMap) {
-                            dataMap = (HashMap<String, Object>) value;
-                        } else {
-                            dataMap.put("value", value);
-                        }
-                    } catch (Exception e) {
-                        dataMap.put("value", dataSnapshot.getValue());
-                    }
-                }
-                hashMap.put("data", dataMap);
-                events.success(hashMap);
+        private void scheduleEmit() {
+            if (ready && !emitScheduled) {
+                emitScheduled = true;
+                scheduler.postDelayed(emitRunnable, 0);
             }
         }
 
-        @Override
-        public void onGeoQueryReady() {
-            if (events != null) {
-                hashMap.clear();
-                hashMap.put("callBack", "onGeoQueryReady");
-                hashMap.put("result", arrayListKeys);
-                events.success(hashMap);
-            }
-        }
-
-        @Override
-        public void onGeoQueryError(DatabaseError error) {
+        private void emit() {
             if (events != null) {
-                events.error("Error ", "GeoQueryError", error);
+                HashMap<String, Object> hashMap = newEvent(queryId);
+                hashMap.put("callBack", "onNearestChanged");
+                hashMap.put("result", nearest.nearest());
+                hashMap.put("radius", radius);
+                sendEvent(hashMap);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,209 @@
+package in.appyflow.geofire;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Payloads of a lazy data query, fetched only when asked for.
+ *
+ * Fetched payloads are kept in an LRU cache keyed by geo key. A fetch reads
+ * the missing keys concurrently and shares reads already in flight for the
+ * same key. Keys marked visible are subscribed to, so their cached payload
+ * stays current and changes are reported to the {@link Listener}.
+ *
+ * Must only be used from the main thread.
+ */
+class LazyPayloads {
+
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    interface Listener {
+        void onPayloadChanged(String key, Object payload);
+    }
+
+    interface FetchCallback {
+        /** Payload per key; null for keys without data or that timed out. */
+        void onFetched(HashMap<String, Object> payloads);
+    }
+
+    private final DatabaseReference dataReference;
+    private final Listener listener;
+    private final Scheduler scheduler;
+    private final LinkedHashMap<String, Object> cache;
+    // fetches waiting for each key
+    private final HashMap<String, ArrayList<Fetch>> inFlight = new HashMap<>();
+    private final HashMap<String, ValueEventListener> subscriptions = new HashMap<>();
+
+    LazyPayloads(DatabaseReference dataReference, final int cacheSize, Listener listener, Scheduler scheduler) {
+        this.dataReference = dataReference;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > Math.max(1, cacheSize);
+            }
+        };
+    }
+
+    void fetch(List<String> keys, long timeoutMs, FetchCallback callback) {
+        final Fetch fetch = new Fetch(callback);
+        for (String key : keys) {
+            if (cache.containsKey(key)) {
+                fetch.results.put(key, cache.get(key));
+            } else {
+                fetch.pending.add(key);
+            }
+        }
+        if (fetch.pending.isEmpty()) {
+            callback.onFetched(fetch.results);
+            return;
+        }
+        scheduler.postDelayed(fetch, timeoutMs);
+        for (final String key : new ArrayList<>(fetch.pending)) {
+            ArrayList<Fetch> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(fetch);
+                continue;
+            }
+            waiting = new ArrayList<>(1);
+            waiting.add(fetch);
+            inFlight.put(key, waiting);
+            dataReference.child(key).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    Object payload = snapshot.exists() ? SnapshotPipeline.toDataMap(snapshot) : null;
+                    cache.put(key, payload);
+                    completeKey(key, payload);
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    completeKey(key, null);
+                }
+            });
+        }
+    }
+
+    /** Subscribes to the given keys and drops the subscriptions of all others. */
+    void setVisible(Collection<String> keys) {
+        HashSet<String> visible = new HashSet<>(keys);
+        Iterator<Map.Entry<String, ValueEventListener>> iterator = subscriptions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ValueEventListener> entry = iterator.next();
+            if (!visible.contains(entry.getKey())) {
+                dataReference.child(entry.getKey()).removeEventListener(entry.getValue());
+                iterator.remove();
+            }
+        }
+        for (final String key : visible) {
+            if (subscriptions.containsKey(key)) {
+                continue;
+            }
+            ValueEventListener subscription = new ValueEventListener() {
+                // the first callback is the current value, not a change
+                private boolean initial = true;
+
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    Object payload = snapshot.exists() ? SnapshotPipeline.toDataMap(snapshot) : null;
+                    cache.put(key, payload);
+                    if (!initial) {
+                        listener.onPayloadChanged(key, payload);
+                    }
+                    initial = false;
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    subscriptions.remove(key);
+                }
+            };
+            subscriptions.put(key, subscription);
+            dataReference.child(key).addValueEventListener(subscription);
+        }
+    }
+
+    boolean isVisible(String key) {
+        return subscriptions.containsKey(key);
+    }
+
+    /** Forgets the cached payload of a key whose data changed, unless it is subscribed. */
+    void invalidate(String key) {
+        if (!subscriptions.containsKey(key)) {
+            cache.remove(key);
+        }
+    }
+
+    void dispose() {
+        setVisible(new ArrayList<String>());
+        for (ArrayList<Fetch> waiting : new ArrayList<>(inFlight.values())) {
+            for (Fetch fetch : waiting) {
+                fetch.run();
+            }
+        }
+        inFlight.clear();
+        cache.clear();
+    }
+
+    private void completeKey(String key, Object payload) {
+        ArrayList<Fetch> waiting = inFlight.remove(key);
+        if (waiting == null) {
+            return;
+        }
+        for (Fetch fetch : waiting) {
+            fetch.complete(key, payload);
+        }
+    }
+
+    // Runs as the timeout: answers with what has arrived so far
+    private final class Fetch implements Runnable {
+        final FetchCallback callback;
+        final HashSet<String> pending = new HashSet<>();
+        final HashMap<String, Object> results = new HashMap<>();
+        boolean done;
+
+        Fetch(FetchCallback callback) {
+            this.callback = callback;
+        }
+
+        void complete(String key, Object payload) {
+            if (done || !pending.remove(key)) {
+                return;
+            }
+            results.put(key, payload);
+            if (pending.isEmpty()) {
+                scheduler.removeCallbacks(this);
+                done = true;
+                callback.onFetched(results);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            done = true;
+            scheduler.removeCallbacks(this);
+            for (String key : pending) {
+                results.put(key, null);
+            }
+            pending.clear();
+            callback.onFetched(results);
+        }
+    }
+}
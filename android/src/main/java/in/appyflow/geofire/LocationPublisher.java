@@ -0,0 +1,197 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.core.GeoHash;
+import com.firebase.geofire.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Coalesces setLocation calls from moving devices.
+ *
+ * Writes are held per key, the last one winning, and flushed together every
+ * interval. A fix that stays in the same geohash cell (at the configured
+ * precision) and within minDistance meters of the last written location is
+ * not written at all; a fix that enters a new cell is flushed right away, so
+ * queries see cell changes without delay.
+ *
+ * The result of a held write completes with the outcome of the write that
+ * carried its key; a skipped write completes with true.
+ *
+ * Must only be used from the main thread.
+ */
+class LocationPublisher {
+
+    /** Writes entries of {@code id}, {@code lat} and {@code lng}; reports a map of key to success. */
+    interface Writer {
+        void write(List<Map<String, Object>> entries, Result result);
+    }
+
+    static final long DEFAULT_INTERVAL_MS = 1000;
+    static final double DEFAULT_MIN_DISTANCE = 5;
+    static final int DEFAULT_PRECISION = 7;
+
+    private static final class KeyState {
+        // last written location, or in flight
+        boolean written;
+        double latitude;
+        double longitude;
+        String hash;
+        // held write
+        boolean pending;
+        double pendingLatitude;
+        double pendingLongitude;
+        String pendingHash;
+        final ArrayList<Result> results = new ArrayList<>(1);
+    }
+
+    private final Writer writer;
+    private final Scheduler scheduler;
+    private final LinkedHashMap<String, KeyState> keys = new LinkedHashMap<>();
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private double minDistance = DEFAULT_MIN_DISTANCE;
+    private int precision = DEFAULT_PRECISION;
+    private boolean scheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            flush();
+        }
+    };
+
+    LocationPublisher(Writer writer, Scheduler scheduler) {
+        this.writer = writer;
+        this.scheduler = scheduler;
+    }
+
+    void configure(long intervalMs, double minDistance, int precision) {
+        flush();
+        this.intervalMs = Math.max(0, intervalMs);
+        this.minDistance = Math.max(0, minDistance);
+        this.precision = Math.max(1, Math.min(GeoHashBatch.MAX_PRECISION, precision));
+        // hashes of a different precision cannot be compared
+        keys.clear();
+    }
+
+    void offer(String key, double latitude, double longitude, Result result) {
+        KeyState state = keys.get(key);
+        if (state == null) {
+            state = new KeyState();
+            keys.put(key, state);
+        }
+        String hash = new GeoHash(latitude, longitude, precision).getGeoHashString();
+        boolean cellChanged = !state.written || !hash.equals(state.hash);
+        if (!state.pending && !cellChanged
+                && GeoUtils.distance(state.latitude, state.longitude, latitude, longitude) < minDistance) {
+            // the stored location is close enough
+            result.success(true);
+            return;
+        }
+        state.pending = true;
+        state.pendingLatitude = latitude;
+        state.pendingLongitude = longitude;
+        state.pendingHash = hash;
+        state.results.add(result);
+        if (cellChanged) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            scheduler.postDelayed(flushRunnable, intervalMs);
+        }
+    }
+
+    /** Drops a held write for a key that is being removed. */
+    void forget(String key) {
+        KeyState state = keys.remove(key);
+        if (state != null) {
+            // never written, the removal supersedes it
+            complete(state.results, false);
+        }
+    }
+
+    void flush() {
+        if (scheduled) {
+            scheduler.removeCallbacks(flushRunnable);
+            scheduled = false;
+        }
+        ArrayList<Map<String, Object>> entries = new ArrayList<>();
+        final HashMap<String, ArrayList<Result>> waiting = new HashMap<>();
+        final HashMap<String, String> hashes = new HashMap<>();
+        for (Map.Entry<String, KeyState> entry : keys.entrySet()) {
+            KeyState state = entry.getValue();
+            if (!state.pending) {
+                continue;
+            }
+            HashMap<String, Object> location = new HashMap<>();
+            location.put("id", entry.getKey());
+            location.put("lat", state.pendingLatitude);
+            location.put("lng", state.pendingLongitude);
+            entries.add(location);
+            waiting.put(entry.getKey(), new ArrayList<>(state.results));
+            hashes.put(entry.getKey(), state.pendingHash);
+
+            state.written = true;
+            state.latitude = state.pendingLatitude;
+            state.longitude = state.pendingLongitude;
+            state.hash = state.pendingHash;
+            state.pending = false;
+            state.results.clear();
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        writer.write(entries, new Result() {
+            @Override
+            public void success(Object outcome) {
+                Map<?, ?> outcomes = outcome instanceof Map ? (Map<?, ?>) outcome : null;
+                for (Map.Entry<String, ArrayList<Result>> entry : waiting.entrySet()) {
+                    boolean written = outcomes != null && Boolean.TRUE.equals(outcomes.get(entry.getKey()));
+                    if (!written) {
+                        failed(entry.getKey(), hashes.get(entry.getKey()));
+                    }
+                    complete(entry.getValue(), written);
+                }
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                for (Map.Entry<String, ArrayList<Result>> entry : waiting.entrySet()) {
+                    failed(entry.getKey(), hashes.get(entry.getKey()));
+                    complete(entry.getValue(), false);
+                }
+            }
+
+            @Override
+            public void notImplemented() {
+                error(null, null, null);
+            }
+        });
+    }
+
+    /** Flushes held writes and forgets what was written. */
+    void clear() {
+        flush();
+        keys.clear();
+    }
+
+    // The next fix for the key is written again, unless a newer write is in flight
+    private void failed(String key, String hash) {
+        KeyState state = keys.get(key);
+        if (state != null && state.written && hash.equals(state.hash)) {
+            state.written = false;
+        }
+    }
+
+    private static void complete(List<Result> results, boolean written) {
+        for (Result result : results) {
+            result.success(written);
+        }
+    }
+}
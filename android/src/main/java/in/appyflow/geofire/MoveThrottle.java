@@ -0,0 +1,129 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.util.GeoUtils;
+
+import java.util.HashMap;
+
+/**
+ * Limits how often moves of a single key are forwarded. A move is forwarded
+ * once the key is at least minDistanceMeters away from the last forwarded
+ * position and at least minIntervalMs have passed since then. Suppressed
+ * moves are kept, so the latest position is sent as soon as both thresholds
+ * are met, or right before the key exits.
+ *
+ * Must only be used from the main thread.
+ *
+ * @param <T> extra payload forwarded with a move, e.g. the DataSnapshot
+ */
+class MoveThrottle<T> {
+
+    interface Emitter<T> {
+        void emitMove(String key, GeoLocation location, T payload);
+    }
+
+    private final class KeyState implements Runnable {
+        final String key;
+        GeoLocation lastLocation;
+        long lastTime;
+        GeoLocation pendingLocation;
+        T pendingPayload;
+        boolean scheduled;
+
+        KeyState(String key, GeoLocation location) {
+            this.key = key;
+            this.lastLocation = location;
+            this.lastTime = scheduler.now();
+        }
+
+        @Override
+        public void run() {
+            scheduled = false;
+            if (pendingLocation != null
+                    && GeoUtils.distance(lastLocation, pendingLocation) >= minDistanceMeters) {
+                flush(this);
+            }
+        }
+    }
+
+    private final double minDistanceMeters;
+    private final long minIntervalMs;
+    private final Emitter<T> emitter;
+    private final Scheduler scheduler;
+    private final HashMap<String, KeyState> keys = new HashMap<>();
+
+    MoveThrottle(double minDistanceMeters, long minIntervalMs, Emitter<T> emitter, Scheduler scheduler) {
+        this.minDistanceMeters = Math.max(0, minDistanceMeters);
+        this.minIntervalMs = Math.max(0, minIntervalMs);
+        this.emitter = emitter;
+        this.scheduler = scheduler;
+    }
+
+    /** Records a position the caller forwarded itself, e.g. on enter. */
+    void onForwarded(String key, GeoLocation location) {
+        KeyState state = keys.get(key);
+        if (state == null) {
+            keys.put(key, new KeyState(key, location));
+            return;
+        }
+        state.lastLocation = location;
+        state.lastTime = scheduler.now();
+        state.pendingLocation = null;
+        state.pendingPayload = null;
+    }
+
+    /** Forwards the move now or keeps it as the key's pending move. */
+    void onMove(String key, GeoLocation location, T payload) {
+        KeyState state = keys.get(key);
+        if (state == null) {
+            keys.put(key, new KeyState(key, location));
+            emitter.emitMove(key, location, payload);
+            return;
+        }
+        state.pendingLocation = location;
+        state.pendingPayload = payload;
+        if (GeoUtils.distance(state.lastLocation, location) < minDistanceMeters) {
+            return;
+        }
+        long wait = state.lastTime + minIntervalMs - scheduler.now();
+        if (wait <= 0) {
+            flush(state);
+        } else if (!state.scheduled) {
+            state.scheduled = true;
+            scheduler.postDelayed(state, wait);
+        }
+    }
+
+    /** Sends the key's pending move, if any, and forgets the key. */
+    void onExit(String key) {
+        KeyState state = keys.remove(key);
+        if (state == null) {
+            return;
+        }
+        scheduler.removeCallbacks(state);
+        if (state.pendingLocation != null) {
+            emitter.emitMove(key, state.pendingLocation, state.pendingPayload);
+        }
+    }
+
+    void clear() {
+        for (KeyState state : keys.values()) {
+            scheduler.removeCallbacks(state);
+        }
+        keys.clear();
+    }
+
+    private void flush(KeyState state) {
+        if (state.scheduled) {
+            scheduler.removeCallbacks(state);
+            state.scheduled = false;
+        }
+        GeoLocation location = state.pendingLocation;
+        T payload = state.pendingPayload;
+        state.pendingLocation = null;
+        state.pendingPayload = null;
+        state.lastLocation = location;
+        state.lastTime = scheduler.now();
+        emitter.emitMove(state.key, location, payload);
+    }
+}
@@ -0,0 +1,169 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The k keys closest to a center among the keys a query reported.
+ *
+ * The top k are kept in a bounded max-heap by haversine distance, so a key
+ * entering or moving outside the top k costs one comparison against the
+ * farthest of them. Only when a top key leaves or moves away are the
+ * remaining candidates scanned for its replacement.
+ *
+ * Must only be used from the main thread.
+ */
+class NearestKeys {
+
+    private static final class Entry {
+        final String key;
+        double latitude;
+        double longitude;
+        // meters from the center
+        double distance;
+        boolean top;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Comparator<Entry> NEAREST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Double.compare(a.distance, b.distance);
+        }
+    };
+
+    private static final Comparator<Entry> FARTHEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Double.compare(b.distance, a.distance);
+        }
+    };
+
+    private final int k;
+    private final HashMap<String, Entry> candidates = new HashMap<>();
+    private final PriorityQueue<Entry> top;
+    private double centerLatitude;
+    private double centerLongitude;
+
+    NearestKeys(int k, double centerLatitude, double centerLongitude) {
+        this.k = Math.max(1, k);
+        this.top = new PriorityQueue<>(this.k, FARTHEST_FIRST);
+        this.centerLatitude = centerLatitude;
+        this.centerLongitude = centerLongitude;
+    }
+
+    int capacity() {
+        return k;
+    }
+
+    /** Number of keys known, inside the top k or not. */
+    int size() {
+        return candidates.size();
+    }
+
+    /** Adds the key or moves it. Returns whether the top k changed. */
+    boolean put(String key, double latitude, double longitude) {
+        Entry entry = candidates.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            candidates.put(key, entry);
+        }
+        boolean wasTop = entry.top;
+        if (wasTop) {
+            top.remove(entry);
+            entry.top = false;
+        }
+        entry.latitude = latitude;
+        entry.longitude = longitude;
+        entry.distance = GeoUtils.distance(centerLatitude, centerLongitude, latitude, longitude);
+        if (wasTop) {
+            // a key outside the top k may now be closer than the moved one
+            refill();
+        } else {
+            offer(entry);
+        }
+        return wasTop || entry.top;
+    }
+
+    /** Returns whether the top k changed. */
+    boolean remove(String key) {
+        Entry entry = candidates.remove(key);
+        if (entry == null || !entry.top) {
+            return false;
+        }
+        top.remove(entry);
+        entry.top = false;
+        refill();
+        return true;
+    }
+
+    /** Re-ranks all keys around a new center. */
+    void setCenter(double latitude, double longitude) {
+        centerLatitude = latitude;
+        centerLongitude = longitude;
+        top.clear();
+        for (Entry entry : candidates.values()) {
+            entry.top = false;
+            entry.distance = GeoUtils.distance(centerLatitude, centerLongitude, entry.latitude, entry.longitude);
+            offer(entry);
+        }
+    }
+
+    void clear() {
+        candidates.clear();
+        top.clear();
+    }
+
+    /** The top k, nearest first, with their distance in kilometers. */
+    List<HashMap<String, Object>> nearest() {
+        Entry[] sorted = top.toArray(new Entry[0]);
+        Arrays.sort(sorted, NEAREST_FIRST);
+        ArrayList<HashMap<String, Object>> list = new ArrayList<>(sorted.length);
+        for (Entry entry : sorted) {
+            HashMap<String, Object> item = new HashMap<>();
+            item.put("key", entry.key);
+            item.put("latitude", entry.latitude);
+            item.put("longitude", entry.longitude);
+            item.put("distance", entry.distance / 1000);
+            list.add(item);
+        }
+        return list;
+    }
+
+    private void offer(Entry entry) {
+        if (top.size() < k) {
+            top.add(entry);
+            entry.top = true;
+        } else if (entry.distance < top.peek().distance) {
+            top.poll().top = false;
+            top.add(entry);
+            entry.top = true;
+        }
+    }
+
+    // Fills free slots with the closest keys outside the top k
+    private void refill() {
+        while (top.size() < k) {
+            Entry closest = null;
+            for (Entry entry : candidates.values()) {
+                if (!entry.top && (closest == null || entry.distance < closest.distance)) {
+                    closest = entry;
+                }
+            }
+            if (closest == null) {
+                return;
+            }
+            top.add(closest);
+            closest.top = true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package in.appyflow.geofire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the "data" payload of data query events to a set of projected
+ * top-level fields and, in delta mode, to the fields that changed since the
+ * last payload sent for the same key.
+ *
+ * Only used from the snapshot worker thread, so it needs no locking.
+ */
+class PayloadShaper {
+
+    private final HashSet<String> fields;
+    private final boolean delta;
+    // key -> last payload sent to Dart, only kept in delta mode
+    private final HashMap<String, HashMap<String, Object>> lastSent = new HashMap<>();
+
+    PayloadShaper(List<String> fields, boolean delta) {
+        this.fields = fields != null ? new HashSet<>(fields) : null;
+        this.delta = delta;
+    }
+
+    /**
+     * Replaces event's "data" entry with the shaped payload. In delta mode the
+     * names of fields that disappeared are listed under "removed".
+     */
+    void shape(String key, HashMap<String, Object> event, boolean exited) {
+        @SuppressWarnings("unchecked")
+        HashMap<String, Object> data = project((HashMap<String, Object>) event.get("data"));
+        if (!delta) {
+            event.put("data", data);
+            return;
+        }
+        HashMap<String, Object> previous = exited ? lastSent.remove(key) : lastSent.put(key, data);
+        if (previous == null || exited) {
+            event.put("data", data);
+            return;
+        }
+
+        HashMap<String, Object> changed = new HashMap<>();
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            Object old = previous.get(entry.getKey());
+            if (!previous.containsKey(entry.getKey()) || !equal(old, entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        ArrayList<String> removed = new ArrayList<>();
+        for (String field : previous.keySet()) {
+            if (!data.containsKey(field)) {
+                removed.add(field);
+            }
+        }
+        event.put("data", changed);
+        event.put("removed", removed);
+    }
+
+    /** Forgets all delta state, e.g. when Dart reconnects with no state. */
+    void clear() {
+        lastSent.clear();
+    }
+
+    private HashMap<String, Object> project(HashMap<String, Object> data) {
+        if (fields == null || data == null) {
+            return data;
+        }
+        HashMap<String, Object> projected = new HashMap<>();
+        for (String field : fields) {
+            if (data.containsKey(field)) {
+                projected.put(field, data.get(field));
+            }
+        }
+        return projected;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
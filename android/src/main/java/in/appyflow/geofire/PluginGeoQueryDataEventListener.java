@@ -0,0 +1,235 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.GeoQueryDataEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+
+/**
+ * Data listener of queryAtLocationWithData and of named data queries. Keeps
+ * the query's keys in a {@link SpatialIndex} and sends data events to a
+ * {@link QueryEventSink}. Payloads are converted and shaped on the
+ * {@link SnapshotPipeline} worker, or left out in lazy mode.
+ *
+ * Must only be used from the main thread.
+ */
+class PluginGeoQueryDataEventListener implements GeoQueryDataEventListener,
+        MoveThrottle.Emitter<DataSnapshot>, LazyPayloads.Listener {
+    private final String queryId;
+    private final QueryEventSink sink;
+    private final Scheduler scheduler;
+    private final PluginMetrics metrics;
+    private final SnapshotPipeline snapshotPipeline;
+    private final PayloadShaper payloadShaper;
+    private final MoveThrottle<DataSnapshot> moveThrottle;
+    private final SpatialIndex index = new SpatialIndex();
+    // bumped on reset so conversions still in flight for a previous
+    // listen session are not delivered to the new one
+    private int generation;
+    private long attachedAt;
+    // In lazy mode events carry no data; payloads are fetched on request
+    private LazyPayloads lazyPayloads;
+    private boolean payloadsInGeoNode;
+
+    PluginGeoQueryDataEventListener(String queryId, QueryOptions options, QueryEventSink sink, Scheduler scheduler,
+            PluginMetrics metrics, SnapshotPipeline snapshotPipeline) {
+        this.queryId = queryId;
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.snapshotPipeline = snapshotPipeline;
+        this.payloadShaper = options.newPayloadShaper();
+        this.moveThrottle = options.newMoveThrottle(this, scheduler);
+        this.attachedAt = scheduler.now();
+    }
+
+    SpatialIndex getIndex() {
+        return index;
+    }
+
+    /** inGeoNode tells whether dataReference is the GeoFire path itself. */
+    void setLazyPayloads(DatabaseReference dataReference, boolean inGeoNode, int cacheSize) {
+        lazyPayloads = new LazyPayloads(dataReference, cacheSize, this, scheduler);
+        payloadsInGeoNode = inGeoNode;
+    }
+
+    LazyPayloads getLazyPayloads() {
+        return lazyPayloads;
+    }
+
+    /** Drops held moves, once the listener is removed. */
+    void cancelTimers() {
+        if (moveThrottle != null) {
+            moveThrottle.clear();
+        }
+    }
+
+    void release() {
+        cancelTimers();
+        if (lazyPayloads != null) {
+            lazyPayloads.dispose();
+        }
+    }
+
+    @Override
+    public void onPayloadChanged(String key, Object payload) {
+        if (sink.isListening()) {
+            HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onDataKeyChanged");
+            hashMap.put("key", key);
+            hashMap.put("data", payload);
+            sink.send(queryId, hashMap);
+        }
+    }
+
+    public void reset() {
+        attachedAt = scheduler.now();
+        index.clear();
+        generation++;
+        if (moveThrottle != null) {
+            moveThrottle.clear();
+        }
+        if (payloadShaper != null) {
+            // the shaper is only touched on the worker thread
+            snapshotPipeline.submit(new SnapshotPipeline.Task() {
+                @Override
+                public HashMap<String, Object> build() {
+                    payloadShaper.clear();
+                    return null;
+                }
+
+                @Override
+                public void deliver(HashMap<String, Object> event) {
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onDataEntered(DataSnapshot dataSnapshot, GeoLocation location) {
+        if (sink.isListening()) {
+            submit("onDataKeyEntered", dataSnapshot, location);
+        }
+        if (moveThrottle != null) {
+            moveThrottle.onForwarded(dataSnapshot.getKey(), location);
+        }
+        index.put(dataSnapshot.getKey(), location.latitude, location.longitude);
+    }
+
+    @Override
+    public void onDataExited(DataSnapshot dataSnapshot) {
+        index.remove(dataSnapshot.getKey());
+        if (moveThrottle != null) {
+            moveThrottle.onExit(dataSnapshot.getKey());
+        }
+        if (sink.isListening()) {
+            submit("onDataKeyExited", dataSnapshot, null);
+        }
+    }
+
+    @Override
+    public void onDataMoved(DataSnapshot dataSnapshot, GeoLocation location) {
+        index.put(dataSnapshot.getKey(), location.latitude, location.longitude);
+        if (moveThrottle != null) {
+            moveThrottle.onMove(dataSnapshot.getKey(), location, dataSnapshot);
+        } else {
+            emitMove(dataSnapshot.getKey(), location, dataSnapshot);
+        }
+    }
+
+    @Override
+    public void emitMove(String key, GeoLocation location, DataSnapshot dataSnapshot) {
+        if (sink.isListening()) {
+            submit("onDataKeyMoved", dataSnapshot, location);
+        }
+    }
+
+    @Override
+    public void onDataChanged(DataSnapshot dataSnapshot, GeoLocation location) {
+        index.put(dataSnapshot.getKey(), location.latitude, location.longitude);
+        if (lazyPayloads != null && payloadsInGeoNode) {
+            lazyPayloads.invalidate(dataSnapshot.getKey());
+            if (lazyPayloads.isVisible(dataSnapshot.getKey())) {
+                // the subscription reports the change with its payload
+                if (moveThrottle != null) {
+                    moveThrottle.onForwarded(dataSnapshot.getKey(), location);
+                }
+                return;
+            }
+        }
+        // the change carries the current location, which supersedes a pending move
+        if (moveThrottle != null) {
+            moveThrottle.onForwarded(dataSnapshot.getKey(), location);
+        }
+        if (sink.isListening()) {
+            submit("onDataKeyChanged", dataSnapshot, location);
+        }
+    }
+
+    @Override
+    public void onGeoQueryReady() {
+        if (attachedAt != 0) {
+            metrics.queryReadyMs.record(scheduler.now() - attachedAt);
+            attachedAt = 0;
+        }
+        if (sink.isListening()) {
+            final HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onGeoQueryReady");
+            hashMap.put("result", index.keys());
+            // queued behind pending conversions so it is not sent early
+            submit(hashMap, null);
+        }
+    }
+
+    @Override
+    public void onGeoQueryError(DatabaseError error) {
+        if (sink.isListening()) {
+            sink.sendError(queryId, error);
+        }
+    }
+
+    private void submit(String callBack, DataSnapshot dataSnapshot, GeoLocation location) {
+        HashMap<String, Object> hashMap = new HashMap<>();
+        hashMap.put("callBack", callBack);
+        hashMap.put("key", dataSnapshot.getKey());
+        if (location != null) {
+            hashMap.put("latitude", location.latitude);
+            hashMap.put("longitude", location.longitude);
+        }
+        submit(hashMap, dataSnapshot);
+    }
+
+    private void submit(final HashMap<String, Object> hashMap, final DataSnapshot dataSnapshot) {
+        if (lazyPayloads != null) {
+            // nothing to convert, so no need to queue behind the pipeline
+            sink.send(queryId, hashMap);
+            return;
+        }
+        final int submittedGeneration = generation;
+        snapshotPipeline.submit(new SnapshotPipeline.Task() {
+            @Override
+            public HashMap<String, Object> build() {
+                if (dataSnapshot != null) {
+                    long start = System.nanoTime();
+                    hashMap.put("data", SnapshotPipeline.toDataMap(dataSnapshot));
+                    if (payloadShaper != null) {
+                        payloadShaper.shape(dataSnapshot.getKey(), hashMap,
+                                "onDataKeyExited".equals(hashMap.get("callBack")));
+                    }
+                    metrics.snapshotConversionUs.record((System.nanoTime() - start) / 1000);
+                }
+                return hashMap;
+            }
+
+            @Override
+            public void deliver(HashMap<String, Object> event) {
+                if (submittedGeneration == generation && sink.isListening()) {
+                    sink.send(queryId, event);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,311 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.GeoQueryEventListener;
+import com.firebase.geofire.util.GeoUtils;
+import com.google.firebase.database.DatabaseError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Key listener of the unnamed query and of named key queries. Keeps the
+ * query's keys in a {@link SpatialIndex} and sends enter, move, exit and
+ * ready events to a {@link QueryEventSink}, optionally throttling moves,
+ * filtering to the visible area of a re-centering policy and showing cached
+ * results until the live ones arrive.
+ *
+ * Must only be used from the main thread.
+ */
+class PluginGeoQueryEventListener implements GeoQueryEventListener, MoveThrottle.Emitter<Void>,
+        RecenterController.AreaFilter {
+    private final String queryId;
+    private final QueryOptions options;
+    private final QueryEventSink sink;
+    private final Scheduler scheduler;
+    private final PluginMetrics metrics;
+    private final MoveThrottle<Void> moveThrottle;
+    private final SpatialIndex index = new SpatialIndex();
+    private RecenterController recenterController;
+    // Only used while a recenter policy is active: every key the GeoQuery
+    // reported, and the area keys must be in to be forwarded
+    private HashMap<String, GeoLocation> knownLocations;
+    private GeoLocation visibleCenter;
+    private double visibleRadius;
+    // scheduler time of the attach, until the first onGeoQueryReady
+    private long attachedAt;
+    // Only set while the query cache is on: where the results are stored,
+    // and the cached keys shown until the live results confirm them
+    private QueryCache cache;
+    private String cachePath;
+    private GeoLocation cacheCenter;
+    private double cacheRadius;
+    private boolean ready;
+    private HashMap<String, GeoLocation> provisional;
+
+    PluginGeoQueryEventListener(String queryId, QueryOptions options, QueryEventSink sink, Scheduler scheduler,
+            PluginMetrics metrics) {
+        this.queryId = queryId;
+        this.options = options;
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.moveThrottle = options.newMoveThrottle(this, scheduler);
+        this.attachedAt = scheduler.now();
+    }
+
+    public void reset() {
+        attachedAt = scheduler.now();
+        ready = false;
+        provisional = null;
+        index.clear();
+        if (moveThrottle != null) {
+            moveThrottle.clear();
+        }
+        if (knownLocations != null) {
+            knownLocations.clear();
+        }
+    }
+
+    void setRecenterController(RecenterController recenterController) {
+        this.recenterController = recenterController;
+    }
+
+    /** Drops held moves and a pending recenter, once the listener is removed. */
+    void cancelTimers() {
+        if (moveThrottle != null) {
+            moveThrottle.clear();
+        }
+        if (recenterController != null) {
+            recenterController.cancel();
+        }
+    }
+
+    RecenterController getRecenterController() {
+        return recenterController;
+    }
+
+    QueryOptions getOptions() {
+        return options;
+    }
+
+    SpatialIndex getIndex() {
+        return index;
+    }
+
+    void useCache(QueryCache cache, String path, GeoLocation center, double radius) {
+        this.cache = cache;
+        cachePath = path;
+        cacheCenter = center;
+        cacheRadius = radius;
+    }
+
+    /**
+     * Sends the cached keys inside the query area as provisional enters.
+     * Keys the live query reports are entered again without the flag;
+     * the rest exit on onGeoQueryReady.
+     */
+    void showCached(QueryCache.Snapshot snapshot) {
+        if (ready || !sink.isListening() || sink.binaryEvents() != null) {
+            return;
+        }
+        provisional = new HashMap<>();
+        for (int i = 0; i < snapshot.keys.length; i++) {
+            String key = snapshot.keys[i];
+            GeoLocation location = new GeoLocation(snapshot.latitudes[i], snapshot.longitudes[i]);
+            if (index.contains(key) || GeoUtils.distance(cacheCenter, location) > cacheRadius * 1000) {
+                continue;
+            }
+            provisional.put(key, location);
+            HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onKeyEntered");
+            hashMap.put("key", key);
+            hashMap.put("latitude", location.latitude);
+            hashMap.put("longitude", location.longitude);
+            hashMap.put("provisional", true);
+            sink.send(queryId, hashMap);
+        }
+    }
+
+    void saveCache() {
+        if (cachePath != null && ready) {
+            cache.save(cachePath, cacheCenter.latitude, cacheCenter.longitude, cacheRadius,
+                    index.snapshot());
+        }
+    }
+
+    @Override
+    public void setVisibleArea(GeoLocation center, double radius) {
+        boolean initial = knownLocations == null;
+        if (initial) {
+            knownLocations = new HashMap<>();
+        }
+        visibleCenter = center;
+        visibleRadius = radius;
+        if (cachePath != null) {
+            cacheCenter = center;
+            cacheRadius = radius;
+        }
+        if (initial) {
+            return;
+        }
+        for (Map.Entry<String, GeoLocation> entry : knownLocations.entrySet()) {
+            String key = entry.getKey();
+            boolean inside = isVisible(entry.getValue());
+            boolean wasInside = index.contains(key);
+            if (inside && !wasInside) {
+                emitEntered(key, entry.getValue());
+            } else if (!inside && wasInside) {
+                emitExited(key);
+            }
+        }
+    }
+
+    @Override
+    public void onKeyEntered(String key, GeoLocation location) {
+        if (knownLocations != null) {
+            knownLocations.put(key, location);
+            if (!isVisible(location)) {
+                return;
+            }
+        }
+        emitEntered(key, location);
+    }
+
+    @Override
+    public void onKeyExited(String key) {
+        if (knownLocations != null) {
+            knownLocations.remove(key);
+            if (!index.contains(key)) {
+                return;
+            }
+        }
+        emitExited(key);
+    }
+
+    @Override
+    public void onKeyMoved(String key, GeoLocation location) {
+        if (knownLocations != null) {
+            knownLocations.put(key, location);
+            boolean inside = isVisible(location);
+            boolean wasInside = index.contains(key);
+            if (inside != wasInside) {
+                if (inside) {
+                    emitEntered(key, location);
+                } else {
+                    emitExited(key);
+                }
+                return;
+            }
+            if (!inside) {
+                return;
+            }
+        }
+        // the index always holds the latest position, even while a move is throttled
+        index.put(key, location.latitude, location.longitude);
+        if (moveThrottle != null) {
+            moveThrottle.onMove(key, location, null);
+        } else {
+            emitMove(key, location, null);
+        }
+    }
+
+    @Override
+    public void onGeoQueryReady() {
+        if (attachedAt != 0) {
+            metrics.queryReadyMs.record(scheduler.now() - attachedAt);
+            attachedAt = 0;
+        }
+        ready = true;
+        if (provisional != null) {
+            // cached keys the live query did not report are stale
+            for (String key : provisional.keySet()) {
+                if (sink.isListening()) {
+                    HashMap<String, Object> hashMap = new HashMap<>();
+                    hashMap.put("callBack", "onKeyExited");
+                    hashMap.put("key", key);
+                    sink.send(queryId, hashMap);
+                }
+            }
+            provisional = null;
+        }
+        saveCache();
+        BinaryEventStream binaryEvents = binaryEvents();
+        if (binaryEvents != null) {
+            binaryEvents.queryReady(index.keys());
+        } else if (sink.isListening()) {
+            HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onGeoQueryReady");
+            hashMap.put("result", index.keys());
+            sink.send(queryId, hashMap);
+        }
+    }
+
+    @Override
+    public void onGeoQueryError(DatabaseError error) {
+        if (sink.isListening()) {
+            sink.sendError(queryId, error);
+        }
+    }
+
+    // Key events of the unnamed query can go to the binary stream instead
+    private BinaryEventStream binaryEvents() {
+        return queryId == null ? sink.binaryEvents() : null;
+    }
+
+    private boolean isVisible(GeoLocation location) {
+        return GeoUtils.distance(visibleCenter, location) <= visibleRadius * 1000;
+    }
+
+    private void emitEntered(String key, GeoLocation location) {
+        if (provisional != null) {
+            provisional.remove(key);
+        }
+        BinaryEventStream binaryEvents = binaryEvents();
+        if (binaryEvents != null) {
+            binaryEvents.keyEntered(key, location.latitude, location.longitude);
+        } else if (sink.isListening()) {
+            HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onKeyEntered");
+            hashMap.put("key", key);
+            hashMap.put("latitude", location.latitude);
+            hashMap.put("longitude", location.longitude);
+            sink.send(queryId, hashMap);
+        }
+        if (moveThrottle != null) {
+            moveThrottle.onForwarded(key, location);
+        }
+        index.put(key, location.latitude, location.longitude);
+    }
+
+    private void emitExited(String key) {
+        index.remove(key);
+        if (moveThrottle != null) {
+            moveThrottle.onExit(key);
+        }
+        BinaryEventStream binaryEvents = binaryEvents();
+        if (binaryEvents != null) {
+            binaryEvents.keyExited(key);
+        } else if (sink.isListening()) {
+            HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onKeyExited");
+            hashMap.put("key", key);
+            sink.send(queryId, hashMap);
+        }
+    }
+
+    @Override
+    public void emitMove(String key, GeoLocation location, Void payload) {
+        BinaryEventStream binaryEvents = binaryEvents();
+        if (binaryEvents != null) {
+            binaryEvents.keyMoved(key, location.latitude, location.longitude);
+        } else if (sink.isListening()) {
+            HashMap<String, Object> hashMap = new HashMap<>();
+            hashMap.put("callBack", "onKeyMoved");
+            hashMap.put("key", key);
+            hashMap.put("latitude", location.latitude);
+            hashMap.put("longitude", location.longitude);
+            sink.send(queryId, hashMap);
+        }
+    }
+}
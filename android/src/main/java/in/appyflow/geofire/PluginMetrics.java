@@ -0,0 +1,172 @@
+package in.appyflow.geofire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the plugin's hot paths, cheap enough
+ * to stay on in production. Recording is lock-free: counters are striped by
+ * thread and histograms use fixed power-of-two buckets. Recording may happen
+ * on any thread; {@link #snapshot(RateBaseline)} is called on the main thread.
+ */
+class PluginMetrics {
+
+    static final String[] EVENT_TYPES = {
+        "onKeyEntered", "onKeyMoved", "onKeyExited", "onGeoQueryReady",
+        "onDataKeyEntered", "onDataKeyMoved", "onDataKeyExited", "onDataKeyChanged",
+        "other"
+    };
+
+    /** Sum of per-thread stripes; each stripe sits on its own cache line. */
+    static final class StripedCounter {
+        private static final int STRIPES = 8;
+        private static final int PAD = 8;
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+        void add(long delta) {
+            int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            cells.addAndGet(stripe * PAD, delta);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PAD);
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Bucket i counts values in [2^(i-1), 2^i), bucket 0 counts values below 1
+     * and the last bucket everything above.
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 32;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final StripedCounter total = new StripedCounter();
+
+        void record(long value) {
+            int bucket = value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets.incrementAndGet(bucket);
+            total.add(Math.max(0, value));
+        }
+
+        HashMap<String, Object> snapshot() {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("count", count);
+            map.put("mean", count > 0 ? (double) total.sum() / count : 0.0);
+            map.put("p50", percentile(counts, count, 0.50));
+            map.put("p90", percentile(counts, count, 0.90));
+            map.put("p99", percentile(counts, count, 0.99));
+            ArrayList<Long> list = new ArrayList<>(BUCKETS);
+            for (long c : counts) {
+                list.add(c);
+            }
+            map.put("buckets", list);
+            return map;
+        }
+
+        // Upper bound of the bucket holding the percentile
+        private static long percentile(long[] counts, long count, double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (counts.length - 1);
+        }
+    }
+
+    /**
+     * Event counts at the previous snapshot of one consumer, so each consumer
+     * gets rates over its own interval.
+     */
+    final class RateBaseline {
+        private long[] counts = new long[EVENT_TYPES.length];
+        private long at = scheduler.now();
+
+        /** Rates of the next snapshot start from now. */
+        void reset() {
+            long[] now = new long[EVENT_TYPES.length];
+            for (int i = 0; i < EVENT_TYPES.length; i++) {
+                now[i] = events[i].sum();
+            }
+            counts = now;
+            at = scheduler.now();
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final StripedCounter[] events = new StripedCounter[EVENT_TYPES.length];
+    final Histogram queryReadyMs = new Histogram();
+    final Histogram snapshotConversionUs = new Histogram();
+    final Histogram channelEncodeUs = new Histogram();
+    final StripedCounter pendingWrites = new StripedCounter();
+    final StripedCounter listenerReattaches = new StripedCounter();
+
+    /** The scheduler only provides the clock for event rates. */
+    PluginMetrics(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new StripedCounter();
+        }
+    }
+
+    RateBaseline newRateBaseline() {
+        return new RateBaseline();
+    }
+
+    void countEvent(String callBack) {
+        int type = EVENT_TYPES.length - 1;
+        for (int i = 0; i < EVENT_TYPES.length - 1; i++) {
+            if (EVENT_TYPES[i].equals(callBack)) {
+                type = i;
+                break;
+            }
+        }
+        events[type].add(1);
+    }
+
+    /**
+     * Returns all metrics. Event rates are per second since the previous
+     * snapshot taken with the same baseline, which is then moved to now.
+     */
+    HashMap<String, Object> snapshot(RateBaseline baseline) {
+        long now = scheduler.now();
+        double seconds = Math.max(1, now - baseline.at) / 1000.0;
+        long[] counts = new long[EVENT_TYPES.length];
+        HashMap<String, Object> totals = new HashMap<>();
+        HashMap<String, Object> rates = new HashMap<>();
+        for (int i = 0; i < EVENT_TYPES.length; i++) {
+            counts[i] = events[i].sum();
+            totals.put(EVENT_TYPES[i], counts[i]);
+            rates.put(EVENT_TYPES[i], (counts[i] - baseline.counts[i]) / seconds);
+        }
+        baseline.counts = counts;
+        baseline.at = now;
+
+        HashMap<String, Object> metrics = new HashMap<>();
+        metrics.put("events", totals);
+        metrics.put("eventRates", rates);
+        metrics.put("queryReadyMs", queryReadyMs.snapshot());
+        metrics.put("snapshotConversionUs", snapshotConversionUs.snapshot());
+        metrics.put("channelEncodeUs", channelEncodeUs.snapshot());
+        metrics.put("pendingWrites", pendingWrites.sum());
+        metrics.put("listenerReattaches", listenerReattaches.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,326 @@
+package in.appyflow.geofire;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * On-disk cache of the last known keys and locations of a query, so a
+ * restarted app can show them before the network answers. There is one file
+ * per database path and query area, the area quantized by {@link #areaKey}
+ * so that nearby queries of about the same size share it; the file name is a
+ * SHA-1 digest of that key.
+ *
+ * Files are little-endian:
+ * <pre>
+ *   int magic, int version, UTF areaKey,
+ *   double centerLatitude, double centerLongitude, double radius, int count,
+ *   count * (UTF key, double latitude, double longitude)
+ * </pre>
+ * where UTF is a short byte length followed by UTF-8 bytes. Files are written
+ * to a temporary file and renamed, and read through a read-only mapping.
+ * When the directory grows beyond maxBytes the least recently written files
+ * are deleted.
+ *
+ * All file access happens on a single worker thread; callbacks are posted to
+ * the scheduler, i.e. run on the main thread.
+ */
+class QueryCache {
+
+    private static final String TAG = "GeofirePlugin";
+    private static final int MAGIC = 0x47464331; // "GFC1"
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double KM_PER_DEGREE = 111.32;
+    // smaller areas are quantized like this one
+    private static final double MIN_RADIUS_KM = 0.125;
+
+    static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    static final class Snapshot {
+        final double centerLatitude;
+        final double centerLongitude;
+        final double radius;
+        final String[] keys;
+        final double[] latitudes;
+        final double[] longitudes;
+
+        Snapshot(double centerLatitude, double centerLongitude, double radius, int count) {
+            this.centerLatitude = centerLatitude;
+            this.centerLongitude = centerLongitude;
+            this.radius = radius;
+            this.keys = new String[count];
+            this.latitudes = new double[count];
+            this.longitudes = new double[count];
+        }
+    }
+
+    interface LoadCallback {
+        /** Called on the main thread; not called when nothing is cached for the area. */
+        void onLoaded(Snapshot snapshot);
+    }
+
+    private final File directory;
+    private final Scheduler scheduler;
+    private ExecutorService executor;
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+    QueryCache(File directory, Scheduler scheduler) {
+        this.directory = directory;
+        this.scheduler = scheduler;
+    }
+
+    void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /** Loads what was saved for the path and an area quantized like the given one; radius in kilometers. */
+    void load(String path, double centerLatitude, double centerLongitude, double radius,
+            final LoadCallback callback) {
+        final String key = areaKey(path, centerLatitude, centerLongitude, radius);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final Snapshot snapshot;
+                try {
+                    snapshot = read(fileFor(key), key);
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Dropping unreadable query cache for " + key, e);
+                    fileFor(key).delete();
+                    return;
+                }
+                if (snapshot == null) {
+                    return;
+                }
+                scheduler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(snapshot);
+                    }
+                }, 0);
+            }
+        });
+    }
+
+    /** Stores the key -> [latitude, longitude] entries of a query around the given area. */
+    void save(String path, final double centerLatitude, final double centerLongitude, final double radius,
+            final Map<String, Object> entries) {
+        final String key = areaKey(path, centerLatitude, centerLongitude, radius);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(key, centerLatitude, centerLongitude, radius, entries);
+                    evict();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write query cache for " + key, e);
+                }
+            }
+        });
+    }
+
+    void clear() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            // pending writes still complete
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Query cache shut down");
+        }
+    }
+
+    /**
+     * The path and the query area, with the radius rounded up to a power of
+     * two kilometers and the center snapped to a grid of that size.
+     */
+    static String areaKey(String path, double centerLatitude, double centerLongitude, double radius) {
+        int level = (int) Math.ceil(Math.log(Math.max(radius, MIN_RADIUS_KM)) / Math.log(2));
+        double cellDegrees = Math.scalb(1.0, level) / KM_PER_DEGREE;
+        return path + "@" + level + ":" + Math.round(centerLatitude / cellDegrees) + ":"
+                + Math.round(centerLongitude / cellDegrees);
+    }
+
+    private File fileFor(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform provides SHA-1
+            throw new IllegalStateException(e);
+        }
+        StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(directory, name.append(".bin").toString());
+    }
+
+    private static Snapshot read(File file, String key) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a query cache file");
+            }
+            if (!key.equals(readString(buffer))) {
+                // only a digest collision gets here
+                return null;
+            }
+            double centerLatitude = buffer.getDouble();
+            double centerLongitude = buffer.getDouble();
+            double radius = buffer.getDouble();
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 18) {
+                throw new IOException("Corrupt query cache file");
+            }
+            Snapshot snapshot = new Snapshot(centerLatitude, centerLongitude, radius, count);
+            for (int i = 0; i < count; i++) {
+                snapshot.keys[i] = readString(buffer);
+                snapshot.latitudes[i] = buffer.getDouble();
+                snapshot.longitudes[i] = buffer.getDouble();
+            }
+            return snapshot;
+        } finally {
+            input.close();
+        }
+    }
+
+    private void write(String key, double centerLatitude, double centerLongitude, double radius,
+            Map<String, Object> entries) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int header = 8 + 2 + keyBytes.length + 28;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE,
+                Math.max(header, Math.min(maxBytes, header + entries.size() * 64L))));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putShort((short) keyBytes.length).put(keyBytes);
+        buffer.putDouble(centerLatitude).putDouble(centerLongitude).putDouble(radius);
+        int countPosition = buffer.position();
+        buffer.putInt(0);
+        int count = 0;
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            byte[] entryKey = entry.getKey().getBytes(UTF_8);
+            List<?> location = (List<?>) entry.getValue();
+            int size = 2 + entryKey.length + 16;
+            if (buffer.remaining() < size) {
+                if (buffer.position() + size > maxBytes) {
+                    // keep the file within the budget
+                    break;
+                }
+                buffer = grow(buffer, size);
+            }
+            buffer.putShort((short) entryKey.length).put(entryKey);
+            buffer.putDouble(((Number) location.get(0)).doubleValue());
+            buffer.putDouble(((Number) location.get(1)).doubleValue());
+            count++;
+        }
+        buffer.putInt(countPosition, count);
+        buffer.flip();
+
+        File target = fileFor(key);
+        File temp = new File(directory, target.getName() + ".tmp");
+        RandomAccessFile output = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + target);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        larger.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private void evict() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,26 @@
+package in.appyflow.geofire;
+
+import com.google.firebase.database.DatabaseError;
+
+import java.util.HashMap;
+
+/**
+ * Where the query listeners send their events. The plugin routes them
+ * through the EventBatcher to the geofireStream EventSink, or to the binary
+ * stream; tests record them.
+ *
+ * Must only be used from the main thread.
+ */
+interface QueryEventSink {
+
+    /** Whether Dart listens; events are not built otherwise. */
+    boolean isListening();
+
+    /** Sends the event, tagged with queryId unless it is the unnamed query. */
+    void send(String queryId, HashMap<String, Object> event);
+
+    void sendError(String queryId, DatabaseError error);
+
+    /** The binary stream while it carries key events of the unnamed query, otherwise null. */
+    BinaryEventStream binaryEvents();
+}
@@ -0,0 +1,317 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoFire;
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.GeoQuery;
+import com.firebase.geofire.GeoQueryEventListener;
+import com.firebase.geofire.core.GeoHashQuery;
+import com.firebase.geofire.util.GeoUtils;
+import com.google.firebase.database.DatabaseError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves many subscriber circles from one GeoQuery.
+ *
+ * The GeoQuery covers a circle enclosing every subscriber. Each key event is
+ * checked against each subscriber's circle and reported, tagged with the
+ * subscriber id as {@code queryId}, only to the subscribers it concerns. A
+ * subscriber inside the current coverage is served from the keys already
+ * known, without touching the GeoQuery; otherwise the GeoQuery is moved,
+ * which keeps the geohash ranges that still overlap. The coverage shrinks
+ * only once it is well above what the remaining subscribers need.
+ *
+ * Must only be used from the main thread.
+ */
+class QueryMultiplexer implements GeoQueryEventListener {
+
+    interface Emitter {
+        void emit(HashMap<String, Object> event);
+
+        void emitError(String subscriberId, DatabaseError error);
+    }
+
+    // shrink once the needed radius falls below this share of the current one
+    private static final double SHRINK_RATIO = 0.75;
+
+    private static final class Subscriber {
+        final String id;
+        GeoLocation center;
+        double radius;
+        final HashSet<String> keys = new HashSet<>();
+        boolean ready;
+
+        Subscriber(String id) {
+            this.id = id;
+        }
+
+        boolean covers(GeoLocation location) {
+            return GeoUtils.distance(center, location) <= radius * 1000;
+        }
+    }
+
+    private final GeoFire geoFire;
+    private final Emitter emitter;
+    private final Scheduler scheduler;
+    private final LinkedHashMap<String, Subscriber> subscribers = new LinkedHashMap<>();
+    // every key the GeoQuery reported
+    private final HashMap<String, GeoLocation> locations = new HashMap<>();
+    private GeoQuery geoQuery;
+    private GeoLocation queryCenter;
+    private double queryRadius;
+    private boolean queryReady;
+    private boolean replayScheduled;
+
+    // GeoFire only reports ready again when a move adds geohash ranges
+    private final Runnable replayReady = new Runnable() {
+        @Override
+        public void run() {
+            replayScheduled = false;
+            onGeoQueryReady();
+        }
+    };
+
+    QueryMultiplexer(GeoFire geoFire, Emitter emitter, Scheduler scheduler) {
+        this.geoFire = geoFire;
+        this.emitter = emitter;
+        this.scheduler = scheduler;
+    }
+
+    /** Adds a subscriber, or moves it if the id is already subscribed. */
+    void subscribe(String id, GeoLocation center, double radius) {
+        Subscriber subscriber = subscribers.get(id);
+        if (subscriber == null) {
+            subscriber = new Subscriber(id);
+            subscribers.put(id, subscriber);
+        }
+        subscriber.center = center;
+        subscriber.radius = radius;
+
+        if (geoQuery == null) {
+            subscriber.ready = false;
+            updateCoverage(true);
+            return;
+        }
+        refresh(subscriber);
+        if (GeoUtils.distance(queryCenter, center) / 1000 + radius <= queryRadius) {
+            subscriber.ready = queryReady;
+            if (subscriber.ready) {
+                emitReady(subscriber);
+            }
+        } else {
+            subscriber.ready = false;
+            updateCoverage(true);
+        }
+    }
+
+    boolean unsubscribe(String id) {
+        if (subscribers.remove(id) == null) {
+            return false;
+        }
+        if (subscribers.isEmpty()) {
+            dispose();
+        } else {
+            updateCoverage(false);
+        }
+        return true;
+    }
+
+    boolean isSubscribed(String id) {
+        return subscribers.containsKey(id);
+    }
+
+    /** Replays every subscriber's keys after the event sink was replaced. */
+    void reattach() {
+        if (geoQuery == null) {
+            return;
+        }
+        scheduler.removeCallbacks(replayReady);
+        replayScheduled = false;
+        geoQuery.removeGeoQueryEventListener(this);
+        locations.clear();
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.keys.clear();
+            subscriber.ready = false;
+        }
+        queryReady = false;
+        geoQuery.addGeoQueryEventListener(this);
+    }
+
+    void dispose() {
+        scheduler.removeCallbacks(replayReady);
+        replayScheduled = false;
+        if (geoQuery != null) {
+            try {
+                geoQuery.removeGeoQueryEventListener(this);
+            } catch (Exception e) {
+                // defensive – ignore
+            }
+            geoQuery = null;
+        }
+        subscribers.clear();
+        locations.clear();
+        queryReady = false;
+    }
+
+    @Override
+    public void onKeyEntered(String key, GeoLocation location) {
+        locations.put(key, location);
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.covers(location) && subscriber.keys.add(key)) {
+                emitKey(subscriber, "onKeyEntered", key, location);
+            }
+        }
+    }
+
+    @Override
+    public void onKeyExited(String key) {
+        locations.remove(key);
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.keys.remove(key)) {
+                emitKey(subscriber, "onKeyExited", key, null);
+            }
+        }
+    }
+
+    @Override
+    public void onKeyMoved(String key, GeoLocation location) {
+        locations.put(key, location);
+        for (Subscriber subscriber : subscribers.values()) {
+            boolean inside = subscriber.covers(location);
+            if (inside && !subscriber.keys.add(key)) {
+                emitKey(subscriber, "onKeyMoved", key, location);
+            } else if (inside) {
+                emitKey(subscriber, "onKeyEntered", key, location);
+            } else if (subscriber.keys.remove(key)) {
+                emitKey(subscriber, "onKeyExited", key, null);
+            }
+        }
+    }
+
+    @Override
+    public void onGeoQueryReady() {
+        scheduler.removeCallbacks(replayReady);
+        replayScheduled = false;
+        queryReady = true;
+        for (Subscriber subscriber : subscribers.values()) {
+            if (!subscriber.ready) {
+                subscriber.ready = true;
+                emitReady(subscriber);
+            }
+        }
+    }
+
+    @Override
+    public void onGeoQueryError(DatabaseError error) {
+        // the shared query failed for every subscriber
+        for (Subscriber subscriber : subscribers.values()) {
+            emitter.emitError(subscriber.id, error);
+        }
+    }
+
+    // Brings a moved or new subscriber in line with the keys already known
+    private void refresh(Subscriber subscriber) {
+        Iterator<String> iterator = subscriber.keys.iterator();
+        ArrayList<String> exited = new ArrayList<>();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            GeoLocation location = locations.get(key);
+            if (location == null || !subscriber.covers(location)) {
+                iterator.remove();
+                exited.add(key);
+            }
+        }
+        for (String key : exited) {
+            emitKey(subscriber, "onKeyExited", key, null);
+        }
+        for (Map.Entry<String, GeoLocation> entry : locations.entrySet()) {
+            if (subscriber.covers(entry.getValue()) && subscriber.keys.add(entry.getKey())) {
+                emitKey(subscriber, "onKeyEntered", entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Points the GeoQuery at a circle enclosing all subscribers: centered on
+     * the middle of their bounding box, with the radius reaching the farthest
+     * edge. When not growing, the GeoQuery is only moved if that saves enough.
+     */
+    private void updateCoverage(boolean growing) {
+        double minLat = 90;
+        double maxLat = -90;
+        double minLng = 180;
+        double maxLng = -180;
+        for (Subscriber subscriber : subscribers.values()) {
+            minLat = Math.min(minLat, subscriber.center.latitude);
+            maxLat = Math.max(maxLat, subscriber.center.latitude);
+            minLng = Math.min(minLng, subscriber.center.longitude);
+            maxLng = Math.max(maxLng, subscriber.center.longitude);
+        }
+        GeoLocation center = new GeoLocation((minLat + maxLat) / 2, (minLng + maxLng) / 2);
+        double radius = 0;
+        for (Subscriber subscriber : subscribers.values()) {
+            radius = Math.max(radius, GeoUtils.distance(center, subscriber.center) / 1000 + subscriber.radius);
+        }
+
+        boolean created = geoQuery == null;
+        if (!created && !growing && radius >= queryRadius * SHRINK_RATIO) {
+            return;
+        }
+        // a replay still pending stands for a ready that GeoFire will not repeat
+        boolean replay = !created && (queryReady || replayScheduled)
+                && !addsRanges(queryCenter, queryRadius, center, radius);
+        // updated first, GeoQuery may report ready while it moves
+        queryCenter = center;
+        queryRadius = radius;
+        queryReady = false;
+        scheduler.removeCallbacks(replayReady);
+        replayScheduled = replay;
+        if (created) {
+            geoQuery = geoFire.queryAtLocation(center, radius);
+            geoQuery.addGeoQueryEventListener(this);
+        } else {
+            // the listener stays attached; GeoQuery reports the difference
+            geoQuery.setLocation(center, radius);
+        }
+        if (replay) {
+            // GeoQuery posts the keys it re-evaluated ahead of this
+            scheduler.postDelayed(replayReady, 0);
+        }
+    }
+
+    /**
+     * Whether moving a GeoQuery makes it listen to geohash ranges it has not
+     * loaded yet. GeoFire only reports ready again after such a move; radii
+     * in kilometers.
+     */
+    static boolean addsRanges(GeoLocation fromCenter, double fromRadius, GeoLocation toCenter, double toRadius) {
+        Set<GeoHashQuery> loaded = GeoHashQuery.queriesAtLocation(fromCenter, fromRadius * 1000);
+        return !loaded.containsAll(GeoHashQuery.queriesAtLocation(toCenter, toRadius * 1000));
+    }
+
+    private void emitKey(Subscriber subscriber, String callBack, String key, GeoLocation location) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("queryId", subscriber.id);
+        event.put("callBack", callBack);
+        event.put("key", key);
+        if (location != null) {
+            event.put("latitude", location.latitude);
+            event.put("longitude", location.longitude);
+        }
+        emitter.emit(event);
+    }
+
+    private void emitReady(Subscriber subscriber) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("queryId", subscriber.id);
+        event.put("callBack", "onGeoQueryReady");
+        event.put("result", new ArrayList<>(subscriber.keys));
+        emitter.emit(event);
+    }
+}
@@ -0,0 +1,91 @@
+package in.appyflow.geofire;
+
+import java.util.List;
+
+import io.flutter.plugin.common.MethodCall;
+
+/**
+ * Optional per-query settings accepted by queryAtLocation,
+ * queryAtLocationWithData and createQuery.
+ */
+class QueryOptions {
+
+    final List<String> fields;
+    final boolean delta;
+    final double minMoveDistance;
+    final long minMoveInterval;
+    final double recenterThreshold;
+    final long recenterInterval;
+    final double overFetch;
+    final boolean lazy;
+    // where lazy payloads are read from; null for the GeoFire path itself
+    final String dataPath;
+    final int cacheSize;
+
+    private QueryOptions(MethodCall call) {
+        fields = call.argument("fields");
+        delta = Boolean.TRUE.equals(call.argument("delta"));
+        minMoveDistance = call.argument("minMoveDistance") != null
+            ? Double.parseDouble(call.argument("minMoveDistance").toString())
+            : 0;
+        minMoveInterval = call.argument("minMoveInterval") != null
+            ? Long.parseLong(call.argument("minMoveInterval").toString())
+            : 0;
+        recenterThreshold = call.argument("recenterThreshold") != null
+            ? Double.parseDouble(call.argument("recenterThreshold").toString())
+            : 0;
+        recenterInterval = call.argument("recenterInterval") != null
+            ? Long.parseLong(call.argument("recenterInterval").toString())
+            : 0;
+        overFetch = call.argument("overFetch") != null
+            ? Double.parseDouble(call.argument("overFetch").toString())
+            : 1;
+        lazy = Boolean.TRUE.equals(call.argument("lazy"));
+        dataPath = call.argument("dataPath");
+        cacheSize = call.argument("cacheSize") != null
+            ? Integer.parseInt(call.argument("cacheSize").toString())
+            : LazyPayloads.DEFAULT_CACHE_SIZE;
+    }
+
+    static QueryOptions from(MethodCall call) {
+        return new QueryOptions(call);
+    }
+
+    boolean hasRecenterPolicy() {
+        return recenterThreshold > 0 || recenterInterval > 0 || overFetch > 1;
+    }
+
+    /** Whether moves are throttled and the query re-centered the same way as with other. */
+    boolean sameMovePolicy(QueryOptions other) {
+        return minMoveDistance == other.minMoveDistance
+            && minMoveInterval == other.minMoveInterval
+            && recenterThreshold == other.recenterThreshold
+            && recenterInterval == other.recenterInterval
+            && overFetchFactor() == other.overFetchFactor();
+    }
+
+    double overFetchFactor() {
+        return Math.max(1, overFetch);
+    }
+
+    /** Radius the GeoQuery subscribes to for a requested radius. */
+    double subscribedRadius(double radius) {
+        return hasRecenterPolicy() ? radius * overFetchFactor() : radius;
+    }
+
+    /** Returns null when payloads are sent as is. */
+    PayloadShaper newPayloadShaper() {
+        if (fields == null && !delta) {
+            return null;
+        }
+        return new PayloadShaper(fields, delta);
+    }
+
+    /** Returns null when every move is forwarded. */
+    <T> MoveThrottle<T> newMoveThrottle(MoveThrottle.Emitter<T> emitter, Scheduler scheduler) {
+        if (minMoveDistance <= 0 && minMoveInterval <= 0) {
+            return null;
+        }
+        return new MoveThrottle<>(minMoveDistance, minMoveInterval, emitter, scheduler);
+    }
+}
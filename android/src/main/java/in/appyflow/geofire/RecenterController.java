@@ -0,0 +1,123 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.GeoQuery;
+import com.firebase.geofire.util.GeoUtils;
+
+/**
+ * Decides when a re-centering request actually moves the GeoQuery. Moving it
+ * makes GeoFire recompute its geohash ranges and attach or detach database
+ * listeners, so small or frequent moves are absorbed:
+ * <ul>
+ *   <li>the query stays put while the new center is less than
+ *   recenterThreshold * radius away from the current one,</li>
+ *   <li>it is moved at most once per recenterInterval; the latest request is
+ *   applied when the interval ends,</li>
+ *   <li>with overFetch above 1 the query subscribes to radius * overFetch and
+ *   requests that stay inside the subscribed circle are served locally, so
+ *   the threshold only decides when to re-center within that margin; a
+ *   request leaving the subscribed circle always moves the query.</li>
+ * </ul>
+ * The requested (visible) area is always passed to the {@link AreaFilter}
+ * right away, which filters the subscribed keys locally.
+ *
+ * Must only be used from the main thread.
+ */
+class RecenterController {
+
+    interface AreaFilter {
+        void setVisibleArea(GeoLocation center, double radius);
+    }
+
+    private final GeoQuery geoQuery;
+    private final double threshold;
+    private final long minIntervalMs;
+    private final double overFetch;
+    private final AreaFilter filter;
+    private final Scheduler scheduler;
+
+    private GeoLocation queryCenter;
+    private double queryRadius;
+    private long lastApplied;
+
+    private GeoLocation pendingCenter;
+    private double pendingRadius;
+    private boolean scheduled;
+
+    private final Runnable applyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            if (pendingCenter != null) {
+                apply(pendingCenter, pendingRadius);
+            }
+        }
+    };
+
+    /**
+     * @param geoQuery the query, already subscribed to the area returned by
+     *                 {@link QueryOptions#subscribedRadius(double)} around center
+     */
+    RecenterController(GeoQuery geoQuery, QueryOptions options, AreaFilter filter,
+            GeoLocation center, double radius, Scheduler scheduler) {
+        this.geoQuery = geoQuery;
+        this.threshold = options.recenterThreshold;
+        this.minIntervalMs = options.recenterInterval;
+        this.overFetch = options.overFetchFactor();
+        this.filter = filter;
+        this.scheduler = scheduler;
+        this.queryCenter = center;
+        this.queryRadius = radius * overFetch;
+        this.lastApplied = scheduler.now();
+        filter.setVisibleArea(center, radius);
+    }
+
+    void request(GeoLocation center, double radius) {
+        filter.setVisibleArea(center, radius);
+        if (!needsMove(center, radius)) {
+            pendingCenter = null;
+            return;
+        }
+        long wait = lastApplied + minIntervalMs - scheduler.now();
+        if (wait <= 0) {
+            apply(center, radius);
+            return;
+        }
+        pendingCenter = center;
+        pendingRadius = radius;
+        if (!scheduled) {
+            scheduled = true;
+            scheduler.postDelayed(applyRunnable, wait);
+        }
+    }
+
+    void cancel() {
+        scheduler.removeCallbacks(applyRunnable);
+        scheduled = false;
+        pendingCenter = null;
+    }
+
+    private boolean needsMove(GeoLocation center, double radius) {
+        double shift = GeoUtils.distance(queryCenter, center) / 1000;
+        boolean shifted = shift >= threshold * radius;
+        if (overFetch > 1) {
+            boolean contained = shift + radius <= queryRadius;
+            if (!contained) {
+                return true;
+            }
+            boolean grown = radius * overFetch > queryRadius;
+            // also shrink the subscription once the user zoomed in a lot
+            boolean oversized = queryRadius > 2 * radius * overFetch;
+            return grown || oversized || (threshold > 0 && shifted);
+        }
+        return radius != queryRadius || shifted;
+    }
+
+    private void apply(GeoLocation center, double radius) {
+        pendingCenter = null;
+        queryCenter = center;
+        queryRadius = radius * overFetch;
+        lastApplied = scheduler.now();
+        geoQuery.setLocation(center, queryRadius);
+    }
+}
@@ -0,0 +1,182 @@
+package in.appyflow.geofire;
+
+import androidx.annotation.NonNull;
+
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.GeoQueryEventListener;
+import com.firebase.geofire.core.GeoHashQuery;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A GeoFire query over a polygon or bounding box instead of a circle.
+ *
+ * It subscribes to the geohash ranges of a {@link GeoHashCover} directly
+ * and reports to a GeoQueryEventListener only the keys whose location
+ * passes {@link GeoRegion#contains}, so keys in the cover but outside the
+ * region never reach the channel.
+ *
+ * Must only be used from the main thread, where Firebase delivers its
+ * callbacks.
+ */
+class RegionQuery {
+
+    private final DatabaseReference databaseReference;
+    private final List<GeoHashQuery> ranges;
+    private final GeoRegion region;
+    private final ArrayList<Range> attached = new ArrayList<>();
+    // keys inside the region and the range that last reported them
+    private final HashMap<String, GeoLocation> inside = new HashMap<>();
+    private final HashMap<String, Range> owners = new HashMap<>();
+    private GeoQueryEventListener listener;
+    private int outstanding;
+
+    RegionQuery(DatabaseReference databaseReference, GeoRegion region) {
+        this.databaseReference = databaseReference;
+        this.region = region;
+        this.ranges = GeoHashCover.cover(region);
+    }
+
+    void attach(GeoQueryEventListener listener) {
+        detach();
+        this.listener = listener;
+        outstanding = ranges.size();
+        for (GeoHashQuery geoHashQuery : ranges) {
+            Range range = new Range(databaseReference.orderByChild("g")
+                    .startAt(geoHashQuery.getStartValue())
+                    .endAt(geoHashQuery.getEndValue()));
+            attached.add(range);
+            range.query.addChildEventListener(range);
+            // the initial value event follows the initial child events
+            range.query.addListenerForSingleValueEvent(range.ready);
+        }
+        if (outstanding == 0) {
+            listener.onGeoQueryReady();
+        }
+    }
+
+    void detach() {
+        for (Range range : attached) {
+            range.query.removeEventListener(range);
+            range.query.removeEventListener(range.ready);
+            range.detached = true;
+        }
+        attached.clear();
+        inside.clear();
+        owners.clear();
+        listener = null;
+    }
+
+    private void update(Range range, DataSnapshot snapshot) {
+        String key = snapshot.getKey();
+        GeoLocation location = locationOf(snapshot);
+        GeoLocation previous = inside.get(key);
+        if (location != null && region.contains(location.latitude, location.longitude)) {
+            owners.put(key, range);
+            inside.put(key, location);
+            if (previous == null) {
+                listener.onKeyEntered(key, location);
+            } else if (previous.latitude != location.latitude || previous.longitude != location.longitude) {
+                listener.onKeyMoved(key, location);
+            }
+        } else {
+            // keys outside the region are not tracked, however many the ranges hold
+            owners.remove(key);
+            if (previous != null) {
+                inside.remove(key);
+                listener.onKeyExited(key);
+            }
+        }
+    }
+
+    private void remove(Range range, DataSnapshot snapshot) {
+        String key = snapshot.getKey();
+        // a key moving between ranges can be added to the new one first
+        if (owners.get(key) != range) {
+            return;
+        }
+        owners.remove(key);
+        if (inside.remove(key) != null) {
+            listener.onKeyExited(key);
+        }
+    }
+
+    private static GeoLocation locationOf(DataSnapshot snapshot) {
+        Object value = snapshot.child("l").getValue();
+        if (!(value instanceof List) || ((List<?>) value).size() != 2) {
+            return null;
+        }
+        Object latitude = ((List<?>) value).get(0);
+        Object longitude = ((List<?>) value).get(1);
+        if (!(latitude instanceof Number) || !(longitude instanceof Number)) {
+            return null;
+        }
+        double lat = ((Number) latitude).doubleValue();
+        double lng = ((Number) longitude).doubleValue();
+        return GeoLocation.coordinatesValid(lat, lng) ? new GeoLocation(lat, lng) : null;
+    }
+
+    private final class Range implements ChildEventListener {
+        final Query query;
+        boolean detached;
+
+        final ValueEventListener ready = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (!detached && --outstanding == 0) {
+                    listener.onGeoQueryReady();
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Range.this.onCancelled(error);
+            }
+        };
+
+        Range(Query query) {
+            this.query = query;
+        }
+
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) {
+            if (!detached) {
+                update(this, snapshot);
+            }
+        }
+
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) {
+            if (!detached) {
+                update(this, snapshot);
+            }
+        }
+
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+            if (!detached) {
+                remove(this, snapshot);
+            }
+        }
+
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) {
+            // order within a range does not matter
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            if (!detached) {
+                listener.onGeoQueryError(error);
+            }
+        }
+    }
+}
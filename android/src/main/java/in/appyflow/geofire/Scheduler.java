@@ -0,0 +1,20 @@
+package in.appyflow.geofire;
+
+/**
+ * The main thread's delayed callbacks and clock, used by everything the
+ * plugin times.
+ * The plugin uses {@link MainThreadScheduler}; tests step a manual clock.
+ *
+ * {@link #postDelayed} may be called from any thread; tasks always run on
+ * the thread that owns the scheduler.
+ */
+interface Scheduler {
+
+    /** Milliseconds since an arbitrary origin, never going backwards. */
+    long now();
+
+    void postDelayed(Runnable task, long delayMs);
+
+    /** Drops every pending run of the task. */
+    void removeCallbacks(Runnable task);
+}
@@ -0,0 +1,98 @@
+package in.appyflow.geofire;
+
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Builds data event payloads on a worker thread and hands them back to the
+ * main thread for delivery to the EventSink.
+ *
+ * There is a single worker and all results go through the scheduler, so
+ * events are delivered in the order they were submitted, which keeps the
+ * per-key order GeoFire reported them in.
+ */
+class SnapshotPipeline {
+
+    private static final String TAG = "GeofirePlugin";
+
+    interface Task {
+        /** Runs on the worker thread; returns null to drop the event. */
+        HashMap<String, Object> build();
+
+        /** Runs on the main thread with the result of {@link #build()}. */
+        void deliver(HashMap<String, Object> event);
+    }
+
+    private final Scheduler scheduler;
+    private ExecutorService executor;
+
+    SnapshotPipeline(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    void submit(final Task task) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    HashMap<String, Object> built;
+                    try {
+                        built = task.build();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to convert snapshot", e);
+                        return;
+                    }
+                    final HashMap<String, Object> event = built;
+                    if (event == null) {
+                        return;
+                    }
+                    scheduler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            task.deliver(event);
+                        }
+                    }, 0);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Pipeline shut down, dropping event");
+        }
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Reads the snapshot value once and returns it as the "data" map sent to
+     * Dart. Non-object values are wrapped under "value".
+     */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, Object> toDataMap(DataSnapshot dataSnapshot) {
+        Object value = dataSnapshot.getValue();
+        if (value instanceof HashMap) {
+            // getValue() builds a fresh map on every call, so it can be sent as is
+            return (HashMap<String, Object>) value;
+        }
+        HashMap<String, Object> dataMap = new HashMap<>();
+        if (value instanceof Map) {
+            dataMap.putAll((Map<String, Object>) value);
+        } else if (value != null) {
+            dataMap.put("value", value);
+        }
+        return dataMap;
+    }
+}
@@ -0,0 +1,230 @@
+package in.appyflow.geofire;
+
+import com.firebase.geofire.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * In-memory index of the keys currently inside a query and their locations.
+ *
+ * Keys are bucketed into a grid whose cells match geohash cells of precision
+ * 6 (15 bits of latitude and 15 bits of longitude, roughly 1.2 x 0.6 km at
+ * the equator). Area lookups visit only the cells overlapping the area, or
+ * scan all keys when that is cheaper.
+ *
+ * Must only be used from the thread that owns the listener (the main thread).
+ */
+class SpatialIndex {
+
+    private static final int CELL_BITS = 15;
+    private static final int CELLS = 1 << CELL_BITS;
+    private static final double LAT_STEP = 180.0 / CELLS;
+    private static final double LNG_STEP = 360.0 / CELLS;
+
+    private static final class Entry {
+        final String key;
+        double latitude;
+        double longitude;
+        long cell;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    // insertion ordered, so snapshots list keys in the order they entered
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final HashMap<Long, ArrayList<Entry>> cells = new HashMap<>();
+
+    /** Adds the key or moves it to the new location. */
+    void put(String key, double latitude, double longitude) {
+        Entry entry = entries.get(key);
+        long cell = cellOf(latitude, longitude);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        } else if (entry.cell != cell) {
+            removeFromCell(entry);
+        } else {
+            entry.latitude = latitude;
+            entry.longitude = longitude;
+            return;
+        }
+        entry.latitude = latitude;
+        entry.longitude = longitude;
+        entry.cell = cell;
+        ArrayList<Entry> bucket = cells.get(cell);
+        if (bucket == null) {
+            bucket = new ArrayList<>(4);
+            cells.put(cell, bucket);
+        }
+        bucket.add(entry);
+    }
+
+    void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            removeFromCell(entry);
+        }
+    }
+
+    boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.clear();
+        cells.clear();
+    }
+
+    ArrayList<String> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /** Returns key -> [latitude, longitude] for every key. */
+    HashMap<String, Object> snapshot() {
+        HashMap<String, Object> snapshot = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            snapshot.put(entry.key, Arrays.asList(entry.latitude, entry.longitude));
+        }
+        return snapshot;
+    }
+
+    /** Keys within radius kilometers of the given point, nearest first. */
+    ArrayList<String> keysWithinRadius(final double latitude, final double longitude, double radius) {
+        final double maxMeters = radius * 1000;
+        double dLat = GeoUtils.distanceToLatitudeDegrees(maxMeters);
+        // the circle is widest in longitude at its edge farthest from the equator
+        double cosLat = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + dLat)));
+        double dLng = cosLat > 1e-9 ? dLat / cosLat : 360;
+
+        final ArrayList<Hit> hits = new ArrayList<>();
+        visit(latitude - dLat, longitude - dLng, latitude + dLat, longitude + dLng, new Visitor() {
+            @Override
+            public void visit(Entry entry) {
+                double distance = GeoUtils.distance(latitude, longitude, entry.latitude, entry.longitude);
+                if (distance <= maxMeters) {
+                    hits.add(new Hit(entry.key, distance));
+                }
+            }
+        });
+        Collections.sort(hits);
+
+        ArrayList<String> keys = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            keys.add(hit.key);
+        }
+        return keys;
+    }
+
+    /**
+     * Keys inside the box. A box with minLng greater than maxLng crosses the
+     * antimeridian.
+     */
+    ArrayList<String> keysInBoundingBox(final double minLat, final double minLng,
+            final double maxLat, final double maxLng) {
+        final ArrayList<String> keys = new ArrayList<>();
+        final boolean wraps = minLng > maxLng;
+        visit(minLat, minLng, maxLat, wraps ? maxLng + 360 : maxLng, new Visitor() {
+            @Override
+            public void visit(Entry entry) {
+                boolean lngInside = wraps
+                    ? entry.longitude >= minLng || entry.longitude <= maxLng
+                    : entry.longitude >= minLng && entry.longitude <= maxLng;
+                if (lngInside && entry.latitude >= minLat && entry.latitude <= maxLat) {
+                    keys.add(entry.key);
+                }
+            }
+        });
+        return keys;
+    }
+
+    private static final class Hit implements Comparable<Hit> {
+        final String key;
+        final double distance;
+
+        Hit(String key, double distance) {
+            this.key = key;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+    private interface Visitor {
+        void visit(Entry entry);
+    }
+
+    /**
+     * Visits every entry in the cells overlapping the box. maxLng may exceed
+     * 180 and minLng may be below -180 when the box crosses the antimeridian;
+     * entries outside the box can be visited too.
+     */
+    private void visit(double minLat, double minLng, double maxLat, double maxLng, Visitor visitor) {
+        // one row and two columns of padding for rounding at cell edges
+        int minRow = Math.max(0, latIndex(Math.max(-90, minLat)) - 1);
+        int maxRow = Math.min(CELLS - 1, latIndex(Math.min(90, maxLat)) + 1);
+        long columns = maxLng - minLng >= 360 ? CELLS : (long) Math.floor((maxLng - minLng) / LNG_STEP) + 2;
+        long cellCount = (long) (maxRow - minRow + 1) * Math.min(columns, CELLS);
+
+        if (cellCount >= entries.size()) {
+            for (Entry entry : entries.values()) {
+                visitor.visit(entry);
+            }
+            return;
+        }
+        int firstColumn = lngIndex(minLng);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (long i = 0; i < columns; i++) {
+                int column = (int) ((firstColumn + i) % CELLS);
+                ArrayList<Entry> bucket = cells.get(cellKey(row, column));
+                if (bucket != null) {
+                    for (int j = 0; j < bucket.size(); j++) {
+                        visitor.visit(bucket.get(j));
+                    }
+                }
+            }
+        }
+    }
+
+    private void removeFromCell(Entry entry) {
+        ArrayList<Entry> bucket = cells.get(entry.cell);
+        if (bucket == null) {
+            return;
+        }
+        bucket.remove(entry);
+        if (bucket.isEmpty()) {
+            cells.remove(entry.cell);
+        }
+    }
+
+    private static long cellOf(double latitude, double longitude) {
+        return cellKey(latIndex(latitude), lngIndex(longitude));
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << CELL_BITS) | column;
+    }
+
+    private static int latIndex(double latitude) {
+        return Math.min(CELLS - 1, Math.max(0, (int) ((latitude + 90) / LAT_STEP)));
+    }
+
+    private static int lngIndex(double longitude) {
+        // normalize into [-180, 180) first; lookups may pass wrapped values
+        double normalized = longitude - 360 * Math.floor((longitude + 180) / 360);
+        return Math.min(CELLS - 1, Math.max(0, (int) ((normalized + 180) / LNG_STEP)));
+    }
+}
@@ -0,0 +1,235 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import io.flutter.plugin.common.BinaryMessenger;
+
+public class BinaryEventStreamTest {
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final BinaryMessenger messenger = mock(BinaryMessenger.class);
+    private final ArrayList<byte[]> messages = new ArrayList<>();
+    // key ids live across messages, like in the Dart decoder
+    private final HashMap<Integer, String> keys = new HashMap<>();
+    private BinaryEventStream stream;
+
+    @Before
+    public void setUp() {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                // like the engine, send the bytes up to position() and keep nothing
+                ByteBuffer message = invocation.getArgument(1);
+                byte[] bytes = new byte[message.position()];
+                ByteBuffer copy = message.duplicate();
+                copy.flip();
+                copy.get(bytes);
+                messages.add(bytes);
+                return null;
+            }
+        }).when(messenger).send(anyString(), any(ByteBuffer.class), any());
+        stream = new BinaryEventStream(messenger, new PluginMetrics(scheduler), scheduler);
+    }
+
+    @Test
+    public void keyEventsRoundTrip() {
+        stream.setEnabled(true);
+        stream.keyEntered("a", 52.52, 13.405);
+        stream.keyEntered("b", 48.857, 2.352);
+        stream.queryReady(Arrays.asList("a", "b"));
+        stream.keyMoved("a", 52.53, 13.41);
+        stream.keyExited("b");
+        // takes the id b released
+        stream.keyEntered("über", -33.87, 151.21);
+        stream.queryReady(Arrays.asList("a", "über"));
+
+        List<HashMap<String, Object>> events = decodeAll();
+
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered", "onGeoQueryReady", "onKeyMoved",
+                "onKeyExited", "onKeyEntered", "onGeoQueryReady"), callBacks(events));
+        assertEquals(event("onKeyEntered", "a", 52.52, 13.405), events.get(0));
+        assertEquals(event("onKeyEntered", "b", 48.857, 2.352), events.get(1));
+        assertEquals(Arrays.asList("a", "b"), events.get(2).get("result"));
+        assertEquals(event("onKeyMoved", "a", 52.53, 13.41), events.get(3));
+        assertEquals("b", events.get(4).get("key"));
+        assertEquals(event("onKeyEntered", "über", -33.87, 151.21), events.get(5));
+        assertEquals(Arrays.asList("a", "über"), events.get(6).get("result"));
+        // without a window every record is a message of its own
+        assertEquals(7 + 1, messages.size());
+    }
+
+    @Test
+    public void movesWithinAWindowAreOverwrittenInPlace() {
+        stream.setWindow(50);
+        stream.setEnabled(true);
+        stream.keyEntered("a", 52.52, 13.405);
+        stream.keyMoved("a", 52.521, 13.405);
+        stream.keyMoved("b", 48.857, 2.352);
+        stream.keyMoved("a", 52.522, 13.406);
+        stream.keyMoved("a", 52.523, 13.407);
+        assertTrue(messages.isEmpty());
+
+        scheduler.advance(50);
+
+        assertEquals(1, messages.size());
+        // RESET, KEY a, ENTERED a, MOVED a, KEY b, MOVED b: a's later moves took the slot of its first
+        assertEquals(1 + 10 + 21 + 21 + 10 + 21, messages.get(0).length);
+        List<HashMap<String, Object>> events = decodeAll();
+        assertEquals(3, events.size());
+        assertEquals(event("onKeyEntered", "a", 52.52, 13.405), events.get(0));
+        assertEquals(event("onKeyMoved", "a", 52.523, 13.407), events.get(1));
+        assertEquals(event("onKeyMoved", "b", 48.857, 2.352), events.get(2));
+    }
+
+    @Test
+    public void aMoveAfterAnExitIsNotFoldedIntoAnEarlierOne() {
+        stream.setWindow(50);
+        stream.setEnabled(true);
+        stream.keyEntered("a", 52.52, 13.405);
+        scheduler.advance(50);
+
+        stream.keyMoved("a", 52.521, 13.405);
+        stream.keyExited("a");
+        stream.keyEntered("a", 52.53, 13.405);
+        stream.keyMoved("a", 52.531, 13.405);
+        stream.keyMoved("a", 52.532, 13.405);
+        scheduler.advance(50);
+
+        List<HashMap<String, Object>> events = decodeAll();
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyMoved", "onKeyExited", "onKeyEntered", "onKeyMoved"),
+                callBacks(events));
+        assertEquals(52.521, events.get(1).get("latitude"));
+        assertEquals(52.532, events.get(4).get("latitude"));
+    }
+
+    @Test
+    public void resetStartsANewKeyNamespace() {
+        stream.setWindow(50);
+        stream.setEnabled(true);
+        stream.keyEntered("a", 52.52, 13.405);
+        stream.keyMoved("a", 52.521, 13.405);
+
+        // a restarted query reuses the ids from 0 within the same message
+        stream.reset();
+        stream.keyEntered("b", 48.857, 2.352);
+        stream.keyMoved("b", 48.858, 2.352);
+        stream.queryReady(Arrays.asList("b", "c"));
+        scheduler.advance(50);
+
+        assertEquals(1, messages.size());
+        byte[] message = messages.get(0);
+        assertEquals(BinaryEventStream.RESET, message[0]);
+        assertEquals(BinaryEventStream.RESET, message[1 + 10 + 21 + 21]);
+        List<HashMap<String, Object>> events = decodeAll();
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyMoved", "onKeyEntered", "onKeyMoved", "onGeoQueryReady"),
+                callBacks(events));
+        assertEquals("b", events.get(2).get("key"));
+        assertEquals(48.858, events.get(3).get("latitude"));
+        // ready defines the ids of keys not seen yet
+        assertEquals(Arrays.asList("b", "c"), events.get(4).get("result"));
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<>(keys.values()));
+    }
+
+    @Test
+    public void disablingFlushesWhatIsPending() {
+        stream.setWindow(50);
+        stream.setEnabled(true);
+        stream.keyEntered("a", 52.52, 13.405);
+
+        stream.setEnabled(false);
+
+        assertEquals(1, messages.size());
+        assertEquals(Arrays.asList("onKeyEntered"), callBacks(decodeAll()));
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    // Mirrors _decodeBinaryEvents in lib/flutter_geofire.dart
+    private List<HashMap<String, Object>> decodeAll() {
+        ArrayList<HashMap<String, Object>> events = new ArrayList<>();
+        for (byte[] message : messages) {
+            events.addAll(decode(ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN)));
+        }
+        return events;
+    }
+
+    private List<HashMap<String, Object>> decode(ByteBuffer data) {
+        ArrayList<HashMap<String, Object>> events = new ArrayList<>();
+        while (data.hasRemaining()) {
+            byte type = data.get();
+            switch (type) {
+                case BinaryEventStream.RESET:
+                    keys.clear();
+                    break;
+                case BinaryEventStream.KEY:
+                    int id = data.getInt();
+                    byte[] bytes = new byte[data.getInt()];
+                    data.get(bytes);
+                    keys.put(id, new String(bytes, Charset.forName("UTF-8")));
+                    break;
+                case BinaryEventStream.ENTERED:
+                case BinaryEventStream.MOVED:
+                    String key = keys.get(data.getInt());
+                    double latitude = data.getDouble();
+                    double longitude = data.getDouble();
+                    events.add(event(type == BinaryEventStream.ENTERED ? "onKeyEntered" : "onKeyMoved",
+                            key, latitude, longitude));
+                    break;
+                case BinaryEventStream.EXITED:
+                    HashMap<String, Object> exited = new HashMap<>();
+                    exited.put("callBack", "onKeyExited");
+                    exited.put("key", keys.remove(data.getInt()));
+                    events.add(exited);
+                    break;
+                case BinaryEventStream.READY:
+                    int count = data.getInt();
+                    ArrayList<String> result = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        result.add(keys.get(data.getInt()));
+                    }
+                    HashMap<String, Object> ready = new HashMap<>();
+                    ready.put("callBack", "onGeoQueryReady");
+                    ready.put("result", result);
+                    events.add(ready);
+                    break;
+                default:
+                    throw new AssertionError("unknown record type " + type);
+            }
+        }
+        return events;
+    }
+
+    private static HashMap<String, Object> event(String callBack, String key, double latitude, double longitude) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("callBack", callBack);
+        event.put("key", key);
+        event.put("latitude", latitude);
+        event.put("longitude", longitude);
+        return event;
+    }
+
+    private static List<String> callBacks(List<HashMap<String, Object>> events) {
+        ArrayList<String> callBacks = new ArrayList<>();
+        for (HashMap<String, Object> event : events) {
+            callBacks.add((String) event.get("callBack"));
+        }
+        return callBacks;
+    }
+}
@@ -0,0 +1,298 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class EventBatcherTest {
+
+    private FakeScheduler scheduler;
+    private RecordingEventSink sink;
+    private EventBatcher batcher;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        sink = new RecordingEventSink();
+        batcher = new EventBatcher(new PluginMetrics(scheduler), scheduler);
+        batcher.setSink(sink);
+    }
+
+    @Test
+    public void sendsEventsRightAwayByDefault() {
+        batcher.add(move("a", 1));
+        batcher.add(move("a", 2));
+
+        assertEquals(2, sink.messages.size());
+        assertTrue(sink.messages.get(0) instanceof HashMap);
+    }
+
+    @Test
+    public void batchesOverTheWindow() {
+        batcher.configure(true, 16, 100);
+        batcher.add(event("onKeyEntered", "a"));
+        batcher.add(event("onKeyEntered", "b"));
+        scheduler.advance(15);
+        assertTrue(sink.messages.isEmpty());
+
+        scheduler.advance(1);
+        assertEquals(1, sink.messages.size());
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered"), sink.callBacks());
+    }
+
+    @Test
+    public void flushesWhenTheBatchIsFull() {
+        batcher.configure(true, 16, 3);
+        for (int i = 0; i < 7; i++) {
+            batcher.add(event("onKeyEntered", "k" + i));
+        }
+        assertEquals(2, sink.messages.size());
+
+        scheduler.advance(16);
+        assertEquals(3, sink.messages.size());
+        assertEquals(7, sink.events().size());
+    }
+
+    @Test
+    public void foldsMovesIntoTheFirstSlot() {
+        batcher.configure(true, 16, 100);
+        batcher.add(move("a", 1));
+        batcher.add(event("onKeyEntered", "b"));
+        batcher.add(move("a", 2));
+        batcher.add(move("a", 3));
+        scheduler.advance(16);
+
+        List<HashMap<String, Object>> events = sink.events();
+        assertEquals(Arrays.asList("onKeyMoved", "onKeyEntered"), sink.callBacks());
+        assertEquals(3.0, events.get(0).get("latitude"));
+    }
+
+    @Test
+    public void keepsMovesOfOtherQueriesApart() {
+        batcher.configure(true, 16, 100);
+        HashMap<String, Object> shops = move("a", 1);
+        shops.put("queryId", "shops");
+        batcher.add(shops);
+        batcher.add(move("a", 2));
+        scheduler.advance(16);
+
+        assertEquals(2, sink.events().size());
+    }
+
+    @Test
+    public void neverMovesAheadOfALaterEvent() {
+        batcher.configure(true, 16, 100);
+        batcher.add(move("a", 1));
+        batcher.add(event("onKeyExited", "a"));
+        batcher.add(event("onKeyEntered", "a"));
+        batcher.add(move("a", 2));
+        scheduler.advance(16);
+
+        assertEquals(Arrays.asList("onKeyMoved", "onKeyExited", "onKeyEntered", "onKeyMoved"), sink.callBacks());
+    }
+
+    @Test
+    public void neverFoldsDeltaPayloads() {
+        batcher.configure(true, 16, 100);
+        batcher.add(change("a", map("open", true), true));
+        batcher.add(change("a", map("open", false), true));
+        batcher.add(change("b", map("open", true), false));
+        batcher.add(change("b", map("open", false), false));
+        scheduler.advance(16);
+
+        List<HashMap<String, Object>> events = sink.events();
+        assertEquals(3, events.size());
+        assertEquals(map("open", false), events.get(2).get("data"));
+    }
+
+    @Test
+    public void neverFoldsALazyPayloadChangeIntoALocationChange() {
+        batcher.configure(true, 16, 100);
+        // lazy mode: the payload subscription reports data without a location,
+        // the geo node reports the location without data
+        HashMap<String, Object> payload = event("onDataKeyChanged", "a");
+        payload.put("data", map("open", true));
+        HashMap<String, Object> location = event("onDataKeyChanged", "a");
+        location.put("latitude", 1.0);
+        location.put("longitude", 2.0);
+        batcher.add(payload);
+        batcher.add(location);
+        // nor a change without data into one that carries it
+        batcher.add(change("b", map("open", true), false));
+        HashMap<String, Object> bare = event("onDataKeyChanged", "b");
+        bare.put("latitude", 0.0);
+        bare.put("longitude", 0.0);
+        batcher.add(bare);
+        scheduler.advance(16);
+
+        List<HashMap<String, Object>> events = sink.events();
+        assertEquals(4, events.size());
+        assertTrue(events.get(0).containsKey("data"));
+        assertFalse(events.get(1).containsKey("data"));
+        assertTrue(events.get(2).containsKey("data"));
+    }
+
+    @Test
+    public void waitsForAcknowledgements() {
+        batcher.configureQueue(100, EventBatcher.OverflowPolicy.COALESCE, 2);
+        for (int i = 0; i < 5; i++) {
+            batcher.add(event("onKeyEntered", "k" + i));
+        }
+        assertEquals(2, sink.messages.size());
+        assertEquals(2, batcher.stats().get("inFlight"));
+        assertEquals(3, batcher.stats().get("depth"));
+
+        batcher.onAck(2);
+        assertEquals(4, sink.messages.size());
+        batcher.onAck(1);
+        assertEquals(5, sink.messages.size());
+        assertEquals(0, batcher.stats().get("depth"));
+    }
+
+    @Test
+    public void reconfiguringKeepsOutstandingCredits() {
+        batcher.configureQueue(100, EventBatcher.OverflowPolicy.COALESCE, 2);
+        batcher.add(event("onKeyEntered", "a"));
+        batcher.add(event("onKeyEntered", "b"));
+        batcher.configureQueue(100, EventBatcher.OverflowPolicy.DROP_OLDEST, 2);
+        batcher.add(event("onKeyEntered", "c"));
+
+        assertEquals(2, sink.messages.size());
+        batcher.onAck(1);
+        assertEquals(3, sink.messages.size());
+    }
+
+    @Test
+    public void coalescesQueuedMovesPerKey() {
+        batcher.configureQueue(100, EventBatcher.OverflowPolicy.COALESCE, 1);
+        batcher.add(event("onKeyEntered", "blocker"));
+        for (int i = 1; i <= 10; i++) {
+            batcher.add(move("a", i));
+        }
+        assertEquals(1, batcher.stats().get("depth"));
+
+        batcher.onAck(1);
+        assertEquals(10.0, sink.events().get(1).get("latitude"));
+    }
+
+    @Test
+    public void dropsOldestMovesWhenFull() {
+        batcher.configureQueue(3, EventBatcher.OverflowPolicy.DROP_OLDEST, 1);
+        batcher.add(event("onKeyEntered", "blocker"));
+        batcher.add(move("a", 1));
+        batcher.add(event("onKeyEntered", "b"));
+        batcher.add(move("c", 1));
+        batcher.add(move("d", 1));
+        batcher.add(event("onKeyExited", "b"));
+
+        // the move of a made room for d; the exit is queued past the capacity
+        assertEquals(1L, batcher.stats().get("dropped"));
+        for (int i = 0; i < 4; i++) {
+            batcher.onAck(1);
+        }
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered", "onKeyMoved", "onKeyMoved", "onKeyExited"),
+                sink.callBacks());
+        assertEquals("c", sink.events().get(2).get("key"));
+    }
+
+    @Test
+    public void overflowKeepsTheLoneMoveOfAnotherKey() {
+        batcher.configureQueue(3, EventBatcher.OverflowPolicy.COALESCE, 1);
+        batcher.add(event("onKeyEntered", "blocker"));
+        batcher.add(move("a", 1));
+        batcher.add(event("onKeyEntered", "b"));
+        batcher.add(move("b", 2));
+        batcher.add(move("b", 3));
+
+        // b's second move folds into its first; nothing queued is superseded, so c's move is dropped
+        batcher.add(event("onKeyExited", "c"));
+        batcher.add(move("c", 4));
+
+        assertEquals(1L, batcher.stats().get("dropped"));
+        for (int i = 0; i < 5; i++) {
+            batcher.onAck(1);
+        }
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyMoved", "onKeyEntered", "onKeyMoved", "onKeyExited"),
+                sink.callBacks());
+        List<HashMap<String, Object>> events = sink.events();
+        assertEquals("a", events.get(1).get("key"));
+        assertEquals(1.0, events.get(1).get("latitude"));
+        assertEquals(3.0, events.get(3).get("latitude"));
+    }
+
+    @Test
+    public void overflowDropsAMoveALaterEventSupersedes() {
+        batcher.configureQueue(3, EventBatcher.OverflowPolicy.COALESCE, 1);
+        batcher.add(event("onKeyEntered", "blocker"));
+        batcher.add(move("a", 1));
+        batcher.add(move("b", 1));
+        batcher.add(event("onKeyExited", "b"));
+        batcher.add(move("c", 2));
+
+        assertEquals(1L, batcher.stats().get("dropped"));
+        for (int i = 0; i < 4; i++) {
+            batcher.onAck(1);
+        }
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyMoved", "onKeyExited", "onKeyMoved"), sink.callBacks());
+        List<HashMap<String, Object>> events = sink.events();
+        assertEquals("a", events.get(1).get("key"));
+        assertEquals("c", events.get(3).get("key"));
+    }
+
+    @Test
+    public void aFullQueueMovesAPendingEnter() {
+        batcher.configureQueue(2, EventBatcher.OverflowPolicy.COALESCE, 1);
+        batcher.add(event("onKeyEntered", "blocker"));
+        HashMap<String, Object> enter = move("a", 1);
+        enter.put("callBack", "onKeyEntered");
+        batcher.add(enter);
+        batcher.add(event("onKeyEntered", "b"));
+        batcher.add(move("a", 5));
+
+        batcher.onAck(1);
+        batcher.onAck(1);
+        List<HashMap<String, Object>> events = sink.events();
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered", "onKeyEntered"), sink.callBacks());
+        assertEquals(5.0, events.get(1).get("latitude"));
+    }
+
+    private static HashMap<String, Object> event(String callBack, String key) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("callBack", callBack);
+        event.put("key", key);
+        return event;
+    }
+
+    private static HashMap<String, Object> move(String key, double latitude) {
+        HashMap<String, Object> event = event("onKeyMoved", key);
+        event.put("latitude", latitude);
+        event.put("longitude", 0.0);
+        return event;
+    }
+
+    private static HashMap<String, Object> change(String key, HashMap<String, Object> data, boolean delta) {
+        HashMap<String, Object> event = event("onDataKeyChanged", key);
+        event.put("latitude", 0.0);
+        event.put("longitude", 0.0);
+        event.put("data", data);
+        if (delta) {
+            event.put("removed", Arrays.asList());
+        }
+        return event;
+    }
+
+    private static HashMap<String, Object> map(Object... keysAndValues) {
+        HashMap<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
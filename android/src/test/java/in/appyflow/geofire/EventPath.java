@@ -0,0 +1,78 @@
+package in.appyflow.geofire;
+
+import com.google.firebase.database.DatabaseError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import io.flutter.plugin.common.MethodCall;
+
+/**
+ * The plugin's side of the event path without Flutter: events are tagged,
+ * counted and queued in an {@link EventBatcher} that delivers to a
+ * {@link RecordingEventSink}, all on a {@link FakeScheduler}.
+ */
+final class EventPath implements QueryEventSink {
+
+    final FakeScheduler scheduler = new FakeScheduler();
+    final PluginMetrics metrics = new PluginMetrics(scheduler);
+    final EventBatcher batcher = new EventBatcher(metrics, scheduler);
+    final SnapshotPipeline pipeline = new SnapshotPipeline(scheduler);
+    final RecordingEventSink sink = new RecordingEventSink();
+    final ArrayList<String> errorQueryIds = new ArrayList<>();
+
+    EventPath() {
+        batcher.setSink(sink);
+    }
+
+    /** Options as queryAtLocation or createQuery would receive them, from key/value pairs. */
+    static QueryOptions options(Object... keysAndValues) {
+        HashMap<String, Object> arguments = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            arguments.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return QueryOptions.from(new MethodCall("createQuery", arguments));
+    }
+
+    PluginGeoQueryEventListener keyListener(String queryId, QueryOptions options) {
+        return new PluginGeoQueryEventListener(queryId, options, this, scheduler, metrics);
+    }
+
+    PluginGeoQueryDataEventListener dataListener(String queryId, QueryOptions options) {
+        return new PluginGeoQueryDataEventListener(queryId, options, this, scheduler, metrics, pipeline);
+    }
+
+    /** Delivers what the pipeline and the batcher still hold. */
+    void settle() {
+        scheduler.drain(pipeline);
+        batcher.flush(true);
+    }
+
+    void shutdown() {
+        pipeline.shutdown();
+    }
+
+    @Override
+    public boolean isListening() {
+        return true;
+    }
+
+    @Override
+    public void send(String queryId, HashMap<String, Object> event) {
+        if (queryId != null) {
+            event.put("queryId", queryId);
+        }
+        metrics.countEvent((String) event.get("callBack"));
+        batcher.add(event);
+    }
+
+    @Override
+    public void sendError(String queryId, DatabaseError error) {
+        errorQueryIds.add(queryId);
+    }
+
+    @Override
+    public BinaryEventStream binaryEvents() {
+        return null;
+    }
+}
@@ -0,0 +1,247 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Timing harness for the listener event path, driven by {@link FakeGeoFire}.
+ * Skipped unless Gradle runs with -Pbenchmark:
+ *
+ * ./gradlew :flutter_geofire:testDebugUnitTest -Pbenchmark --tests '*EventPathBenchmark'
+ *
+ * Every scenario is warmed up and then timed over several rounds on fresh
+ * fakes. The median is printed and appended to results.csv in the
+ * geofire.benchmarkDir directory. Timings include the fake's own distance
+ * checks, so compare them between runs rather than reading them as absolutes.
+ */
+public class EventPathBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 7;
+
+    private interface Scenario {
+        /** Builds the fakes; not timed. */
+        void setUp();
+
+        /** Runs the timed part and returns the number of operations. */
+        int run();
+
+        void tearDown();
+    }
+
+    @Before
+    public void enabled() {
+        assumeTrue(Boolean.getBoolean("geofire.benchmark"));
+    }
+
+    @Test
+    public void enterMoveExitStorm() throws IOException {
+        measure("enterMoveExitStorm", new Scenario() {
+            private EventPath path;
+            private FakeGeoFire geoFire;
+
+            @Override
+            public void setUp() {
+                path = new EventPath();
+                path.batcher.configure(true, 16, 500);
+                geoFire = new FakeGeoFire();
+                geoFire.query(52.52, 13.405, 5).addListener(path.keyListener(null, EventPath.options()));
+            }
+
+            @Override
+            public int run() {
+                Random random = new Random(1);
+                int keys = 2000;
+                int moves = 20;
+                for (int i = 0; i < keys; i++) {
+                    geoFire.setLocation("k" + i, 52.52 + offset(random), 13.405 + offset(random));
+                }
+                for (int round = 0; round < moves; round++) {
+                    for (int i = 0; i < keys; i++) {
+                        geoFire.setLocation("k" + i, 52.52 + offset(random), 13.405 + offset(random));
+                    }
+                    path.scheduler.advance(16);
+                }
+                for (int i = 0; i < keys; i++) {
+                    geoFire.removeLocation("k" + i);
+                }
+                path.scheduler.advance(16);
+                return keys * (moves + 2);
+            }
+
+            @Override
+            public void tearDown() {
+                path.shutdown();
+            }
+        });
+    }
+
+    @Test
+    public void throttledMoveStorm() throws IOException {
+        measure("throttledMoveStorm", new Scenario() {
+            private EventPath path;
+            private FakeGeoFire geoFire;
+
+            @Override
+            public void setUp() {
+                path = new EventPath();
+                geoFire = new FakeGeoFire();
+                geoFire.query(52.52, 13.405, 5).addListener(
+                        path.keyListener(null, EventPath.options("minMoveInterval", 100)));
+                for (int i = 0; i < 1000; i++) {
+                    geoFire.setLocation("k" + i, 52.52, 13.405);
+                }
+            }
+
+            @Override
+            public int run() {
+                Random random = new Random(2);
+                int rounds = 50;
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < 1000; i++) {
+                        geoFire.setLocation("k" + i, 52.52 + offset(random), 13.405 + offset(random));
+                    }
+                    path.scheduler.advance(10);
+                }
+                path.scheduler.advance(100);
+                return 1000 * rounds;
+            }
+
+            @Override
+            public void tearDown() {
+                path.shutdown();
+            }
+        });
+    }
+
+    @Test
+    public void largePayloads() throws IOException {
+        measure("largePayloads", new Scenario() {
+            private EventPath path;
+            private FakeGeoFire geoFire;
+            private FakeGeoFire.Query query;
+
+            @Override
+            public void setUp() {
+                path = new EventPath();
+                geoFire = new FakeGeoFire();
+                query = geoFire.query(52.52, 13.405, 5);
+                Random random = new Random(3);
+                for (int i = 0; i < 2000; i++) {
+                    HashMap<String, Object> value = new HashMap<>();
+                    for (int field = 0; field < 50; field++) {
+                        value.put("field" + field, field % 2 == 0 ? "value" + random.nextInt(100) : random.nextDouble());
+                    }
+                    geoFire.setLocation("k" + i, 52.52 + offset(random), 13.405 + offset(random), value);
+                }
+            }
+
+            @Override
+            public int run() {
+                query.addListener(path.dataListener(null, EventPath.options(
+                        "fields", Arrays.asList("field0", "field1", "field2", "field3"), "delta", true)));
+                // every key exits with its payload again
+                query.setCenter(0, 0, 1);
+                path.settle();
+                return 2000 * 2;
+            }
+
+            @Override
+            public void tearDown() {
+                path.shutdown();
+            }
+        });
+    }
+
+    @Test
+    public void readyWithManyKeys() throws IOException {
+        measure("readyWithManyKeys", new Scenario() {
+            private EventPath path;
+            private PluginGeoQueryEventListener listener;
+
+            @Override
+            public void setUp() {
+                path = new EventPath();
+                FakeGeoFire geoFire = new FakeGeoFire();
+                listener = path.keyListener(null, EventPath.options());
+                geoFire.query(52.52, 13.405, 5).addListener(listener);
+                Random random = new Random(4);
+                for (int i = 0; i < 50000; i++) {
+                    geoFire.setLocation("k" + i, 52.52 + offset(random), 13.405 + offset(random));
+                }
+                path.sink.clear();
+            }
+
+            @Override
+            public int run() {
+                int readies = 20;
+                for (int i = 0; i < readies; i++) {
+                    listener.onGeoQueryReady();
+                }
+                return readies;
+            }
+
+            @Override
+            public void tearDown() {
+                path.shutdown();
+            }
+        });
+    }
+
+    // within about 3 km of the center
+    private static double offset(Random random) {
+        return (random.nextDouble() - 0.5) * 0.05;
+    }
+
+    private static void measure(String name, Scenario scenario) throws IOException {
+        long[] nanos = new long[ROUNDS];
+        int operations = 0;
+        for (int i = -WARMUP_ROUNDS; i < ROUNDS; i++) {
+            scenario.setUp();
+            try {
+                long start = System.nanoTime();
+                operations = scenario.run();
+                if (i >= 0) {
+                    nanos[i] = System.nanoTime() - start;
+                }
+            } finally {
+                scenario.tearDown();
+            }
+        }
+        Arrays.sort(nanos);
+        long median = nanos[ROUNDS / 2];
+        String line = String.format(Locale.US, "%s,%d,%.3f,%.1f", name, operations, median / 1e6,
+                (double) median / operations);
+        System.out.println("benchmark " + line);
+        report(line);
+    }
+
+    private static void report(String line) throws IOException {
+        File dir = new File(System.getProperty("geofire.benchmarkDir", "build/reports/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, "results.csv");
+        boolean header = !file.exists();
+        Writer writer = new FileWriter(file, true);
+        try {
+            if (header) {
+                writer.write("scenario,operations,median_ms,ns_per_operation\n");
+            }
+            writer.write(line + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
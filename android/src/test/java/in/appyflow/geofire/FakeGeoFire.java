@@ -0,0 +1,538 @@
+package in.appyflow.geofire;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyDouble;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.firebase.geofire.GeoFire;
+import com.firebase.geofire.GeoLocation;
+import com.firebase.geofire.GeoQuery;
+import com.firebase.geofire.GeoQueryDataEventListener;
+import com.firebase.geofire.GeoQueryEventListener;
+import com.firebase.geofire.LocationCallback;
+import com.firebase.geofire.core.GeoHashQuery;
+import com.firebase.geofire.util.GeoUtils;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory stand-in for a GeoFire location and the queries over it. Setting
+ * or removing a key's location and moving a query report enters, moves,
+ * changes and exits to the attached listeners the way GeoQuery does; data
+ * listeners get mocked snapshots whose getValue() returns a fresh copy of
+ * the key's value, like the Firebase SDK.
+ *
+ * As a {@link DatabaseProvider} it hands out mocked GeoFire, GeoQuery and
+ * DatabaseReference objects backed by the same store, so the whole plugin
+ * can run against it. Writes through updateChildren are recorded and
+ * applied; value reads and subscriptions of child references are answered
+ * from the stored values.
+ */
+final class FakeGeoFire implements DatabaseProvider {
+
+    private final LinkedHashMap<String, GeoLocation> locations = new LinkedHashMap<>();
+    private final HashMap<String, DataSnapshot> snapshots = new HashMap<>();
+    private final ArrayList<Query> queries = new ArrayList<>();
+    private final HashMap<String, DatabaseReference> references = new HashMap<>();
+    private final HashMap<String, ArrayList<ValueEventListener>> valueListeners = new HashMap<>();
+    private final ArrayList<Runnable> heldReads = new ArrayList<>();
+
+    /** Every updateChildren call, in order. */
+    final ArrayList<Map<String, Object>> updates = new ArrayList<>();
+    /** Paths passed to getReference. */
+    final ArrayList<String> referencePaths = new ArrayList<>();
+    /** Keys of the single value reads that were started. */
+    final ArrayList<String> reads = new ArrayList<>();
+    /** When set, writes complete with this error. */
+    DatabaseError writeError;
+    /** When set, location lookups and value reads wait for {@link #releaseReads}. */
+    boolean holdReads;
+
+    final GeoFire geoFire = mock(GeoFire.class);
+
+    FakeGeoFire() {
+        final DatabaseReference root = reference("");
+        when(geoFire.getDatabaseReference()).thenReturn(root);
+        when(geoFire.queryAtLocation(any(GeoLocation.class), anyDouble())).thenAnswer(new Answer<GeoQuery>() {
+            @Override
+            public GeoQuery answer(InvocationOnMock invocation) {
+                GeoLocation center = invocation.getArgument(0);
+                double radius = invocation.getArgument(1);
+                return query(center.latitude, center.longitude, radius).geoQuery;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                String key = invocation.getArgument(0);
+                GeoLocation location = invocation.getArgument(1);
+                setLocation(key, location.latitude, location.longitude);
+                ((GeoFire.CompletionListener) invocation.getArgument(2)).onComplete(key, writeError);
+                return null;
+            }
+        }).when(geoFire).setLocation(anyString(), any(GeoLocation.class), any(GeoFire.CompletionListener.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                String key = invocation.getArgument(0);
+                removeLocation(key);
+                ((GeoFire.CompletionListener) invocation.getArgument(1)).onComplete(key, writeError);
+                return null;
+            }
+        }).when(geoFire).removeLocation(anyString(), any(GeoFire.CompletionListener.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final String key = invocation.getArgument(0);
+                final LocationCallback callback = invocation.getArgument(1);
+                read(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLocationResult(key, locations.get(key));
+                    }
+                });
+                return null;
+            }
+        }).when(geoFire).getLocation(anyString(), any(LocationCallback.class));
+    }
+
+    @Override
+    public DatabaseReference getReference(String path) {
+        referencePaths.add(path);
+        return reference(path);
+    }
+
+    @Override
+    public GeoFire newGeoFire(DatabaseReference reference) {
+        return geoFire;
+    }
+
+    /** A query around the given center, radius in kilometers as in the GeoFire API. */
+    Query query(double latitude, double longitude, double radius) {
+        Query query = new Query(new GeoLocation(latitude, longitude), radius);
+        queries.add(query);
+        return query;
+    }
+
+    /** The queries created so far, oldest first. */
+    List<Query> queries() {
+        return queries;
+    }
+
+    void setLocation(String key, double latitude, double longitude) {
+        DataSnapshot snapshot = snapshots.get(key);
+        update(key, new GeoLocation(latitude, longitude), snapshot, false);
+    }
+
+    /** Sets the location and the whole value stored at the key. */
+    void setLocation(String key, double latitude, double longitude, Map<String, Object> value) {
+        update(key, new GeoLocation(latitude, longitude), snapshot(key, value), true);
+    }
+
+    void setValue(String key, Map<String, Object> value) {
+        update(key, locations.get(key), snapshot(key, value), true);
+    }
+
+    void removeLocation(String key) {
+        locations.remove(key);
+        DataSnapshot snapshot = snapshots.remove(key);
+        for (Query query : new ArrayList<>(queries)) {
+            if (query.inside.remove(key)) {
+                query.exit(key, snapshot);
+            }
+        }
+        notifyValue(key);
+    }
+
+    GeoLocation location(String key) {
+        return locations.get(key);
+    }
+
+    /** Answers the held location lookups and value reads. */
+    void releaseReads() {
+        ArrayList<Runnable> reads = new ArrayList<>(heldReads);
+        heldReads.clear();
+        for (Runnable read : reads) {
+            read.run();
+        }
+    }
+
+    /** Number of value listeners on the child reference of a key. */
+    int valueListenerCount(String key) {
+        ArrayList<ValueEventListener> listeners = valueListeners.get(key);
+        return listeners == null ? 0 : listeners.size();
+    }
+
+    private void update(String key, GeoLocation location, DataSnapshot snapshot, boolean valueChanged) {
+        GeoLocation previous = locations.put(key, location);
+        snapshot = snapshot != null ? snapshot : snapshot(key, (Map<String, Object>) null);
+        snapshots.put(key, snapshot);
+        for (Query query : new ArrayList<>(queries)) {
+            query.update(key, previous, location, snapshot, valueChanged);
+        }
+        if (valueChanged) {
+            notifyValue(key);
+        }
+    }
+
+    private void read(Runnable read) {
+        if (holdReads) {
+            heldReads.add(read);
+        } else {
+            read.run();
+        }
+    }
+
+    private void notifyValue(String key) {
+        ArrayList<ValueEventListener> listeners = valueListeners.get(key);
+        if (listeners != null) {
+            for (ValueEventListener listener : new ArrayList<>(listeners)) {
+                listener.onDataChange(valueSnapshot(key));
+            }
+        }
+    }
+
+    private DataSnapshot valueSnapshot(String key) {
+        DataSnapshot snapshot = snapshots.get(key);
+        return snapshot != null ? snapshot : snapshot(key, (Map<String, Object>) null);
+    }
+
+    private DatabaseReference reference(final String path) {
+        DatabaseReference reference = references.get(path);
+        if (reference != null) {
+            return reference;
+        }
+        final DatabaseReference created = mock(DatabaseReference.class);
+        references.put(path, created);
+        when(created.getKey()).thenReturn(path);
+        when(created.child(anyString())).thenAnswer(new Answer<DatabaseReference>() {
+            @Override
+            public DatabaseReference answer(InvocationOnMock invocation) {
+                String child = invocation.getArgument(0);
+                return reference(path.isEmpty() ? child : path + "/" + child);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Map<String, Object> update = invocation.getArgument(0);
+                updates.add(new HashMap<>(update));
+                if (writeError == null) {
+                    apply(update);
+                }
+                ((DatabaseReference.CompletionListener) invocation.getArgument(1)).onComplete(writeError, created);
+                return null;
+            }
+        }).when(created).updateChildren(Mockito.<String, Object>anyMap(),
+                any(DatabaseReference.CompletionListener.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final String key = keyOf(path);
+                final ValueEventListener listener = invocation.getArgument(0);
+                reads.add(key);
+                read(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onDataChange(valueSnapshot(key));
+                    }
+                });
+                return null;
+            }
+        }).when(created).addListenerForSingleValueEvent(any(ValueEventListener.class));
+        when(created.addValueEventListener(any(ValueEventListener.class))).thenAnswer(
+                new Answer<ValueEventListener>() {
+                    @Override
+                    public ValueEventListener answer(InvocationOnMock invocation) {
+                        String key = keyOf(path);
+                        ValueEventListener listener = invocation.getArgument(0);
+                        ArrayList<ValueEventListener> listeners = valueListeners.get(key);
+                        if (listeners == null) {
+                            listeners = new ArrayList<>();
+                            valueListeners.put(key, listeners);
+                        }
+                        listeners.add(listener);
+                        listener.onDataChange(valueSnapshot(key));
+                        return listener;
+                    }
+                });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ArrayList<ValueEventListener> listeners = valueListeners.get(keyOf(path));
+                if (listeners != null) {
+                    listeners.remove(invocation.getArgument(0));
+                }
+                return null;
+            }
+        }).when(created).removeEventListener(any(ValueEventListener.class));
+        return created;
+    }
+
+    // Keys live directly below the root, or below a separate data path
+    private static String keyOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    // Applies a GeoFire layout multi-path update to the locations
+    private void apply(Map<String, Object> update) {
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (entry.getValue() == null) {
+                removeLocation(entry.getKey());
+                continue;
+            }
+            List<?> l = (List<?>) ((Map<?, ?>) entry.getValue()).get("l");
+            setLocation(entry.getKey(), ((Number) l.get(0)).doubleValue(), ((Number) l.get(1)).doubleValue());
+        }
+    }
+
+    private static DataSnapshot snapshot(String key, final Map<String, Object> value) {
+        DataSnapshot snapshot = mock(DataSnapshot.class);
+        when(snapshot.getKey()).thenReturn(key);
+        when(snapshot.exists()).thenReturn(value != null);
+        when(snapshot.getValue()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return value == null ? null : new HashMap<>(value);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * One GeoQuery. Like GeoFire, moving it reports ready again only when the
+     * new area needs geohash ranges the old one did not listen to.
+     */
+    final class Query {
+
+        final GeoQuery geoQuery = mock(GeoQuery.class);
+        private final LinkedHashSet<String> inside = new LinkedHashSet<>();
+        private final ArrayList<GeoQueryEventListener> keyListeners = new ArrayList<>();
+        private final ArrayList<GeoQueryDataEventListener> dataListeners = new ArrayList<>();
+        private GeoLocation center;
+        private double radius;
+
+        Query(GeoLocation center, double radius) {
+            this.center = center;
+            this.radius = radius;
+            for (Map.Entry<String, GeoLocation> entry : locations.entrySet()) {
+                if (contains(entry.getValue())) {
+                    inside.add(entry.getKey());
+                }
+            }
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    addListener((GeoQueryEventListener) invocation.getArgument(0));
+                    return null;
+                }
+            }).when(geoQuery).addGeoQueryEventListener(any(GeoQueryEventListener.class));
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    addListener((GeoQueryDataEventListener) invocation.getArgument(0));
+                    return null;
+                }
+            }).when(geoQuery).addGeoQueryDataEventListener(any(GeoQueryDataEventListener.class));
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    if (!keyListeners.remove(invocation.getArgument(0))) {
+                        throw new IllegalArgumentException("Trying to remove listener that was removed or not added!");
+                    }
+                    return null;
+                }
+            }).when(geoQuery).removeGeoQueryEventListener(any(GeoQueryEventListener.class));
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    if (!dataListeners.remove(invocation.getArgument(0))) {
+                        throw new IllegalArgumentException("Trying to remove listener that was removed or not added!");
+                    }
+                    return null;
+                }
+            }).when(geoQuery).removeGeoQueryEventListener(any(GeoQueryDataEventListener.class));
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    removeAllListeners();
+                    return null;
+                }
+            }).when(geoQuery).removeAllListeners();
+            when(geoQuery.getCenter()).thenAnswer(new Answer<GeoLocation>() {
+                @Override
+                public GeoLocation answer(InvocationOnMock invocation) {
+                    return Query.this.center;
+                }
+            });
+            when(geoQuery.getRadius()).thenAnswer(new Answer<Double>() {
+                @Override
+                public Double answer(InvocationOnMock invocation) {
+                    return Query.this.radius;
+                }
+            });
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    GeoLocation center = invocation.getArgument(0);
+                    double radius = invocation.getArgument(1);
+                    move(center, radius);
+                    return null;
+                }
+            }).when(geoQuery).setLocation(any(GeoLocation.class), anyDouble());
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    move((GeoLocation) invocation.getArgument(0), Query.this.radius);
+                    return null;
+                }
+            }).when(geoQuery).setCenter(any(GeoLocation.class));
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    double radius = invocation.getArgument(0);
+                    move(Query.this.center, radius);
+                    return null;
+                }
+            }).when(geoQuery).setRadius(anyDouble());
+        }
+
+        /** Attaches the listener, reporting the keys already inside and ready. */
+        void addListener(GeoQueryEventListener listener) {
+            keyListeners.add(listener);
+            for (String key : new ArrayList<>(inside)) {
+                listener.onKeyEntered(key, locations.get(key));
+            }
+            listener.onGeoQueryReady();
+        }
+
+        void addListener(GeoQueryDataEventListener listener) {
+            dataListeners.add(listener);
+            for (String key : new ArrayList<>(inside)) {
+                listener.onDataEntered(snapshots.get(key), locations.get(key));
+            }
+            listener.onGeoQueryReady();
+        }
+
+        void removeAllListeners() {
+            keyListeners.clear();
+            dataListeners.clear();
+        }
+
+        int listenerCount() {
+            return keyListeners.size() + dataListeners.size();
+        }
+
+        GeoLocation center() {
+            return center;
+        }
+
+        double radius() {
+            return radius;
+        }
+
+        /** Moves the query and reports ready, as if the new area finished loading; radius in kilometers. */
+        void setCenter(double latitude, double longitude, double radius) {
+            relocate(new GeoLocation(latitude, longitude), radius);
+            fireReady();
+        }
+
+        // GeoQuery.setLocation: ready only follows once new ranges loaded
+        private void move(GeoLocation center, double radius) {
+            boolean addsRanges = !GeoHashQuery.queriesAtLocation(this.center, this.radius * 1000)
+                    .containsAll(GeoHashQuery.queriesAtLocation(center, radius * 1000));
+            relocate(center, radius);
+            if (addsRanges) {
+                fireReady();
+            }
+        }
+
+        private void relocate(GeoLocation center, double radius) {
+            this.center = center;
+            this.radius = radius;
+            for (Map.Entry<String, GeoLocation> entry : new ArrayList<>(locations.entrySet())) {
+                String key = entry.getKey();
+                boolean isInside = contains(entry.getValue());
+                if (isInside && inside.add(key)) {
+                    enter(key, entry.getValue(), snapshots.get(key));
+                } else if (!isInside && inside.remove(key)) {
+                    exit(key, snapshots.get(key));
+                }
+            }
+        }
+
+        private void fireReady() {
+            for (GeoQueryEventListener listener : new ArrayList<>(keyListeners)) {
+                listener.onGeoQueryReady();
+            }
+            for (GeoQueryDataEventListener listener : new ArrayList<>(dataListeners)) {
+                listener.onGeoQueryReady();
+            }
+        }
+
+        private void update(String key, GeoLocation previous, GeoLocation location, DataSnapshot snapshot,
+                boolean valueChanged) {
+            boolean wasInside = inside.contains(key);
+            boolean isInside = contains(location);
+            if (isInside && !wasInside) {
+                inside.add(key);
+                enter(key, location, snapshot);
+            } else if (!isInside && wasInside) {
+                inside.remove(key);
+                exit(key, snapshot);
+            } else if (isInside) {
+                boolean moved = previous.latitude != location.latitude || previous.longitude != location.longitude;
+                for (GeoQueryEventListener listener : new ArrayList<>(keyListeners)) {
+                    if (moved) {
+                        listener.onKeyMoved(key, location);
+                    }
+                }
+                for (GeoQueryDataEventListener listener : new ArrayList<>(dataListeners)) {
+                    if (moved) {
+                        listener.onDataMoved(snapshot, location);
+                    } else if (valueChanged) {
+                        listener.onDataChanged(snapshot, location);
+                    }
+                }
+            }
+        }
+
+        private void enter(String key, GeoLocation location, DataSnapshot snapshot) {
+            for (GeoQueryEventListener listener : new ArrayList<>(keyListeners)) {
+                listener.onKeyEntered(key, location);
+            }
+            for (GeoQueryDataEventListener listener : new ArrayList<>(dataListeners)) {
+                listener.onDataEntered(snapshot, location);
+            }
+        }
+
+        private void exit(String key, DataSnapshot snapshot) {
+            for (GeoQueryEventListener listener : new ArrayList<>(keyListeners)) {
+                listener.onKeyExited(key);
+            }
+            for (GeoQueryDataEventListener listener : new ArrayList<>(dataListeners)) {
+                listener.onDataExited(snapshot);
+            }
+        }
+
+        private boolean contains(GeoLocation location) {
+            return GeoUtils.distance(center, location) <= radius * 1000;
+        }
+    }
+}
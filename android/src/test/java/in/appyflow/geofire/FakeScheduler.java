@@ -0,0 +1,127 @@
+package in.appyflow.geofire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * {@link Scheduler} with a manual clock. Due tasks run on the test thread
+ * when the clock is advanced. Posting is thread-safe, so the deliveries of
+ * the {@link SnapshotPipeline} worker can be collected with {@link #drain}.
+ */
+final class FakeScheduler implements Scheduler {
+
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    private static final class Pending {
+        final Runnable task;
+        final long at;
+
+        Pending(Runnable task, long at) {
+            this.task = task;
+            this.at = at;
+        }
+    }
+
+    // in posting order, so tasks due at the same time run in that order
+    private final ArrayList<Pending> pending = new ArrayList<>();
+    private long now;
+
+    @Override
+    public synchronized long now() {
+        return now;
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable task, long delayMs) {
+        pending.add(new Pending(task, now + Math.max(0, delayMs)));
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable task) {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).task == task) {
+                pending.remove(i);
+            }
+        }
+    }
+
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /** Moves the clock forward, running the tasks that fall due in time order. */
+    void advance(long ms) {
+        long target;
+        synchronized (this) {
+            target = now + ms;
+        }
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                next = null;
+                for (Pending candidate : pending) {
+                    if (candidate.at <= target && (next == null || candidate.at < next.at)) {
+                        next = candidate;
+                    }
+                }
+                if (next == null) {
+                    now = target;
+                    return;
+                }
+                pending.remove(next);
+                now = Math.max(now, next.at);
+            }
+            next.task.run();
+        }
+    }
+
+    /** Runs the tasks already due without moving the clock. */
+    void runDue() {
+        advance(0);
+    }
+
+    /** Waits up to timeoutMs for a task to be posted, e.g. by another thread. */
+    synchronized void awaitPost(long timeoutMs) {
+        try {
+            wait(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Waits until everything submitted to the pipeline so far was delivered. */
+    void drain(SnapshotPipeline pipeline) {
+        final boolean[] delivered = new boolean[1];
+        pipeline.submit(new SnapshotPipeline.Task() {
+            @Override
+            public HashMap<String, Object> build() {
+                return new HashMap<>();
+            }
+
+            @Override
+            public void deliver(HashMap<String, Object> event) {
+                delivered[0] = true;
+            }
+        });
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (true) {
+            runDue();
+            if (delivered[0]) {
+                return;
+            }
+            synchronized (this) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new AssertionError("SnapshotPipeline did not deliver within " + DRAIN_TIMEOUT_MS + " ms");
+                }
+                try {
+                    wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+}
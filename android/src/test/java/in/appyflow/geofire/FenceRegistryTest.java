@@ -0,0 +1,139 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FenceRegistryTest {
+
+    private final FenceRegistry registry = new FenceRegistry();
+
+    @Test
+    public void metreSizedFencesUseTheFinestLevel() {
+        // a cell of the finest level is about 19 m high, so these share one
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("a", 52.52, 13.405, 0.001),
+                FenceRegistry.Fence.circle("b", 52.52, 13.405025, 0.001)), false);
+
+        assertEquals(Arrays.asList("a"), inside(52.52, 13.405));
+        assertEquals(Arrays.asList("a", "b"), inside(52.52, 13.4050125));
+        assertEquals(Arrays.asList("b"), inside(52.52, 13.405025));
+        assertTrue(inside(52.52002, 13.405).isEmpty());
+    }
+
+    @Test
+    public void fencesOnCellBoundariesAreFoundFromEverySide() {
+        // 0, 0 is a cell corner on every level
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("tiny", 0, 0, 0.001),
+                FenceRegistry.Fence.circle("small", 0, 0, 10),
+                FenceRegistry.Fence.polygon("triangle", new double[] {-1, -1, 1}, new double[] {-1, 1, 0})), false);
+
+        for (double[] corner : new double[][] {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}}) {
+            assertEquals(Arrays.asList("small", "tiny", "triangle"),
+                    inside(corner[0] * 0.000005, corner[1] * 0.000005));
+            assertTrue(inside(corner[0] * 0.06, corner[1] * 0.06).contains("small"));
+            assertTrue(!inside(corner[0] * 0.07, corner[1] * 0.07).contains("small"));
+        }
+        assertEquals(Arrays.asList("triangle"), inside(0.9, 0));
+        assertTrue(inside(0.9, 0.5).isEmpty());
+    }
+
+    @Test
+    public void fencesAcrossTheAntimeridian() {
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("small", 0, 179.99, 5),
+                FenceRegistry.Fence.circle("tiny", 10, -180, 0.01)), false);
+
+        assertEquals(Arrays.asList("small"), inside(0, -179.99));
+        assertEquals(Arrays.asList("small"), inside(0, 179.99));
+        assertTrue(inside(0, -179.9).isEmpty());
+        assertEquals(Arrays.asList("tiny"), inside(10, 179.99995));
+        assertEquals(Arrays.asList("tiny"), inside(10, -179.99995));
+    }
+
+    @Test
+    public void fencesAroundThePoles() {
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("north", 89.99, 0, 5),
+                FenceRegistry.Fence.circle("south", -90, 0, 1)), false);
+
+        assertEquals(Arrays.asList("north"), inside(89.995, 179));
+        assertEquals(Arrays.asList("north"), inside(90, -45));
+        assertTrue(inside(89.9, 180).isEmpty());
+        assertEquals(Arrays.asList("south"), inside(-89.995, -120));
+        assertTrue(inside(-89.98, 0).isEmpty());
+    }
+
+    @Test
+    public void largeAndFineFencesMix() {
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("continent", 50, 10, 2000),
+                FenceRegistry.Fence.circle("house", 52.52, 13.405, 0.001)), false);
+
+        assertEquals(Arrays.asList("continent", "house"), inside(52.52, 13.405));
+        assertEquals(Arrays.asList("continent"), inside(40, 0));
+        assertTrue(inside(10, 10).isEmpty());
+
+        // removing the finest fence leaves the index consistent
+        assertEquals(1, registry.remove(Arrays.asList("house")));
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("house", 52.53, 13.405, 0.001)), false);
+        assertEquals(Arrays.asList("continent"), inside(52.52, 13.405));
+        assertEquals(Arrays.asList("continent", "house"), inside(52.53, 13.405));
+    }
+
+    @Test
+    public void reportsTransitions() {
+        registry.put(Arrays.asList(
+                FenceRegistry.Fence.circle("home", 52.52, 13.405, 1),
+                FenceRegistry.Fence.circle("city", 52.52, 13.405, 5),
+                FenceRegistry.Fence.polygon("park", new double[] {52.6, 52.6, 52.7}, new double[] {13.3, 13.5, 13.4})),
+                false);
+
+        assertTransitions(52.52, 13.405, Arrays.asList("city", "home"), Collections.<String>emptyList());
+        assertTransitions(52.521, 13.405, Collections.<String>emptyList(), Collections.<String>emptyList());
+        assertTransitions(52.55, 13.405, Collections.<String>emptyList(), Arrays.asList("home"));
+        assertTransitions(52.62, 13.4, Arrays.asList("park"), Arrays.asList("city"));
+        assertTransitions(0, 0, Collections.<String>emptyList(), Arrays.asList("park"));
+    }
+
+    @Test
+    public void removedAndReplacedFencesAreNotReportedAsExits() {
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("a", 0, 0, 10),
+                FenceRegistry.Fence.circle("b", 0, 0, 10)), false);
+        assertTransitions(0, 0, Arrays.asList("a", "b"), Collections.<String>emptyList());
+
+        assertEquals(1, registry.remove(Arrays.asList("a", "missing")));
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("c", 10, 10, 10)), true);
+
+        assertEquals(1, registry.size());
+        assertTransitions(10, 10, Arrays.asList("c"), Collections.<String>emptyList());
+    }
+
+    @Test
+    public void movedFencesAreReindexed() {
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("a", 0, 0, 10)), false);
+        registry.put(Arrays.asList(FenceRegistry.Fence.circle("a", 45, 90, 10)), false);
+
+        assertTrue(registry.check(0, 0, new ArrayList<String>(), new ArrayList<String>()).isEmpty());
+        assertEquals(Arrays.asList("a"), registry.check(45, 90, new ArrayList<String>(), new ArrayList<String>()));
+    }
+
+    // sorted, the registry reports fences in index order
+    private List<String> inside(double latitude, double longitude) {
+        ArrayList<String> ids = registry.check(latitude, longitude, new ArrayList<String>(), new ArrayList<String>());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private void assertTransitions(double latitude, double longitude, List<String> entered, List<String> exited) {
+        ArrayList<String> actualEntered = new ArrayList<>();
+        ArrayList<String> actualExited = new ArrayList<>();
+        registry.check(latitude, longitude, actualEntered, actualExited);
+        Collections.sort(actualEntered);
+        Collections.sort(actualExited);
+        assertEquals(entered, actualEntered);
+        assertEquals(exited, actualExited);
+    }
+}
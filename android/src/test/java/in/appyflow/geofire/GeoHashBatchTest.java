@@ -0,0 +1,145 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.firebase.geofire.core.GeoHash;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class GeoHashBatchTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void encodesKnownPoints() {
+        assertEquals("u33dc0cppj", encode(52.52, 13.405, 10));
+        assertEquals("r3gx2f5ubq", encode(-33.87, 151.21, 10));
+        assertEquals("u33dc0cppjs7qfhcq9g7ug", encode(52.52, 13.405, GeoHashBatch.MAX_PRECISION));
+        assertEquals("u", encode(52.52, 13.405, 1));
+    }
+
+    @Test
+    public void encodesTheCornersOfTheWorld() {
+        assertEquals("zzzzzzzzzz", encode(90, 180, 10));
+        assertEquals("0000000000", encode(-90, -180, 10));
+        // the two sides of the antimeridian are as far apart as cells get
+        assertEquals("rzzzzzzzzz", encode(0, 180, 10));
+        assertEquals("2pbpbpbpbp", encode(0, -180, 10));
+    }
+
+    @Test
+    public void pointsOnACellEdgeBelongToTheSouthWestCell() {
+        assertEquals("7zzzzzzzzz", encode(0, 0, 10));
+        assertEquals("s000000000", encode(1e-12, 1e-12, 10));
+        // the upper corner of s is the last point of it
+        assertEquals("szzzzzzzzz", encode(45, 45, 10));
+
+        double[] bounds = GeoHashBatch.decodeBounds("s".getBytes(ASCII), 1);
+        assertArrayEquals(new double[] {0, 0, 45, 45}, bounds, 0);
+        assertEquals("7", encode(bounds[0], bounds[1], 1));
+        assertEquals("s", encode(bounds[2], bounds[3], 1));
+    }
+
+    @Test
+    public void encodesEveryPointOfTheBatch() {
+        double[] latitudes = {52.52, -33.87, 0, 90};
+        double[] longitudes = {13.405, 151.21, 0, 180};
+
+        byte[] hashes = GeoHashBatch.encode(latitudes, longitudes, 5);
+
+        assertEquals("u33dcr3gx27zzzzzzzzz", new String(hashes, ASCII));
+        for (int i = 0; i < latitudes.length; i++) {
+            assertEquals(new GeoHash(latitudes[i], longitudes[i], 5).getGeoHashString(),
+                    new String(hashes, i * 5, 5, ASCII));
+        }
+        assertEquals(0, GeoHashBatch.encode(new double[0], new double[0], 10).length);
+    }
+
+    @Test
+    public void decodesCellBounds() {
+        double[] bounds = GeoHashBatch.decodeBounds("u33dc0cppjr3gx2f5ubq".getBytes(ASCII), 10);
+
+        assertEquals(8, bounds.length);
+        assertTrue(bounds[0] <= 52.52 && 52.52 <= bounds[2]);
+        assertTrue(bounds[1] <= 13.405 && 13.405 <= bounds[3]);
+        assertTrue(bounds[4] <= -33.87 && -33.87 <= bounds[6]);
+        assertTrue(bounds[5] <= 151.21 && 151.21 <= bounds[7]);
+        // 25 longitude and 25 latitude bits
+        assertEquals(360 / Math.pow(2, 25), bounds[3] - bounds[1], 1e-15);
+        assertEquals(180 / Math.pow(2, 25), bounds[2] - bounds[0], 1e-15);
+    }
+
+    @Test
+    public void finestCellsStillContainTheirPoints() {
+        // 55 bits per axis are finer than a double resolves away from the equator,
+        // so a cell may shrink to a single value, but never past its point
+        double[] latitudes = {90, -90, 52.52, 0.1};
+        double[] longitudes = {180, -180, 13.405, -0.1};
+        double[] bounds = GeoHashBatch.decodeBounds(
+                GeoHashBatch.encode(latitudes, longitudes, GeoHashBatch.MAX_PRECISION), GeoHashBatch.MAX_PRECISION);
+
+        for (int i = 0; i < latitudes.length; i++) {
+            assertTrue(bounds[i * 4] <= latitudes[i] && latitudes[i] <= bounds[i * 4 + 2]);
+            assertTrue(bounds[i * 4 + 1] <= longitudes[i] && longitudes[i] <= bounds[i * 4 + 3]);
+        }
+        assertTrue(bounds[12] < bounds[14]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfRangeLatitudes() {
+        GeoHashBatch.encode(new double[] {91}, new double[] {0}, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLongitudesPastTheAntimeridian() {
+        GeoHashBatch.encode(new double[] {0}, new double[] {180.000001}, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNaN() {
+        GeoHashBatch.encode(new double[] {Double.NaN}, new double[] {0}, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArraysOfDifferentLengths() {
+        GeoHashBatch.encode(new double[] {0, 1}, new double[] {0}, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPrecisionsPastTheMaximum() {
+        GeoHashBatch.encode(new double[] {0}, new double[] {0}, GeoHashBatch.MAX_PRECISION + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAPrecisionOfZero() {
+        GeoHashBatch.decodeBounds(new byte[0], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPartialHashes() {
+        GeoHashBatch.decodeBounds("u33dc0".getBytes(ASCII), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonGeohashCharacters() {
+        GeoHashBatch.decodeBounds("u33da".getBytes(ASCII), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUpperCase() {
+        GeoHashBatch.decodeBounds("U33DC".getBytes(ASCII), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonAsciiBytes() {
+        GeoHashBatch.decodeBounds(new byte[] {'u', '3', '3', 'd', (byte) 0xC3}, 5);
+    }
+
+    private static String encode(double latitude, double longitude, int precision) {
+        return new String(GeoHashBatch.encode(new double[] {latitude}, new double[] {longitude}, precision), ASCII);
+    }
+}
@@ -0,0 +1,89 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.firebase.geofire.core.GeoHash;
+import com.firebase.geofire.core.GeoHashQuery;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public class GeoHashCoverTest {
+
+    private final Random random = new Random(160);
+
+    @Test
+    public void coversEveryPointOfTheRegion() {
+        GeoRegion[] regions = {
+                GeoRegion.boundingBox(52.4, 13.3, 52.6, 13.5),
+                GeoRegion.boundingBox(52.52, 13.405, 52.5201, 13.4052),
+                GeoRegion.boundingBox(-10, 170, 10, -170),
+                GeoRegion.boundingBox(-0.5, 179.9, 0.5, -179.9),
+                GeoRegion.boundingBox(-60, -120, 60, 120),
+                GeoRegion.polygon(new double[] {0, 0, 1, 1, 2, 2}, new double[] {0, 2, 2, 1, 1, 0}),
+                GeoRegion.polygon(new double[] {52.5, 52.5, 52.55}, new double[] {13.4, 13.45, 13.42}),
+                GeoRegion.polygon(new double[] {85, 85, 89.9}, new double[] {-80, 80, 0}),
+                GeoRegion.polygon(new double[] {-5, -5, 5}, new double[] {170, -170, 180}),
+        };
+        for (GeoRegion region : regions) {
+            List<GeoHashQuery> queries = GeoHashCover.cover(region);
+            assertTrue(queries.size() <= GeoHashCover.MAX_QUERIES);
+            double[][] bounds = region.bounds();
+            int checked = 0;
+            while (checked < 2000) {
+                double[] box = bounds[random.nextInt(bounds.length)];
+                double latitude = box[0] + random.nextDouble() * (box[2] - box[0]);
+                double longitude = box[1] + random.nextDouble() * (box[3] - box[1]);
+                if (!region.contains(latitude, longitude)) {
+                    continue;
+                }
+                checked++;
+                GeoHash hash = new GeoHash(latitude, longitude, 10);
+                assertTrue(hash.getGeoHashString() + " at " + latitude + "," + longitude, covered(queries, hash));
+            }
+        }
+    }
+
+    @Test
+    public void smallRegionsAreCoveredTightly() {
+        GeoRegion region = GeoRegion.boundingBox(52.52, 13.405, 52.521, 13.406);
+        List<GeoHashQuery> queries = GeoHashCover.cover(region);
+        int covered = 0;
+        for (int i = 0; i < 2000; i++) {
+            double latitude = 52.5 + random.nextDouble() * 0.05;
+            double longitude = 13.38 + random.nextDouble() * 0.05;
+            if (covered(queries, new GeoHash(latitude, longitude, 10))) {
+                covered++;
+            }
+        }
+        // the box is 1/2500 of the sampled area; the cover may be a few cells larger
+        assertTrue("covered " + covered, covered < 100);
+    }
+
+    @Test
+    public void polygonAcrossTheAntimeridianIsCoveredOnBothSides() {
+        GeoRegion triangle = GeoRegion.polygon(new double[] {-5, -5, 5}, new double[] {170, -170, 180});
+        List<GeoHashQuery> queries = GeoHashCover.cover(triangle);
+
+        assertTrue(queries.size() <= GeoHashCover.MAX_QUERIES);
+        assertTrue(covered(queries, new GeoHash(0, 179.9, 10)));
+        assertTrue(covered(queries, new GeoHash(0, -179.9, 10)));
+        assertTrue(covered(queries, new GeoHash(-4.9, 170.5, 10)));
+        assertTrue(covered(queries, new GeoHash(-4.9, -170.5, 10)));
+        assertFalse(covered(queries, new GeoHash(0, 0, 10)));
+        assertFalse(covered(queries, new GeoHash(0, 150, 10)));
+        assertFalse(covered(queries, new GeoHash(0, -150, 10)));
+    }
+
+    private static boolean covered(List<GeoHashQuery> queries, GeoHash hash) {
+        for (GeoHashQuery query : queries) {
+            if (query.containsGeoHash(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
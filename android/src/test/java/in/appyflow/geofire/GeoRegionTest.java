@@ -0,0 +1,157 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GeoRegionTest {
+
+    @Test
+    public void boxAcrossTheAntimeridianSplitsItsBounds() {
+        GeoRegion box = GeoRegion.boundingBox(-10, 170, 10, -170);
+
+        double[][] bounds = box.bounds();
+        assertEquals(2, bounds.length);
+        assertArrayEquals(new double[] {-10, 170, 10, 180}, bounds[0], 0);
+        assertArrayEquals(new double[] {-10, -180, 10, -170}, bounds[1], 0);
+        assertTrue(box.contains(0, 179.5));
+        assertTrue(box.contains(0, -179.5));
+        assertTrue(box.contains(0, 180));
+        assertFalse(box.contains(0, 0));
+        assertFalse(box.contains(0, 169.9));
+        assertFalse(box.contains(11, 175));
+    }
+
+    @Test
+    public void boxIncludesItsEdges() {
+        // south and north may come in either order
+        GeoRegion box = GeoRegion.boundingBox(10, -5, -10, 5);
+
+        assertArrayEquals(new double[] {-10, -5, 10, 5}, box.bounds()[0], 0);
+        assertTrue(box.contains(-10, -5));
+        assertTrue(box.contains(10, 5));
+        assertFalse(box.contains(10.001, 0));
+        assertFalse(box.contains(0, -5.001));
+        assertTrue(box.intersects(10, 5, 11, 6));
+        assertFalse(box.intersects(10.001, 0, 11, 1));
+    }
+
+    @Test
+    public void convexPolygonExcludesItsCorners() {
+        // a diamond in its bounding box 2 x 2
+        GeoRegion diamond = GeoRegion.polygon(new double[] {0, 1, 0, -1}, new double[] {-1, 0, 1, 0});
+
+        assertTrue(diamond.contains(0, 0));
+        assertTrue(diamond.contains(0.49, 0.49));
+        assertFalse(diamond.contains(0.51, 0.51));
+        assertFalse(diamond.contains(-0.9, -0.9));
+        assertFalse(diamond.contains(0, 1.01));
+    }
+
+    @Test
+    public void concavePolygonExcludesItsNotch() {
+        // an L: the box 0..2 x 0..2 without its north-east quarter
+        GeoRegion polygon = GeoRegion.polygon(new double[] {0, 0, 1, 1, 2, 2}, new double[] {0, 2, 2, 1, 1, 0});
+
+        assertTrue(polygon.contains(0.5, 0.5));
+        assertTrue(polygon.contains(1.5, 0.5));
+        assertTrue(polygon.contains(0.5, 1.5));
+        assertFalse(polygon.contains(1.5, 1.5));
+        assertFalse(polygon.contains(-0.1, 1));
+        assertFalse(polygon.intersects(1.2, 1.2, 1.8, 1.8));
+    }
+
+    @Test
+    public void windingOrderDoesNotMatter() {
+        GeoRegion counterclockwise = GeoRegion.polygon(new double[] {0, 0, 1}, new double[] {0, 1, 0});
+        GeoRegion clockwise = GeoRegion.polygon(new double[] {0, 1, 0}, new double[] {0, 0, 1});
+
+        for (double[] point : new double[][] {{0.2, 0.2}, {0.49, 0.49}, {0.51, 0.51}, {-0.1, 0.5}}) {
+            assertEquals(counterclockwise.contains(point[0], point[1]), clockwise.contains(point[0], point[1]));
+        }
+        assertTrue(clockwise.contains(0.2, 0.2));
+        assertFalse(clockwise.contains(0.51, 0.51));
+    }
+
+    @Test
+    public void polygonIntersectsCellsItOnlyPartlyCovers() {
+        GeoRegion diamond = GeoRegion.polygon(new double[] {0, 1, 0, -1}, new double[] {-1, 0, 1, 0});
+
+        // a cell around a vertex
+        assertTrue(diamond.intersects(0.9, -0.1, 1.1, 0.1));
+        // a cell inside the polygon
+        assertTrue(diamond.intersects(0.2, 0.2, 0.3, 0.3));
+        // a cell whose south-west corner is outside, but an edge crosses it
+        assertTrue(diamond.intersects(0.1, -0.95, 0.3, -0.6));
+        // a cell in the bounding box, but beyond the edge
+        assertFalse(diamond.intersects(0.6, 0.6, 0.9, 0.9));
+        assertFalse(diamond.intersects(-3, -3, -2, -2));
+    }
+
+    @Test
+    public void polygonAcrossTheAntimeridianWrapsAroundIt() {
+        GeoRegion polygon = GeoRegion.polygon(new double[] {-10, -10, 10, 10}, new double[] {170, -170, -170, 170});
+
+        double[][] bounds = polygon.bounds();
+        assertEquals(2, bounds.length);
+        assertArrayEquals(new double[] {-10, 170, 10, 180}, bounds[0], 0);
+        assertArrayEquals(new double[] {-10, -180, 10, -170}, bounds[1], 0);
+        assertTrue(polygon.contains(0, 175));
+        assertTrue(polygon.contains(0, -175));
+        assertTrue(polygon.contains(0, 180));
+        assertTrue(polygon.contains(0, -180));
+        assertFalse(polygon.contains(0, 0));
+        assertFalse(polygon.contains(0, 165));
+        assertFalse(polygon.contains(0, -165));
+        assertFalse(polygon.contains(11, 175));
+
+        assertTrue(polygon.intersects(-1, 179, 1, 180));
+        assertTrue(polygon.intersects(-1, -180, 1, -179));
+        assertTrue(polygon.intersects(-1, 160, 1, 171));
+        assertTrue(polygon.intersects(-1, -171, 1, -160));
+        assertFalse(polygon.intersects(-1, 160, 1, 165));
+        assertFalse(polygon.intersects(-1, -165, 1, -160));
+        assertFalse(polygon.intersects(-1, -1, 1, 1));
+    }
+
+    @Test
+    public void triangleAcrossTheAntimeridianKeepsItsShape() {
+        // apex on the line itself, base from 170 to -170
+        GeoRegion triangle = GeoRegion.polygon(new double[] {-5, -5, 5}, new double[] {170, -170, 180});
+
+        assertTrue(triangle.contains(0, 179.9));
+        assertTrue(triangle.contains(0, -179.9));
+        assertTrue(triangle.contains(-4, -172));
+        assertFalse(triangle.contains(4, -175));
+        assertFalse(triangle.contains(4, 175));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLatitudes() {
+        GeoRegion.boundingBox(-10, 0, 91, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPolygonCoordinates() {
+        GeoRegion.polygon(new double[] {0, 0, 1}, new double[] {0, 181, 1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPolygonsWiderThanAHemisphere() {
+        // too wide either way round the globe
+        GeoRegion.polygon(new double[] {0, 10, 0}, new double[] {-100, 0, 100});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPolygonsWithoutArea() {
+        GeoRegion.polygon(new double[] {0, 1, 2}, new double[] {0, 1, 2});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPolygonsWithTooFewPoints() {
+        GeoRegion.polygon(new double[] {0, 1}, new double[] {0, 1});
+    }
+}
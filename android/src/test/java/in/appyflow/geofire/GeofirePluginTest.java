@@ -0,0 +1,429 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.firebase.database.DatabaseError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class GeofirePluginTest {
+
+    private PluginHarness harness;
+    private FakeGeoFire geoFire;
+
+    @Before
+    public void setUp() {
+        harness = new PluginHarness();
+        geoFire = harness.geoFire;
+    }
+
+    @After
+    public void tearDown() {
+        harness.shutdown();
+    }
+
+    @Test
+    public void queriesNeedGeoFireStarted() {
+        assertEquals("NO_GEOFIRE",
+                harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0).errorCode);
+        assertEquals("INVALID_PATH", harness.call("GeoFire.start").errorCode);
+    }
+
+    @Test
+    public void queryAtLocationReportsKeyEventsAndReady() {
+        geoFire.setLocation("inside", 52.521, 13.405);
+        geoFire.setLocation("outside", 52.6, 13.405);
+        harness.start();
+
+        assertEquals(true, harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0).value());
+        geoFire.setLocation("inside", 52.522, 13.406);
+        geoFire.setLocation("outside", 52.5205, 13.405);
+        geoFire.removeLocation("inside");
+
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady", "onKeyMoved", "onKeyEntered", "onKeyExited"),
+                harness.sink.callBacks());
+        List<HashMap<String, Object>> events = harness.sink.events();
+        assertEquals("inside", events.get(0).get("key"));
+        assertEquals(52.521, events.get(0).get("latitude"));
+        assertEquals(Arrays.asList("inside"), events.get(1).get("result"));
+        assertEquals(52.522, events.get(2).get("latitude"));
+        assertEquals("outside", events.get(3).get("key"));
+    }
+
+    @Test
+    public void movingTheQueryReplacesItsListener() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        geoFire.setLocation("b", 48.857, 2.352);
+        harness.start();
+        harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.sink.clear();
+
+        harness.call("queryAtLocation", "lat", 48.857, "lng", 2.352, "radius", 1.0);
+        geoFire.setLocation("a", 52.522, 13.405);
+
+        // the old listener is gone, the new one replays the keys of the new area
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), harness.sink.callBacks());
+        assertEquals("b", harness.sink.events().get(0).get("key"));
+        assertEquals(1, geoFire.queries().size());
+        assertEquals(1, geoFire.queries().get(0).listenerCount());
+    }
+
+    @Test
+    public void queryAtLocationWithDataSendsSnapshots() {
+        geoFire.setLocation("a", 52.521, 13.405, value("name", "Alpha"));
+        harness.start();
+
+        assertEquals(true,
+                harness.call("queryAtLocationWithData", "lat", 52.52, "lng", 13.405, "radius", 1.0).value());
+        harness.awaitEvent("onGeoQueryReady");
+        geoFire.setValue("a", value("name", "Beta"));
+        harness.awaitEvent("onDataKeyChanged");
+        geoFire.removeLocation("a");
+        harness.awaitEvent("onDataKeyExited");
+
+        assertEquals(Arrays.asList("onDataKeyEntered", "onGeoQueryReady", "onDataKeyChanged", "onDataKeyExited"),
+                harness.sink.callBacks());
+        List<HashMap<String, Object>> events = harness.sink.events();
+        assertEquals("a", events.get(0).get("key"));
+        assertEquals(value("name", "Alpha"), events.get(0).get("data"));
+        assertEquals(Arrays.asList("a"), events.get(1).get("result"));
+        assertEquals(value("name", "Beta"), events.get(2).get("data"));
+    }
+
+    @Test
+    public void namedQueriesAreTaggedAndDisposed() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        harness.start();
+        harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.sink.clear();
+
+        assertEquals(true, harness.call("createQuery", "queryId", "shops", "lat", 52.52, "lng", 13.405,
+                "radius", 1.0).value());
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), harness.sink.callBacks());
+        for (HashMap<String, Object> event : harness.sink.events()) {
+            assertEquals("shops", event.get("queryId"));
+        }
+
+        harness.sink.clear();
+        assertEquals(true, harness.call("disposeQuery", "queryId", "shops").value());
+        geoFire.setLocation("a", 52.522, 13.405);
+        // only the unnamed query is left
+        assertEquals(Arrays.asList("onKeyMoved"), harness.sink.callBacks());
+        assertEquals(null, harness.sink.events().get(0).get("queryId"));
+    }
+
+    @Test
+    public void updateQueryMovesANamedQuery() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        geoFire.setLocation("b", 52.541, 13.405);
+        harness.start();
+        harness.call("createQuery", "queryId", "q", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.sink.clear();
+
+        assertEquals(true, harness.call("updateQuery", "queryId", "q", "lat", 52.54, "lng", 13.405,
+                "radius", 1.0).value());
+
+        HashMap<String, Object> keys = new HashMap<>();
+        for (HashMap<String, Object> event : harness.sink.events()) {
+            assertEquals("q", event.get("queryId"));
+            if (event.get("key") != null) {
+                keys.put((String) event.get("key"), event.get("callBack"));
+            }
+        }
+        assertEquals(value("a", "onKeyExited", "b", "onKeyEntered"), keys);
+        assertEquals("UNKNOWN_QUERY", harness.call("updateQuery", "queryId", "none", "lat", 0.0, "lng", 0.0,
+                "radius", 1.0).errorCode);
+    }
+
+    @Test
+    public void queryIdsMustNotClash() {
+        harness.start();
+        assertEquals(true, harness.call("createQuery", "queryId", "q", "lat", 52.52, "lng", 13.405,
+                "radius", 1.0).value());
+        assertEquals(true, harness.call("subscribeNearby", "subscriberId", "s", "lat", 52.52, "lng", 13.405,
+                "radius", 1.0).value());
+
+        assertEquals("INVALID_ARGUMENTS", harness.call("subscribeNearby", "subscriberId", "q", "lat", 52.52,
+                "lng", 13.405, "radius", 1.0).errorCode);
+        assertEquals("INVALID_ARGUMENTS", harness.call("createQuery", "queryId", "s", "lat", 52.52,
+                "lng", 13.405, "radius", 1.0).errorCode);
+        assertEquals("INVALID_ARGUMENTS", harness.call("queryNearest", "queryId", "s", "lat", 52.52,
+                "lng", 13.405, "k", 1, "maxRadius", 1.0).errorCode);
+        assertEquals("INVALID_ARGUMENTS", harness.call("queryBoundingBox", "queryId", "s", "minLat", 52.5,
+                "minLng", 13.4, "maxLat", 52.6, "maxLng", 13.5).errorCode);
+        assertEquals("INVALID_ARGUMENTS", harness.call("queryPolygon", "queryId", "fences", "points",
+                Arrays.asList(Arrays.asList(52.5, 13.4), Arrays.asList(52.6, 13.4), Arrays.asList(52.6, 13.5)))
+                .errorCode);
+        assertEquals("INVALID_ARGUMENTS", harness.call("subscribeNearby", "subscriberId", "fences", "lat", 52.52,
+                "lng", 13.405, "radius", 1.0).errorCode);
+
+        // the same namespace still replaces or moves
+        assertEquals(true, harness.call("createQuery", "queryId", "q", "lat", 52.53, "lng", 13.405,
+                "radius", 1.0).value());
+        assertEquals(true, harness.call("subscribeNearby", "subscriberId", "s", "lat", 52.53, "lng", 13.405,
+                "radius", 1.0).value());
+        // and a released id is free again
+        assertEquals(true, harness.call("unsubscribeNearby", "subscriberId", "s").value());
+        assertEquals(true, harness.call("createQuery", "queryId", "s", "lat", 52.52, "lng", 13.405,
+                "radius", 1.0).value());
+    }
+
+    @Test
+    public void checkPositionsRejectsBadEntriesBeforeReporting() {
+        HashMap<String, Object> fence = value("id", "home", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        assertEquals(1, harness.call("setFences", "fences", Arrays.asList(fence)).value());
+
+        List<Object> valid = Arrays.<Object>asList(52.52, 13.405);
+        for (Object bad : Arrays.asList(null, Arrays.asList(52.52), Arrays.asList("52.52", 13.405),
+                Arrays.asList(52.52, null), Arrays.asList(91.0, 0.0), Arrays.asList(0.0, Double.NaN), "52.52,13.405")) {
+            RecordingResult result = harness.call("checkPositions", "positions", Arrays.asList(valid, bad));
+            assertEquals(String.valueOf(bad), "INVALID_ARGUMENTS", result.errorCode);
+        }
+        assertEquals("INVALID_ARGUMENTS", harness.call("checkPosition", "lng", 13.405).errorCode);
+        assertTrue(harness.sink.events().isEmpty());
+
+        assertEquals(Arrays.asList("home"), harness.call("checkPositions", "positions",
+                Arrays.asList(Arrays.asList(0, 0), Arrays.asList(52.52, 13.405, 1000L))).value());
+        assertEquals(Arrays.asList("onFenceEntered"), harness.sink.callBacks());
+        assertEquals(1000L, harness.sink.events().get(0).get("timestamp"));
+    }
+
+    @Test
+    public void stopListenerEndsTheEvents() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        harness.start();
+        harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.sink.clear();
+
+        assertEquals(true, harness.call("stopListener").value());
+        geoFire.setLocation("a", 52.522, 13.405);
+        geoFire.setLocation("b", 52.521, 13.405);
+
+        assertTrue(harness.sink.events().isEmpty());
+    }
+
+    @Test
+    public void setLocationsWritesTheGeoFireLayoutInOneUpdate() {
+        harness.start();
+
+        Object outcome = harness.call("setLocations", "locations", Arrays.asList(
+                value("id", "a", "lat", 52.521, "lng", 13.405),
+                value("id", "b", "lat", "48.857", "lng", 2.352))).value();
+
+        assertEquals(value("a", true, "b", true), outcome);
+        assertEquals(1, geoFire.updates.size());
+        Map<String, Object> update = geoFire.updates.get(0);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), update.keySet());
+        assertEquals(value("g", "u33dc11jp0", "l", Arrays.asList(52.521, 13.405), ".priority", "u33dc11jp0"),
+                update.get("a"));
+        // numbers sent as strings are parsed like in setLocation
+        assertEquals(value("g", "u09tvw0sts", "l", Arrays.asList(48.857, 2.352), ".priority", "u09tvw0sts"),
+                update.get("b"));
+        assertEquals(48.857, geoFire.location("b").latitude, 0);
+    }
+
+    @Test
+    public void setLocationsRejectsBadEntriesOneByOne() {
+        harness.start();
+
+        Object outcome = harness.call("setLocations", "locations", Arrays.asList(
+                value("id", "a", "lat", 52.521, "lng", 13.405),
+                value("id", "bad/key", "lat", 52.521, "lng", 13.405),
+                value("id", "north", "lat", 90.5, "lng", 13.405),
+                value("id", "noLng", "lat", 52.521),
+                value("id", "text", "lat", "near", "lng", 13.405))).value();
+
+        assertEquals(value("a", true, "bad/key", false, "north", false, "noLng", false, "text", false), outcome);
+        assertEquals(1, geoFire.updates.size());
+        assertEquals(Collections.singleton("a"), geoFire.updates.get(0).keySet());
+
+        // nothing valid, nothing written
+        assertEquals(value("north", false), harness.call("setLocations", "locations",
+                Arrays.asList(value("id", "north", "lat", 90.5, "lng", 0.0))).value());
+        assertEquals(1, geoFire.updates.size());
+        // an entry without an id fails the whole call before anything is written
+        assertEquals("INVALID_ARGUMENTS", harness.call("setLocations", "locations", Arrays.asList(
+                value("id", "a", "lat", 52.521, "lng", 13.405), value("lat", 52.521, "lng", 13.405))).errorCode);
+        assertEquals(1, geoFire.updates.size());
+    }
+
+    @Test
+    public void setAndRemoveLocationsDriveTheQueries() {
+        geoFire.setLocation("c", 52.5215, 13.405);
+        harness.start();
+        harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.sink.clear();
+
+        harness.call("setLocations", "locations", Arrays.asList(
+                value("id", "a", "lat", 52.521, "lng", 13.405),
+                value("id", "c", "lat", 52.522, "lng", 13.405)));
+        Object outcome = harness.call("removeLocations", "ids", Arrays.asList("a", "c", "bad.key")).value();
+
+        assertEquals(value("a", true, "c", true, "bad.key", false), outcome);
+        Map<String, Object> removal = geoFire.updates.get(1);
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), removal.keySet());
+        assertEquals(null, removal.get("a"));
+        assertEquals(null, geoFire.location("c"));
+        HashMap<String, String> callBacks = new HashMap<>();
+        for (HashMap<String, Object> event : harness.sink.events()) {
+            String key = (String) event.get("key");
+            callBacks.put(key, callBacks.containsKey(key) ? callBacks.get(key) + "," + event.get("callBack")
+                    : (String) event.get("callBack"));
+        }
+        assertEquals("onKeyEntered,onKeyExited", callBacks.get("a"));
+        assertEquals("onKeyMoved,onKeyExited", callBacks.get("c"));
+    }
+
+    @Test
+    public void aFailedBatchFailsEveryKeyItCarried() {
+        harness.start();
+        geoFire.writeError = mock(DatabaseError.class);
+
+        Object outcome = harness.call("setLocations", "locations", Arrays.asList(
+                value("id", "a", "lat", 52.521, "lng", 13.405),
+                value("id", "bad/key", "lat", 52.521, "lng", 13.405))).value();
+
+        assertEquals(value("a", false, "bad/key", false), outcome);
+        assertEquals(null, geoFire.location("a"));
+        assertEquals(value("a", false), harness.call("removeLocations", "ids", Arrays.asList("a")).value());
+    }
+
+    @Test
+    public void removeLocationIsNotOvertakenByAHeldSetLocation() {
+        harness.start();
+        harness.call("setLocationPublisher", "enabled", true, "intervalMs", 1000, "precision", 6);
+        assertEquals(true, harness.call("setLocation", "id", "a", "lat", 52.5205, "lng", 13.405).value());
+
+        RecordingResult held = harness.call("setLocation", "id", "a", "lat", 52.5215, "lng", 13.405);
+        assertEquals(0, held.answers);
+        assertEquals(true, harness.call("removeLocation", "id", "a").value());
+        harness.scheduler.advance(1000);
+
+        assertEquals(false, held.value());
+        assertEquals(null, geoFire.location("a"));
+        assertEquals(1, geoFire.updates.size());
+    }
+
+    @Test
+    public void disposingAQueryCancelsItsHeldMove() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        harness.start();
+        harness.call("createQuery", "queryId", "q", "lat", 52.52, "lng", 13.405, "radius", 1.0,
+                "minMoveInterval", 1000);
+        harness.sink.clear();
+
+        geoFire.setLocation("a", 52.522, 13.405);
+        assertEquals(1, harness.scheduler.pendingCount());
+        assertEquals(true, harness.call("disposeQuery", "queryId", "q").value());
+        harness.scheduler.advance(5000);
+
+        assertTrue(harness.sink.events().isEmpty());
+        assertEquals(0, harness.scheduler.pendingCount());
+    }
+
+    @Test
+    public void aNewStreamReplaysTheKeys() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        harness.start();
+        harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.call("createQuery", "queryId", "q", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+
+        // a hot restart listens again without cancelling
+        RecordingEventSink restarted = new RecordingEventSink();
+        harness.plugin.onListen(null, restarted);
+
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady", "onKeyEntered", "onGeoQueryReady"),
+                restarted.callBacks());
+        assertEquals(null, restarted.events().get(0).get("queryId"));
+        assertEquals("q", restarted.events().get(2).get("queryId"));
+        Map<String, Object> metrics = castMap(harness.call("getMetrics").value());
+        assertEquals(2L, metrics.get("listenerReattaches"));
+    }
+
+    @Test
+    public void setLocationWritesThroughGeoFire() {
+        harness.start();
+        harness.call("queryAtLocation", "lat", 52.52, "lng", 13.405, "radius", 1.0);
+        harness.sink.clear();
+
+        assertEquals(true, harness.call("setLocation", "id", "a", "lat", 52.521, "lng", 13.405).value());
+        assertEquals(true, harness.call("removeLocation", "id", "a").value());
+
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyExited"), harness.sink.callBacks());
+    }
+
+    @Test
+    public void metricsArePushedOnTheUnnamedStream() {
+        assertEquals(true, harness.call("setMetricsPush", "intervalMs", 1000).value());
+        harness.scheduler.advance(999);
+        assertTrue(harness.sink.events().isEmpty());
+
+        harness.scheduler.advance(1);
+        harness.scheduler.advance(1000);
+        assertEquals(Arrays.asList("onMetrics", "onMetrics"), harness.sink.callBacks());
+        HashMap<String, Object> event = harness.sink.events().get(1);
+        assertEquals(null, event.get("queryId"));
+        // the first push was counted like any other event
+        assertEquals(1L, castMap(castMap(event.get("metrics")).get("events")).get("other"));
+
+        assertEquals(true, harness.call("setMetricsPush", "intervalMs", 0).value());
+        harness.scheduler.advance(5000);
+        assertEquals(2, harness.sink.events().size());
+        assertEquals(0, harness.scheduler.pendingCount());
+    }
+
+    @Test
+    public void getLocationsTimesOutMissingAnswers() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        harness.start();
+        geoFire.holdReads = true;
+
+        RecordingResult result = harness.call("getLocations", "ids", Arrays.asList("a", "b/c"), "timeout", 1000);
+        harness.scheduler.advance(999);
+        assertEquals(0, result.answers);
+        harness.scheduler.advance(1);
+
+        Map<String, Object> locations = castMap(result.value());
+        assertEquals("Timed out getting the GeoFire location", castMap(locations.get("a")).get("error"));
+        assertTrue(castMap(locations.get("b/c")).get("error").toString().startsWith("Invalid GeoFire key"));
+        // a late answer does not complete the call again
+        geoFire.releaseReads();
+        assertEquals(1, result.answers);
+    }
+
+    @Test
+    public void getLocationsAnswersOnceAllArrived() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        harness.start();
+
+        Map<String, Object> locations = castMap(harness.call("getLocations", "ids", Arrays.asList("a", "b")).value());
+
+        assertEquals(52.521, castMap(locations.get("a")).get("lat"));
+        assertEquals("There is no location for key b in GeoFire", castMap(locations.get("b")).get("error"));
+        assertEquals(0, harness.scheduler.pendingCount());
+    }
+
+    private static HashMap<String, Object> value(Object... keysAndValues) {
+        HashMap<String, Object> value = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            value.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
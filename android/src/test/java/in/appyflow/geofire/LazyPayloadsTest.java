@@ -0,0 +1,189 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class LazyPayloadsTest {
+
+    private EventPath path;
+    private FakeGeoFire geoFire;
+    private PluginGeoQueryDataEventListener listener;
+    private LazyPayloads payloads;
+
+    @Before
+    public void setUp() {
+        path = new EventPath();
+        geoFire = new FakeGeoFire();
+        geoFire.setLocation("a", 52.521, 13.405, value("name", "Alpha"));
+        geoFire.setLocation("b", 52.522, 13.405, value("name", "Beta"));
+        geoFire.setLocation("c", 52.523, 13.405, value("name", "Gamma"));
+        listener = path.dataListener(null, EventPath.options("lazy", true));
+        // payloads stored in the GeoFire nodes, two of them cached
+        listener.setLazyPayloads(geoFire.getReference(""), true, 2);
+        payloads = listener.getLazyPayloads();
+        geoFire.query(52.52, 13.405, 1).addListener(listener);
+        path.sink.clear();
+    }
+
+    @After
+    public void tearDown() {
+        path.shutdown();
+    }
+
+    @Test
+    public void eventsCarryNoPayload() {
+        geoFire.setLocation("d", 52.524, 13.405, value("name", "Delta"));
+
+        assertEquals(Arrays.asList("onDataKeyEntered"), path.sink.callBacks());
+        assertFalse(path.sink.events().get(0).containsKey("data"));
+        assertTrue(geoFire.reads.isEmpty());
+    }
+
+    @Test
+    public void fetchReadsOnlyWhatIsNotCached() {
+        HashMap<String, Object> fetched = fetch("a", "b");
+        assertEquals(value("name", "Alpha"), fetched.get("a"));
+        assertEquals(value("name", "Beta"), fetched.get("b"));
+        assertEquals(Arrays.asList("a", "b"), geoFire.reads);
+
+        assertEquals(value("name", "Alpha"), fetch("a").get("a"));
+        assertEquals(2, geoFire.reads.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedPayloadIsEvicted() {
+        fetch("a", "b");
+        // a is used again, so b is now the eldest
+        fetch("a");
+        fetch("c");
+        assertEquals(Arrays.asList("a", "b", "c"), geoFire.reads);
+
+        fetch("a");
+        assertEquals(3, geoFire.reads.size());
+        fetch("b");
+        assertEquals(Arrays.asList("a", "b", "c", "b"), geoFire.reads);
+    }
+
+    @Test
+    public void fetchesShareReadsInFlight() {
+        geoFire.holdReads = true;
+        final ArrayList<HashMap<String, Object>> answers = new ArrayList<>();
+        LazyPayloads.FetchCallback callback = new LazyPayloads.FetchCallback() {
+            @Override
+            public void onFetched(HashMap<String, Object> fetched) {
+                answers.add(fetched);
+            }
+        };
+        payloads.fetch(Arrays.asList("a"), 1000, callback);
+        payloads.fetch(Arrays.asList("a", "b"), 1000, callback);
+        assertEquals(Arrays.asList("a", "b"), geoFire.reads);
+
+        geoFire.releaseReads();
+
+        assertEquals(2, answers.size());
+        assertEquals(value("name", "Alpha"), answers.get(1).get("a"));
+        assertEquals(0, path.scheduler.pendingCount());
+    }
+
+    @Test
+    public void fetchTimesOutWithWhatArrived() {
+        geoFire.holdReads = true;
+        final ArrayList<HashMap<String, Object>> answers = new ArrayList<>();
+        payloads.fetch(Arrays.asList("a", "missing"), 500, new LazyPayloads.FetchCallback() {
+            @Override
+            public void onFetched(HashMap<String, Object> fetched) {
+                answers.add(fetched);
+            }
+        });
+
+        path.scheduler.advance(500);
+        assertEquals(1, answers.size());
+        assertTrue(answers.get(0).containsKey("a"));
+        assertNull(answers.get(0).get("a"));
+
+        // a late read still fills the cache, but answers nobody twice
+        geoFire.releaseReads();
+        assertEquals(1, answers.size());
+        assertEquals(value("name", "Alpha"), fetch("a").get("a"));
+        assertEquals(2, geoFire.reads.size());
+    }
+
+    @Test
+    public void visibleKeysAreSubscribedAndUnsubscribed() {
+        payloads.setVisible(Arrays.asList("a", "b"));
+        assertEquals(1, geoFire.valueListenerCount("a"));
+        assertEquals(1, geoFire.valueListenerCount("b"));
+        assertTrue(payloads.isVisible("a"));
+        // the current value is cached, not reported as a change
+        assertTrue(path.sink.events().isEmpty());
+
+        payloads.setVisible(Arrays.asList("b", "c"));
+        assertEquals(0, geoFire.valueListenerCount("a"));
+        assertEquals(1, geoFire.valueListenerCount("b"));
+        assertEquals(1, geoFire.valueListenerCount("c"));
+        assertFalse(payloads.isVisible("a"));
+
+        listener.release();
+        assertEquals(0, geoFire.valueListenerCount("b"));
+        assertEquals(0, geoFire.valueListenerCount("c"));
+    }
+
+    @Test
+    public void visibleKeysReportTheirChangedPayloadOnce() {
+        payloads.setVisible(Arrays.asList("a"));
+
+        geoFire.setValue("a", value("name", "Alpha", "open", true));
+
+        // the subscription reports it, the geo query does not report it again
+        assertEquals(Arrays.asList("onDataKeyChanged"), path.sink.callBacks());
+        HashMap<String, Object> event = path.sink.events().get(0);
+        assertEquals("a", event.get("key"));
+        assertEquals(value("name", "Alpha", "open", true), event.get("data"));
+        assertFalse(event.containsKey("latitude"));
+        // and the cache stays current without another read
+        assertEquals(value("name", "Alpha", "open", true), fetch("a").get("a"));
+        assertTrue(geoFire.reads.isEmpty());
+    }
+
+    @Test
+    public void changesInvalidateThePayloadsOfHiddenKeys() {
+        fetch("a");
+
+        geoFire.setValue("a", value("name", "Alpha", "open", true));
+
+        assertEquals(Arrays.asList("onDataKeyChanged"), path.sink.callBacks());
+        assertFalse(path.sink.events().get(0).containsKey("data"));
+        assertEquals(value("name", "Alpha", "open", true), fetch("a").get("a"));
+        assertEquals(Arrays.asList("a", "a"), geoFire.reads);
+    }
+
+    private HashMap<String, Object> fetch(String... keys) {
+        final ArrayList<HashMap<String, Object>> answers = new ArrayList<>();
+        payloads.fetch(Arrays.asList(keys), 1000, new LazyPayloads.FetchCallback() {
+            @Override
+            public void onFetched(HashMap<String, Object> fetched) {
+                answers.add(fetched);
+            }
+        });
+        assertEquals(1, answers.size());
+        return answers.get(0);
+    }
+
+    private static HashMap<String, Object> value(Object... keysAndValues) {
+        HashMap<String, Object> value = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            value.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return value;
+    }
+}
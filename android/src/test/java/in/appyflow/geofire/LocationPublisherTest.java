@@ -0,0 +1,180 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+public class LocationPublisherTest {
+
+    // at precision 6 every latitude up to 0.002 above LAT shares a cell, 0.01 above does not
+    private static final double LAT = 52.5205;
+    private static final double LNG = 13.405;
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final ArrayList<List<Map<String, Object>>> writes = new ArrayList<>();
+    private final ArrayList<Result> writeResults = new ArrayList<>();
+    private LocationPublisher publisher;
+
+    @Before
+    public void setUp() {
+        publisher = new LocationPublisher(new LocationPublisher.Writer() {
+            @Override
+            public void write(List<Map<String, Object>> entries, Result result) {
+                writes.add(entries);
+                writeResults.add(result);
+            }
+        }, scheduler);
+        publisher.configure(1000, 5, 6);
+    }
+
+    @Test
+    public void aKeyNotWrittenYetIsWrittenRightAway() {
+        RecordingResult result = offer("a", 0);
+
+        assertEquals(1, writes.size());
+        assertEquals(location("a", 0), writes.get(0).get(0));
+        assertEquals(0, result.answers);
+        complete(0, "a", true);
+        assertEquals(true, result.value());
+    }
+
+    @Test
+    public void theLastHeldWriteWins() {
+        written("a", 0);
+
+        RecordingResult first = offer("a", 0.0005);
+        RecordingResult second = offer("a", 0.001);
+        RecordingResult third = offer("a", 0.0015);
+        assertEquals(1, writes.size());
+        assertEquals(1, scheduler.pendingCount());
+
+        scheduler.advance(1000);
+        assertEquals(2, writes.size());
+        assertEquals(Arrays.asList(location("a", 0.0015)), writes.get(1));
+
+        // the superseded calls complete with the write that carried the key
+        assertEquals(0, first.answers + second.answers + third.answers);
+        complete(1, "a", true);
+        assertEquals(true, first.value());
+        assertEquals(true, second.value());
+        assertEquals(true, third.value());
+    }
+
+    @Test
+    public void supersededWritesShareTheFailure() {
+        written("a", 0);
+        RecordingResult first = offer("a", 0.0005);
+        RecordingResult second = offer("a", 0.001);
+        scheduler.advance(1000);
+
+        complete(1, "a", false);
+
+        assertEquals(false, first.value());
+        assertEquals(false, second.value());
+        // nothing counts as stored, so even a close fix is written again
+        offer("a", 0.00102);
+        scheduler.advance(1000);
+        assertEquals(3, writes.size());
+    }
+
+    @Test
+    public void aFixCloseToTheStoredLocationIsSkipped() {
+        written("a", 0);
+
+        RecordingResult result = offer("a", 0.00002);
+
+        assertEquals(true, result.value());
+        assertEquals(0, scheduler.pendingCount());
+        assertEquals(1, writes.size());
+    }
+
+    @Test
+    public void aCloseFixStillReplacesAHeldWrite() {
+        written("a", 0);
+        offer("a", 0.001);
+
+        offer("a", 0.00002);
+        scheduler.advance(1000);
+
+        assertEquals(Arrays.asList(location("a", 0.00002)), writes.get(1));
+    }
+
+    @Test
+    public void aNewCellFlushesEveryHeldWrite() {
+        written("a", 0);
+        written("b", 0);
+        offer("b", 0.001);
+
+        offer("a", 0.01);
+
+        assertEquals(3, writes.size());
+        assertEquals(Arrays.asList(location("a", 0.01), location("b", 0.001)), writes.get(2));
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void forgetCompletesTheHeldWriteWithoutWritingIt() {
+        written("a", 0);
+        RecordingResult held = offer("a", 0.001);
+
+        publisher.forget("a");
+        scheduler.advance(1000);
+
+        assertEquals(false, held.value());
+        assertEquals(1, writes.size());
+        // the key starts over, so its next fix is written right away
+        offer("a", 0.001);
+        assertEquals(2, writes.size());
+    }
+
+    @Test
+    public void writerErrorsFailEveryKeyOfTheWrite() {
+        written("a", 0);
+        RecordingResult a = offer("a", 0.001);
+        RecordingResult b = offer("b", 0);
+
+        writeResults.get(1).error("WRITE_FAILED", "denied", null);
+
+        assertEquals(Arrays.asList(location("a", 0.001), location("b", 0)), writes.get(1));
+        assertEquals(false, a.value());
+        assertEquals(false, b.value());
+        // a failed key is written again right away
+        offer("b", 0.00002);
+        assertEquals(3, writes.size());
+    }
+
+    private RecordingResult offer(String key, double latitudeOffset) {
+        RecordingResult result = new RecordingResult();
+        publisher.offer(key, LAT + latitudeOffset, LNG, result);
+        return result;
+    }
+
+    // Writes the key and completes the write
+    private void written(String key, double latitudeOffset) {
+        offer(key, latitudeOffset);
+        complete(writes.size() - 1, key, true);
+    }
+
+    private void complete(int write, String key, boolean written) {
+        HashMap<String, Object> outcomes = new HashMap<>();
+        outcomes.put(key, written);
+        writeResults.get(write).success(outcomes);
+    }
+
+    private static HashMap<String, Object> location(String key, double latitudeOffset) {
+        HashMap<String, Object> location = new HashMap<>();
+        location.put("id", key);
+        location.put("lat", LAT + latitudeOffset);
+        location.put("lng", LNG);
+        return location;
+    }
+}
@@ -0,0 +1,174 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.firebase.geofire.GeoLocation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class MoveThrottleTest {
+
+    // 0.0001 degrees of latitude are about 11 meters
+    private static final double LAT = 52.52;
+    private static final double LNG = 13.405;
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final ArrayList<String> moves = new ArrayList<>();
+    private final ArrayList<GeoLocation> locations = new ArrayList<>();
+
+    @Test
+    public void movesUnderTheMinimumDistanceAreHeld() {
+        MoveThrottle<String> throttle = throttle(50, 0);
+        throttle.onForwarded("a", at(0));
+
+        throttle.onMove("a", at(0.0002), "p1");
+        throttle.onMove("a", at(0.0004), "p2");
+        assertTrue(moves.isEmpty());
+        // a held move waits for the key to get farther, not for a timer
+        assertEquals(0, scheduler.pendingCount());
+        scheduler.advance(10000);
+        assertTrue(moves.isEmpty());
+
+        throttle.onMove("a", at(0.0005), "p3");
+        assertEquals(1, moves.size());
+        assertEquals(LAT + 0.0005, locations.get(0).latitude, 1e-9);
+        assertEquals("a:p3", moves.get(0));
+
+        // the distance counts from the forwarded position
+        throttle.onMove("a", at(0.0008), "p4");
+        assertEquals(1, moves.size());
+    }
+
+    @Test
+    public void heldMoveFlushesAfterTheMinimumInterval() {
+        MoveThrottle<String> throttle = throttle(0, 1000);
+        throttle.onForwarded("a", at(0));
+        scheduler.advance(200);
+
+        throttle.onMove("a", at(0.001), "p1");
+        throttle.onMove("a", at(0.002), "p2");
+        assertTrue(moves.isEmpty());
+        assertEquals(1, scheduler.pendingCount());
+
+        scheduler.advance(799);
+        assertTrue(moves.isEmpty());
+        scheduler.advance(1);
+        assertEquals(1, moves.size());
+        assertEquals("a:p2", moves.get(0));
+        assertEquals(LAT + 0.002, locations.get(0).latitude, 1e-9);
+
+        // the interval restarts from the flush
+        throttle.onMove("a", at(0.003), "p3");
+        scheduler.advance(999);
+        assertEquals(1, moves.size());
+        scheduler.advance(1);
+        assertEquals("a:p3", moves.get(1));
+    }
+
+    @Test
+    public void timerDoesNotFlushAMoveBackWithinTheDistance() {
+        MoveThrottle<String> throttle = throttle(50, 1000);
+        throttle.onForwarded("a", at(0));
+
+        throttle.onMove("a", at(0.001), "p1");
+        throttle.onMove("a", at(0.0001), "p2");
+        scheduler.advance(1000);
+
+        assertTrue(moves.isEmpty());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void movesOfOtherKeysAreThrottledApart() {
+        MoveThrottle<String> throttle = throttle(0, 1000);
+        throttle.onForwarded("a", at(0));
+        scheduler.advance(1000);
+
+        throttle.onMove("a", at(0.001), "p1");
+        // a key seen for the first time has nothing to wait for
+        throttle.onMove("b", at(0.001), "p2");
+        throttle.onMove("b", at(0.002), "p3");
+
+        assertEquals(2, moves.size());
+        assertEquals("a:p1", moves.get(0));
+        assertEquals("b:p2", moves.get(1));
+        assertEquals(1, scheduler.pendingCount());
+    }
+
+    @Test
+    public void exitFlushesThePendingMoveAndCancelsItsTimer() {
+        MoveThrottle<String> throttle = throttle(0, 1000);
+        throttle.onForwarded("a", at(0));
+
+        throttle.onMove("a", at(0.001), "p1");
+        throttle.onExit("a");
+
+        assertEquals(1, moves.size());
+        assertEquals("a:p1", moves.get(0));
+        assertEquals(0, scheduler.pendingCount());
+        scheduler.advance(5000);
+        assertEquals(1, moves.size());
+    }
+
+    @Test
+    public void exitFlushesAMoveHeldForItsDistance() {
+        MoveThrottle<String> throttle = throttle(50, 0);
+        throttle.onForwarded("a", at(0));
+
+        throttle.onMove("a", at(0.0002), "p1");
+        throttle.onExit("a");
+
+        assertEquals(1, moves.size());
+        assertEquals(LAT + 0.0002, locations.get(0).latitude, 1e-9);
+    }
+
+    @Test
+    public void exitWithoutAPendingMoveSendsNothing() {
+        MoveThrottle<String> throttle = throttle(0, 1000);
+        throttle.onForwarded("a", at(0));
+        throttle.onMove("a", at(0.001), "p1");
+        // a change forwarded the current position, which supersedes the held move
+        throttle.onForwarded("a", at(0.002));
+
+        throttle.onExit("a");
+        throttle.onExit("unknown");
+        scheduler.advance(5000);
+
+        assertTrue(moves.isEmpty());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void clearCancelsThePendingMoves() {
+        MoveThrottle<String> throttle = throttle(0, 1000);
+        throttle.onForwarded("a", at(0));
+        throttle.onForwarded("b", at(0));
+        throttle.onMove("a", at(0.001), "p1");
+        throttle.onMove("b", at(0.001), "p2");
+        assertEquals(2, scheduler.pendingCount());
+
+        throttle.clear();
+        scheduler.advance(5000);
+        throttle.onExit("a");
+
+        assertTrue(moves.isEmpty());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    private MoveThrottle<String> throttle(double minDistanceMeters, long minIntervalMs) {
+        return new MoveThrottle<>(minDistanceMeters, minIntervalMs, new MoveThrottle.Emitter<String>() {
+            @Override
+            public void emitMove(String key, GeoLocation location, String payload) {
+                moves.add(key + ":" + payload);
+                locations.add(location);
+            }
+        }, scheduler);
+    }
+
+    private static GeoLocation at(double latitudeOffset) {
+        return new GeoLocation(LAT + latitudeOffset, LNG);
+    }
+}
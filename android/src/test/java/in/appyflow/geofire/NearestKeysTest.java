@@ -0,0 +1,157 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.firebase.geofire.util.GeoUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class NearestKeysTest {
+
+    private final Random random = new Random(15);
+    private final HashMap<String, double[]> locations = new HashMap<>();
+    private double centerLatitude = 52.52;
+    private double centerLongitude = 13.405;
+
+    @Test
+    public void matchesBruteForceUnderChurn() {
+        NearestKeys nearest = new NearestKeys(10, centerLatitude, centerLongitude);
+        for (int i = 0; i < 5000; i++) {
+            int operation = random.nextInt(20);
+            List<String> before = keys(nearest.nearest());
+            boolean changed;
+            if (operation == 0) {
+                centerLatitude = 52.52 + offset();
+                centerLongitude = 13.405 + offset();
+                nearest.setCenter(centerLatitude, centerLongitude);
+                changed = true;
+            } else if (operation < 6 && !locations.isEmpty()) {
+                String key = new ArrayList<>(locations.keySet()).get(random.nextInt(locations.size()));
+                locations.remove(key);
+                changed = nearest.remove(key);
+            } else {
+                String key = "k" + random.nextInt(200);
+                double[] location = {52.52 + offset(), 13.405 + offset()};
+                locations.put(key, location);
+                changed = nearest.put(key, location[0], location[1]);
+            }
+            List<String> after = keys(nearest.nearest());
+            assertEquals("step " + i, bruteForce(10), after);
+            assertEquals(locations.size(), nearest.size());
+            if (!new HashSet<>(before).equals(new HashSet<>(after))) {
+                assertTrue("step " + i + " changed the top keys without reporting it", changed);
+            }
+        }
+    }
+
+    @Test
+    public void topKeyMovingOutIsRefilledByTheClosestOutsider() {
+        NearestKeys nearest = new NearestKeys(2, 0, 0);
+        nearest.put("a", 0, 0.1);
+        nearest.put("b", 0, 0.2);
+        nearest.put("c", 0, 0.4);
+        nearest.put("d", 0, 0.3);
+
+        assertTrue(nearest.put("a", 0, 0.5));
+        assertEquals(Arrays.asList("b", "d"), keys(nearest.nearest()));
+        assertTrue(nearest.remove("b"));
+        assertEquals(Arrays.asList("d", "c"), keys(nearest.nearest()));
+    }
+
+    @Test
+    public void topKeyMovingOutWithoutOutsidersStays() {
+        NearestKeys nearest = new NearestKeys(2, 0, 0);
+        nearest.put("a", 0, 0.1);
+        nearest.put("b", 0, 0.2);
+
+        assertTrue(nearest.put("a", 0, 0.5));
+        assertEquals(Arrays.asList("b", "a"), keys(nearest.nearest()));
+    }
+
+    @Test
+    public void outsiderMovingCloserDisplacesTheFarthest() {
+        NearestKeys nearest = new NearestKeys(2, 0, 0);
+        nearest.put("a", 0, 0.1);
+        nearest.put("b", 0, 0.2);
+        nearest.put("c", 0, 0.4);
+
+        assertTrue(!nearest.put("c", 0, 0.3));
+        assertTrue(nearest.put("c", 0, 0.15));
+        assertEquals(Arrays.asList("a", "c"), keys(nearest.nearest()));
+        assertEquals(3, nearest.size());
+    }
+
+    @Test
+    public void setCenterRanksAgain() {
+        NearestKeys nearest = new NearestKeys(1, 0, 0);
+        nearest.put("a", 0, 0.1);
+        nearest.put("b", 0, 1);
+
+        nearest.setCenter(0, 0.9);
+        assertEquals(Arrays.asList("b"), keys(nearest.nearest()));
+        assertTrue(nearest.put("a", 0, 0.95));
+        assertEquals(Arrays.asList("a"), keys(nearest.nearest()));
+    }
+
+    @Test
+    public void reportsDistancesInKilometers() {
+        NearestKeys nearest = new NearestKeys(2, 0, 0);
+        nearest.put("a", 0, 1);
+        nearest.put("b", 0, 0.5);
+        nearest.put("c", 0, 2);
+
+        List<HashMap<String, Object>> list = nearest.nearest();
+        assertEquals(Arrays.asList("b", "a"), keys(list));
+        assertEquals(GeoUtils.distance(0, 0, 0, 0.5) / 1000, (Double) list.get(0).get("distance"), 1e-9);
+        assertEquals(0.5, (Double) list.get(0).get("longitude"), 0);
+    }
+
+    @Test
+    public void fewerKeysThanCapacity() {
+        NearestKeys nearest = new NearestKeys(5, 0, 0);
+        nearest.put("a", 1, 1);
+        nearest.put("b", 0.5, 0.5);
+        assertTrue(nearest.remove("a"));
+        assertTrue(!nearest.remove("a"));
+
+        assertEquals(Arrays.asList("b"), keys(nearest.nearest()));
+    }
+
+    private List<String> bruteForce(int k) {
+        ArrayList<String> keys = new ArrayList<>(locations.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Double.compare(distance(a), distance(b));
+            }
+        });
+        return keys.subList(0, Math.min(k, keys.size()));
+    }
+
+    private double distance(String key) {
+        double[] location = locations.get(key);
+        return GeoUtils.distance(centerLatitude, centerLongitude, location[0], location[1]);
+    }
+
+    private double offset() {
+        return (random.nextDouble() - 0.5) * 0.2;
+    }
+
+    private static List<String> keys(List<HashMap<String, Object>> list) {
+        ArrayList<String> keys = new ArrayList<>();
+        for (HashMap<String, Object> item : list) {
+            keys.add((String) item.get("key"));
+        }
+        return keys;
+    }
+}
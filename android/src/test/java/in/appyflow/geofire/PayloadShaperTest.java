@@ -0,0 +1,119 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+public class PayloadShaperTest {
+
+    @Test
+    public void projectsFields() {
+        PayloadShaper shaper = new PayloadShaper(Arrays.asList("name", "open", "missing"), false);
+
+        HashMap<String, Object> event = event(map("name", "Alpha", "open", true, "photo", "..."));
+        shaper.shape("a", event, false);
+
+        assertEquals(map("name", "Alpha", "open", true), event.get("data"));
+        assertFalse(event.containsKey("removed"));
+    }
+
+    @Test
+    public void sendsOnlyChangedAndRemovedFields() {
+        PayloadShaper shaper = new PayloadShaper(null, true);
+
+        HashMap<String, Object> first = event(map("name", "Alpha", "open", true, "rating", 4));
+        shaper.shape("a", first, false);
+        assertEquals(map("name", "Alpha", "open", true, "rating", 4), first.get("data"));
+        assertFalse(first.containsKey("removed"));
+
+        HashMap<String, Object> second = event(map("name", "Alpha", "open", false, "seats", 12));
+        shaper.shape("a", second, false);
+        assertEquals(map("open", false, "seats", 12), second.get("data"));
+        assertEquals(Arrays.asList("rating"), second.get("removed"));
+
+        HashMap<String, Object> unchanged = event(map("name", "Alpha", "open", false, "seats", 12));
+        shaper.shape("a", unchanged, false);
+        assertEquals(map(), unchanged.get("data"));
+        assertEquals(Collections.emptyList(), unchanged.get("removed"));
+    }
+
+    @Test
+    public void comparesNullValues() {
+        PayloadShaper shaper = new PayloadShaper(null, true);
+        shaper.shape("a", event(map("note", null)), false);
+
+        HashMap<String, Object> same = event(map("note", null));
+        shaper.shape("a", same, false);
+        assertEquals(map(), same.get("data"));
+
+        HashMap<String, Object> set = event(map("note", "hi"));
+        shaper.shape("a", set, false);
+        assertEquals(map("note", "hi"), set.get("data"));
+    }
+
+    @Test
+    public void deltaIsTrackedPerKeyAndAfterProjection() {
+        PayloadShaper shaper = new PayloadShaper(Arrays.asList("name"), true);
+        shaper.shape("a", event(map("name", "Alpha", "photo", "1")), false);
+        shaper.shape("b", event(map("name", "Beta")), false);
+
+        HashMap<String, Object> a = event(map("name", "Alpha", "photo", "2"));
+        shaper.shape("a", a, false);
+        assertEquals(map(), a.get("data"));
+        assertEquals(Collections.emptyList(), a.get("removed"));
+
+        HashMap<String, Object> b = event(map());
+        shaper.shape("b", b, false);
+        assertEquals(Arrays.asList("name"), b.get("removed"));
+    }
+
+    @Test
+    public void exitSendsTheFullPayloadAndForgetsTheKey() {
+        PayloadShaper shaper = new PayloadShaper(null, true);
+        shaper.shape("a", event(map("name", "Alpha", "open", true)), false);
+
+        HashMap<String, Object> exit = event(map("name", "Alpha", "open", true));
+        shaper.shape("a", exit, true);
+        assertEquals(map("name", "Alpha", "open", true), exit.get("data"));
+        assertFalse(exit.containsKey("removed"));
+
+        HashMap<String, Object> enter = event(map("name", "Alpha", "open", true));
+        shaper.shape("a", enter, false);
+        assertEquals(map("name", "Alpha", "open", true), enter.get("data"));
+        assertFalse(enter.containsKey("removed"));
+    }
+
+    @Test
+    public void clearForgetsAllKeys() {
+        PayloadShaper shaper = new PayloadShaper(null, true);
+        shaper.shape("a", event(map("name", "Alpha")), false);
+        shaper.clear();
+
+        HashMap<String, Object> again = event(map("name", "Alpha"));
+        shaper.shape("a", again, false);
+        assertEquals(map("name", "Alpha"), again.get("data"));
+        assertNull(again.get("removed"));
+    }
+
+    private static HashMap<String, Object> event(HashMap<String, Object> data) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("callBack", "onDataKeyChanged");
+        event.put("key", "a");
+        event.put("data", data);
+        return event;
+    }
+
+    private static HashMap<String, Object> map(Object... keysAndValues) {
+        HashMap<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
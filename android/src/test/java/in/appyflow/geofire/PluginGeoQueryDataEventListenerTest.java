@@ -0,0 +1,117 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PluginGeoQueryDataEventListenerTest {
+
+    private EventPath path;
+    private FakeGeoFire geoFire;
+    private FakeGeoFire.Query query;
+
+    @Before
+    public void setUp() {
+        path = new EventPath();
+        geoFire = new FakeGeoFire();
+        query = geoFire.query(52.52, 13.405, 1);
+    }
+
+    @After
+    public void tearDown() {
+        path.shutdown();
+    }
+
+    @Test
+    public void sendsConvertedPayloadsInOrder() {
+        geoFire.setLocation("a", 52.521, 13.405, value("name", "Alpha", "open", true));
+        query.addListener(path.dataListener(null, EventPath.options()));
+        geoFire.setLocation("a", 52.522, 13.405);
+        geoFire.setValue("a", value("name", "Alpha", "open", false));
+        geoFire.removeLocation("a");
+        path.settle();
+
+        assertEquals(Arrays.asList("onDataKeyEntered", "onGeoQueryReady", "onDataKeyMoved", "onDataKeyChanged",
+                "onDataKeyExited"), path.sink.callBacks());
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals(value("name", "Alpha", "open", true), events.get(0).get("data"));
+        assertEquals(Arrays.asList("a"), events.get(1).get("result"));
+        assertEquals(false, data(events.get(3)).get("open"));
+    }
+
+    @Test
+    public void wrapsNonObjectValues() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        query.addListener(path.dataListener(null, EventPath.options()));
+        path.settle();
+
+        assertTrue(data(path.sink.events().get(0)).isEmpty());
+    }
+
+    @Test
+    public void projectsAndDiffsPayloads() {
+        geoFire.setLocation("a", 52.521, 13.405, value("name", "Alpha", "open", true, "photo", "..."));
+        query.addListener(path.dataListener("shops",
+                EventPath.options("fields", Arrays.asList("name", "open"), "delta", true)));
+        geoFire.setValue("a", value("name", "Alpha", "open", false, "photo", "!!!"));
+        geoFire.setValue("a", value("name", "Alpha", "photo", "!!!"));
+        path.settle();
+
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals(value("name", "Alpha", "open", true), events.get(0).get("data"));
+        assertEquals(value("open", false), events.get(2).get("data"));
+        assertEquals(Arrays.asList(), events.get(2).get("removed"));
+        assertEquals(Arrays.asList("open"), events.get(3).get("removed"));
+        assertEquals("shops", events.get(3).get("queryId"));
+    }
+
+    @Test
+    public void throttledMovesCarryTheLatestSnapshot() {
+        geoFire.setLocation("a", 52.521, 13.405, value("n", 1));
+        query.addListener(path.dataListener(null, EventPath.options("minMoveInterval", 1000)));
+        path.settle();
+        path.sink.clear();
+
+        geoFire.setLocation("a", 52.5211, 13.405, value("n", 2));
+        geoFire.setLocation("a", 52.5212, 13.405, value("n", 3));
+        path.scheduler.advance(1000);
+        path.settle();
+
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals(Arrays.asList("onDataKeyMoved"), path.sink.callBacks());
+        assertEquals(52.5212, events.get(0).get("latitude"));
+        assertEquals(3, data(events.get(0)).get("n"));
+    }
+
+    @Test
+    public void dropsConversionsOfAPreviousSession() {
+        PluginGeoQueryDataEventListener listener = path.dataListener(null, EventPath.options());
+        geoFire.setLocation("a", 52.521, 13.405, value("n", 1));
+        query.addListener(listener);
+        listener.reset();
+        path.settle();
+
+        assertTrue(path.sink.events().isEmpty());
+    }
+
+    private static HashMap<String, Object> value(Object... keysAndValues) {
+        HashMap<String, Object> value = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            value.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> data(HashMap<String, Object> event) {
+        return (Map<String, Object>) event.get("data");
+    }
+}
@@ -0,0 +1,225 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyDouble;
+import static org.mockito.Mockito.anyMap;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import com.firebase.geofire.GeoLocation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class PluginGeoQueryEventListenerTest {
+
+    private EventPath path;
+    private FakeGeoFire geoFire;
+    private FakeGeoFire.Query query;
+
+    @Before
+    public void setUp() {
+        path = new EventPath();
+        geoFire = new FakeGeoFire();
+        query = geoFire.query(52.52, 13.405, 1);
+    }
+
+    @After
+    public void tearDown() {
+        path.shutdown();
+    }
+
+    @Test
+    public void reportsKeysInsideTheQuery() {
+        geoFire.setLocation("inside", 52.521, 13.405);
+        geoFire.setLocation("outside", 52.6, 13.405);
+        query.addListener(path.keyListener(null, EventPath.options()));
+        geoFire.setLocation("inside", 52.522, 13.406);
+        geoFire.setLocation("outside", 52.5205, 13.405);
+        geoFire.removeLocation("inside");
+
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady", "onKeyMoved", "onKeyEntered", "onKeyExited"),
+                path.sink.callBacks());
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals("inside", events.get(0).get("key"));
+        assertEquals(Arrays.asList("inside"), events.get(1).get("result"));
+        assertEquals(52.522, events.get(2).get("latitude"));
+        assertEquals("outside", events.get(3).get("key"));
+    }
+
+    @Test
+    public void tagsEventsOfNamedQueries() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        query.addListener(path.keyListener("shops", EventPath.options()));
+
+        for (HashMap<String, Object> event : path.sink.events()) {
+            assertEquals("shops", event.get("queryId"));
+        }
+    }
+
+    @Test
+    public void readyListsTheKeysAfterMovingTheQuery() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        geoFire.setLocation("b", 52.53, 13.405);
+        query.addListener(path.keyListener(null, EventPath.options()));
+        path.sink.clear();
+
+        query.setCenter(52.53, 13.405, 0.5);
+
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals(Arrays.asList("onKeyExited", "onKeyEntered", "onGeoQueryReady"), path.sink.callBacks());
+        assertEquals(Arrays.asList("b"), events.get(2).get("result"));
+    }
+
+    @Test
+    public void throttlesMovesToTheInterval() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        query.addListener(path.keyListener(null, EventPath.options("minMoveInterval", 1000)));
+        path.sink.clear();
+
+        path.scheduler.advance(1000);
+        geoFire.setLocation("a", 52.5211, 13.405);
+        geoFire.setLocation("a", 52.5212, 13.405);
+        geoFire.setLocation("a", 52.5213, 13.405);
+        assertEquals(Arrays.asList("onKeyMoved"), path.sink.callBacks());
+
+        path.scheduler.advance(999);
+        assertEquals(1, path.sink.events().size());
+        path.scheduler.advance(1);
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals(2, events.size());
+        assertEquals(52.5213, events.get(1).get("latitude"));
+    }
+
+    @Test
+    public void sendsTheHeldMoveBeforeAnExit() {
+        geoFire.setLocation("a", 52.521, 13.405);
+        query.addListener(path.keyListener(null, EventPath.options("minMoveInterval", 1000)));
+        path.sink.clear();
+
+        geoFire.setLocation("a", 52.5211, 13.405);
+        geoFire.removeLocation("a");
+
+        assertEquals(Arrays.asList("onKeyMoved", "onKeyExited"), path.sink.callBacks());
+        assertEquals(0, path.scheduler.pendingCount());
+    }
+
+    @Test
+    public void dropsHeldMovesOnceCancelled() {
+        PluginGeoQueryEventListener listener = path.keyListener(null, EventPath.options("minMoveInterval", 1000));
+        geoFire.setLocation("a", 52.521, 13.405);
+        query.addListener(listener);
+        path.sink.clear();
+
+        geoFire.setLocation("a", 52.5211, 13.405);
+        listener.cancelTimers();
+        path.scheduler.advance(5000);
+
+        assertTrue(path.sink.events().isEmpty());
+    }
+
+    @Test
+    public void coalescesMovesWithinABatchWindow() {
+        path.batcher.configure(true, 50, 1000);
+        geoFire.setLocation("a", 52.521, 13.405);
+        geoFire.setLocation("b", 52.5215, 13.405);
+        query.addListener(path.keyListener(null, EventPath.options()));
+        for (int i = 1; i <= 10; i++) {
+            geoFire.setLocation("a", 52.521 + i * 1e-5, 13.405);
+        }
+        assertTrue(path.sink.messages.isEmpty());
+
+        path.scheduler.advance(50);
+
+        assertEquals(1, path.sink.messages.size());
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered", "onGeoQueryReady", "onKeyMoved"),
+                path.sink.callBacks());
+        assertEquals(52.521 + 10 * 1e-5, path.sink.events().get(3).get("latitude"));
+    }
+
+    @Test
+    public void indexFollowsTheReportedKeys() {
+        PluginGeoQueryEventListener listener = path.keyListener(null, EventPath.options());
+        query.addListener(listener);
+        for (int i = 0; i < 20; i++) {
+            geoFire.setLocation("k" + i, 52.52 + i * 1e-4, 13.405);
+        }
+        geoFire.removeLocation("k3");
+
+        HashSet<String> keys = new HashSet<>(listener.getIndex().keys());
+        assertEquals(19, keys.size());
+        assertTrue(!keys.contains("k3"));
+    }
+
+    @Test
+    public void cachedKeysStayProvisionalUntilTheQueryIsReady() {
+        geoFire.setLocation("live", 52.521, 13.405);
+        QueryCache cache = mock(QueryCache.class);
+        final ArrayList<Map<String, Object>> saved = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                saved.add(invocation.<Map<String, Object>>getArgument(4));
+                return null;
+            }
+        }).when(cache).save(anyString(), anyDouble(), anyDouble(), anyDouble(), anyMap());
+        PluginGeoQueryEventListener listener = path.keyListener(null, EventPath.options());
+        listener.useCache(cache, "locations", new GeoLocation(52.52, 13.405), 1);
+        QueryCache.Snapshot snapshot = new QueryCache.Snapshot(52.52, 13.405, 1, 3);
+        cache(snapshot, 0, "live", 52.5211, 13.405);
+        cache(snapshot, 1, "stale", 52.519, 13.405);
+        cache(snapshot, 2, "outside", 52.6, 13.405);
+
+        listener.showCached(snapshot);
+        listener.saveCache();
+        query.addListener(listener);
+
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered", "onKeyEntered", "onKeyExited", "onGeoQueryReady"),
+                path.sink.callBacks());
+        List<HashMap<String, Object>> events = path.sink.events();
+        assertEquals(Arrays.asList("live", "stale", "live", "stale"), Arrays.asList(events.get(0).get("key"),
+                events.get(1).get("key"), events.get(2).get("key"), events.get(3).get("key")));
+        assertEquals(true, events.get(0).get("provisional"));
+        assertEquals(true, events.get(1).get("provisional"));
+        assertEquals(null, events.get(2).get("provisional"));
+        assertEquals(52.521, events.get(2).get("latitude"));
+        assertEquals(Arrays.asList("live"), events.get(4).get("result"));
+        // only the live results of a ready query are saved
+        assertEquals(1, saved.size());
+        assertEquals(new HashSet<>(Arrays.asList("live")), saved.get(0).keySet());
+    }
+
+    @Test
+    public void cachedKeysArriveTooLateOnceReady() {
+        QueryCache cache = mock(QueryCache.class);
+        PluginGeoQueryEventListener listener = path.keyListener(null, EventPath.options());
+        listener.useCache(cache, "locations", new GeoLocation(52.52, 13.405), 1);
+        query.addListener(listener);
+        path.sink.clear();
+
+        QueryCache.Snapshot snapshot = new QueryCache.Snapshot(52.52, 13.405, 1, 1);
+        cache(snapshot, 0, "stale", 52.519, 13.405);
+        listener.showCached(snapshot);
+
+        assertTrue(path.sink.events().isEmpty());
+    }
+
+    private static void cache(QueryCache.Snapshot snapshot, int index, String key, double latitude,
+            double longitude) {
+        snapshot.keys[index] = key;
+        snapshot.latitudes[index] = latitude;
+        snapshot.longitudes[index] = longitude;
+    }
+}
@@ -0,0 +1,86 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+
+/**
+ * A GeofirePlugin on a {@link FakeGeoFire} and a {@link FakeScheduler},
+ * driven through onMethodCall the way Dart drives it. Events go to a
+ * {@link RecordingEventSink} registered with onListen.
+ */
+final class PluginHarness {
+
+    private static final long AWAIT_TIMEOUT_MS = 5000;
+
+    final FakeScheduler scheduler = new FakeScheduler();
+    final FakeGeoFire geoFire = new FakeGeoFire();
+    final RecordingEventSink sink = new RecordingEventSink();
+    final BinaryMessenger messenger = mock(BinaryMessenger.class);
+    final File cacheDirectory;
+    final GeofirePlugin plugin = new GeofirePlugin(scheduler, geoFire);
+
+    PluginHarness() {
+        try {
+            cacheDirectory = Files.createTempDirectory("geofire").toFile();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        plugin.attach(messenger, cacheDirectory);
+        plugin.onListen(null, sink);
+    }
+
+    /** Calls GeoFire.start on "locations". */
+    PluginHarness start() {
+        assertEquals(true, call("GeoFire.start", "path", "locations").value());
+        return this;
+    }
+
+    /** Calls the method with the arguments given as key/value pairs. */
+    RecordingResult call(String method, Object... keysAndValues) {
+        HashMap<String, Object> arguments = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            arguments.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        RecordingResult result = new RecordingResult();
+        plugin.onMethodCall(new MethodCall(method, arguments), result);
+        return result;
+    }
+
+    /** Runs due tasks until an event with the callBack arrived; data events are built on a worker thread. */
+    void awaitEvent(String callBack) {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+        while (true) {
+            scheduler.runDue();
+            if (sink.callBacks().contains(callBack)) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(callBack + " was not sent within " + AWAIT_TIMEOUT_MS + " ms");
+            }
+            scheduler.awaitPost(10);
+        }
+    }
+
+    void shutdown() {
+        plugin.teardown();
+        delete(cacheDirectory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
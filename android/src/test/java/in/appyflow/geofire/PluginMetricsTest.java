@@ -0,0 +1,110 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class PluginMetricsTest {
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final PluginMetrics metrics = new PluginMetrics(scheduler);
+
+    @Test
+    public void countsEventsByCallBack() {
+        metrics.countEvent("onKeyEntered");
+        metrics.countEvent("onKeyEntered");
+        metrics.countEvent("onDataKeyChanged");
+        metrics.countEvent("onMetrics");
+        metrics.countEvent(null);
+
+        Map<String, Object> events = castMap(metrics.snapshot(metrics.newRateBaseline()).get("events"));
+        assertEquals(2L, events.get("onKeyEntered"));
+        assertEquals(1L, events.get("onDataKeyChanged"));
+        assertEquals(2L, events.get("other"));
+        assertEquals(0L, events.get("onKeyExited"));
+    }
+
+    @Test
+    public void ratesCoverTheIntervalOfEachBaseline() {
+        PluginMetrics.RateBaseline polled = metrics.newRateBaseline();
+        scheduler.advance(1000);
+        PluginMetrics.RateBaseline pushed = metrics.newRateBaseline();
+        for (int i = 0; i < 10; i++) {
+            metrics.countEvent("onKeyMoved");
+        }
+        scheduler.advance(1000);
+
+        assertEquals(5.0, rate(metrics.snapshot(polled), "onKeyMoved"), 1e-9);
+        assertEquals(10.0, rate(metrics.snapshot(pushed), "onKeyMoved"), 1e-9);
+
+        // each snapshot moves its own baseline
+        metrics.countEvent("onKeyMoved");
+        scheduler.advance(500);
+        assertEquals(2.0, rate(metrics.snapshot(polled), "onKeyMoved"), 1e-9);
+        assertEquals(2.0, rate(metrics.snapshot(pushed), "onKeyMoved"), 1e-9);
+    }
+
+    @Test
+    public void resetStartsTheRatesFromNow() {
+        PluginMetrics.RateBaseline baseline = metrics.newRateBaseline();
+        for (int i = 0; i < 100; i++) {
+            metrics.countEvent("onKeyEntered");
+        }
+        scheduler.advance(10000);
+        baseline.reset();
+        metrics.countEvent("onKeyEntered");
+        scheduler.advance(250);
+
+        assertEquals(4.0, rate(metrics.snapshot(baseline), "onKeyEntered"), 1e-9);
+    }
+
+    @Test
+    public void snapshotsInTheSameMillisecondDoNotDivideByZero() {
+        PluginMetrics.RateBaseline baseline = metrics.newRateBaseline();
+        metrics.countEvent("onKeyExited");
+
+        assertEquals(1000.0, rate(metrics.snapshot(baseline), "onKeyExited"), 1e-9);
+        assertEquals(0.0, rate(metrics.snapshot(baseline), "onKeyExited"), 1e-9);
+    }
+
+    @Test
+    public void histogramsReportPowerOfTwoPercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            metrics.queryReadyMs.record(i);
+        }
+        metrics.queryReadyMs.record(-5);
+
+        Map<String, Object> histogram = castMap(metrics.snapshot(metrics.newRateBaseline()).get("queryReadyMs"));
+        assertEquals(101L, histogram.get("count"));
+        assertEquals(5050.0 / 101, (Double) histogram.get("mean"), 1e-9);
+        assertEquals(64L, histogram.get("p50"));
+        assertEquals(128L, histogram.get("p90"));
+        assertEquals(128L, histogram.get("p99"));
+        List<?> buckets = (List<?>) histogram.get("buckets");
+        assertEquals(1L, buckets.get(0));
+        assertEquals(1L, buckets.get(1));
+        assertEquals(32L, buckets.get(6));
+        assertEquals(37L, buckets.get(7));
+    }
+
+    @Test
+    public void emptyHistogramsReportZero() {
+        Map<String, Object> histogram = castMap(metrics.snapshot(metrics.newRateBaseline()).get("channelEncodeUs"));
+
+        assertEquals(0L, histogram.get("count"));
+        assertEquals(0.0, histogram.get("mean"));
+        assertEquals(0L, histogram.get("p99"));
+    }
+
+    private static double rate(Map<String, Object> snapshot, String callBack) {
+        return (Double) castMap(snapshot.get("eventRates")).get(callBack);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
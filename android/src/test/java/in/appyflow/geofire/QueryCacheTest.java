@@ -0,0 +1,188 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class QueryCacheTest {
+
+    private static final long AWAIT_TIMEOUT_MS = 5000;
+
+    private static final class Area {
+        final String path;
+        final double latitude;
+        final double longitude;
+        final double radius;
+
+        Area(String path, double latitude, double longitude, double radius) {
+            this.path = path;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+        }
+    }
+
+    private static final Area BERLIN = new Area("locations", 52.52, 13.405, 1);
+    private static final Area PARIS = new Area("locations", 48.857, 2.352, 1);
+    private static final Area ROME = new Area("locations", 41.903, 12.496, 1);
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private File directory;
+    private QueryCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("geofire-cache").toFile();
+        cache = new QueryCache(directory, scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void loadsWhatWasSaved() {
+        save(BERLIN, "a", 52.521, 13.405, "b", 52.519, 13.406);
+
+        QueryCache.Snapshot snapshot = load(BERLIN).get(BERLIN);
+
+        assertEquals(52.52, snapshot.centerLatitude, 0);
+        assertEquals(13.405, snapshot.centerLongitude, 0);
+        assertEquals(1, snapshot.radius, 0);
+        assertArrayEquals(new String[]{"a", "b"}, snapshot.keys);
+        assertArrayEquals(new double[]{52.521, 52.519}, snapshot.latitudes, 0);
+        assertArrayEquals(new double[]{13.405, 13.406}, snapshot.longitudes, 0);
+    }
+
+    @Test
+    public void aboutTheSameAreaSharesTheFile() {
+        save(BERLIN, "a", 52.521, 13.405);
+
+        Area nearby = new Area("locations", 52.5201, 13.4051, 0.9);
+        assertEquals(Arrays.asList("a"), Arrays.asList(load(nearby).get(nearby).keys));
+    }
+
+    @Test
+    public void pathsAndAreasAreKeptApart() {
+        Area otherPath = new Area("other", BERLIN.latitude, BERLIN.longitude, BERLIN.radius);
+        Area larger = new Area("locations", BERLIN.latitude, BERLIN.longitude, 8);
+        save(BERLIN, "a", 52.521, 13.405);
+        save(otherPath, "b", 52.521, 13.405);
+        save(larger, "c", 52.53, 13.405);
+
+        Map<Area, QueryCache.Snapshot> loaded = load(PARIS, otherPath, larger, BERLIN);
+
+        assertNull(loaded.get(PARIS));
+        assertEquals("b", loaded.get(otherPath).keys[0]);
+        assertEquals("c", loaded.get(larger).keys[0]);
+        assertEquals("a", loaded.get(BERLIN).keys[0]);
+        assertNotEquals(QueryCache.areaKey("locations", 52.52, 13.405, 1),
+                QueryCache.areaKey("locations", 52.52, 13.405, 2.5));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyWrittenFiles() {
+        save(BERLIN, "a", 52.521, 13.405);
+        load(BERLIN);
+        File berlin = directory.listFiles()[0];
+        berlin.setLastModified(1000000);
+        cache.setMaxBytes(berlin.length() * 5 / 2);
+        save(PARIS, "b", 48.858, 2.352);
+        load(PARIS);
+        for (File file : directory.listFiles()) {
+            if (!file.equals(berlin)) {
+                file.setLastModified(2000000);
+            }
+        }
+
+        save(ROME, "c", 41.904, 12.496);
+        Map<Area, QueryCache.Snapshot> loaded = load(BERLIN, PARIS, ROME);
+
+        assertNull(loaded.get(BERLIN));
+        assertFalse(berlin.exists());
+        assertEquals("b", loaded.get(PARIS).keys[0]);
+        assertEquals("c", loaded.get(ROME).keys[0]);
+    }
+
+    @Test
+    public void dropsUnreadableFiles() throws IOException {
+        save(BERLIN, "a", 52.521, 13.405);
+        load(BERLIN);
+        File file = directory.listFiles()[0];
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        } finally {
+            output.close();
+        }
+
+        save(PARIS, "b", 48.858, 2.352);
+        assertNull(load(BERLIN, PARIS).get(BERLIN));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void clearDeletesEverything() {
+        save(BERLIN, "a", 52.521, 13.405);
+        cache.clear();
+        save(PARIS, "b", 48.858, 2.352);
+
+        assertNull(load(BERLIN, PARIS).get(BERLIN));
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    private void save(Area area, Object... keysAndLocations) {
+        LinkedHashMap<String, Object> entries = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndLocations.length; i += 3) {
+            entries.put((String) keysAndLocations[i], Arrays.asList(keysAndLocations[i + 1], keysAndLocations[i + 2]));
+        }
+        cache.save(area.path, area.latitude, area.longitude, area.radius, entries);
+    }
+
+    // The worker loads in order and the last area must be cached, so once it
+    // arrived every other area either arrived as well or had nothing cached.
+    private Map<Area, QueryCache.Snapshot> load(Area... areas) {
+        final HashMap<Area, QueryCache.Snapshot> loaded = new HashMap<>();
+        for (final Area area : areas) {
+            cache.load(area.path, area.latitude, area.longitude, area.radius, new QueryCache.LoadCallback() {
+                @Override
+                public void onLoaded(QueryCache.Snapshot snapshot) {
+                    loaded.put(area, snapshot);
+                }
+            });
+        }
+        Area last = areas[areas.length - 1];
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+        while (!loaded.containsKey(last)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Nothing loaded within " + AWAIT_TIMEOUT_MS + " ms");
+            }
+            scheduler.awaitPost(10);
+            scheduler.runDue();
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,202 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.firebase.geofire.GeoLocation;
+import com.google.firebase.database.DatabaseError;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class QueryMultiplexerTest {
+
+    // 0.009 degrees of latitude are about a kilometer
+    private static final double KM = 0.009;
+    private static final double LAT = 52.52;
+    private static final double LNG = 13.405;
+    private static final GeoLocation CENTER = new GeoLocation(LAT, LNG);
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final FakeGeoFire geoFire = new FakeGeoFire();
+    private final ArrayList<HashMap<String, Object>> events = new ArrayList<>();
+    private QueryMultiplexer multiplexer;
+
+    @Before
+    public void setUp() {
+        multiplexer = new QueryMultiplexer(geoFire.geoFire, new QueryMultiplexer.Emitter() {
+            @Override
+            public void emit(HashMap<String, Object> event) {
+                events.add(event);
+            }
+
+            @Override
+            public void emitError(String subscriberId, DatabaseError error) {
+                throw new AssertionError("no errors expected");
+            }
+        }, scheduler);
+        geoFire.setLocation("near", LAT + 0.5 * KM, LNG);
+        geoFire.setLocation("middle", LAT + 1.5 * KM, LNG);
+        geoFire.setLocation("far", LAT + 4 * KM, LNG);
+    }
+
+    @Test
+    public void subscriberInsideTheCoverageIsServedFromKnownKeys() {
+        multiplexer.subscribe("a", CENTER, 2);
+        assertEquals(Arrays.asList("onKeyEntered", "onKeyEntered", "onGeoQueryReady"), callBacks("a"));
+        events.clear();
+
+        multiplexer.subscribe("b", CENTER, 1);
+
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), callBacks("b"));
+        assertEquals(Arrays.asList("near"), events.get(1).get("result"));
+        assertEquals(1, geoFire.queries().size());
+        assertEquals(2, query().radius(), 0);
+    }
+
+    @Test
+    public void coverageGrowsToEncloseEverySubscriber() {
+        multiplexer.subscribe("a", CENTER, 1);
+        events.clear();
+
+        multiplexer.subscribe("b", new GeoLocation(LAT + 4 * KM, LNG), 1);
+        scheduler.runDue();
+
+        assertEquals(LAT + 2 * KM, query().center().latitude, 1e-9);
+        assertEquals(3, query().radius(), 0.01);
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), callBacks("b"));
+        assertEquals("far", events.get(0).get("key"));
+        // a keeps its keys and is not reported again
+        assertEquals(new ArrayList<String>(), callBacks("a"));
+        assertEquals(1, geoFire.queries().size());
+    }
+
+    @Test
+    public void coverageShrinksOnceWellBelowTheNeededRadius() {
+        multiplexer.subscribe("a", CENTER, 2);
+        multiplexer.subscribe("b", CENTER, 1.8);
+        assertTrue(multiplexer.unsubscribe("a"));
+        // 1.8 is not below 0.75 of 2
+        assertEquals(2, query().radius(), 0);
+
+        multiplexer.subscribe("c", new GeoLocation(LAT + 4 * KM, LNG), 1);
+        assertTrue(multiplexer.unsubscribe("c"));
+        assertEquals(LAT, query().center().latitude, 1e-9);
+        assertEquals(1.8, query().radius(), 1e-9);
+    }
+
+    @Test
+    public void movingASubscriberRefreshesItsKeys() {
+        multiplexer.subscribe("a", CENTER, 2);
+        events.clear();
+
+        multiplexer.subscribe("a", CENTER, 1);
+        assertEquals(Arrays.asList("onKeyExited", "onGeoQueryReady"), callBacks("a"));
+        assertEquals("middle", events.get(0).get("key"));
+        events.clear();
+
+        geoFire.setLocation("middle", LAT + 0.8 * KM, LNG);
+        assertEquals(Arrays.asList("onKeyEntered"), callBacks("a"));
+    }
+
+    @Test
+    public void keyEventsOnlyReachTheSubscribersTheyConcern() {
+        multiplexer.subscribe("a", CENTER, 2);
+        multiplexer.subscribe("b", CENTER, 1);
+        events.clear();
+
+        geoFire.setLocation("middle", LAT + 1.6 * KM, LNG);
+        geoFire.setLocation("near", LAT + 1.2 * KM, LNG);
+
+        assertEquals(Arrays.asList("onKeyMoved", "onKeyMoved"), callBacks("a"));
+        assertEquals(Arrays.asList("onKeyExited"), callBacks("b"));
+    }
+
+    @Test
+    public void readyIsReplayedWhenGrowingAddsNoRanges() {
+        multiplexer.subscribe("a", CENTER, 1);
+        assertFalse(QueryMultiplexer.addsRanges(CENTER, 1, CENTER, 1.05));
+        events.clear();
+
+        multiplexer.subscribe("b", CENTER, 1.05);
+        assertEquals(Arrays.asList("onKeyEntered"), callBacks("b"));
+
+        scheduler.runDue();
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), callBacks("b"));
+        assertEquals(1.05, query().radius(), 1e-9);
+    }
+
+    @Test
+    public void backToBackMovesKeepThePendingReplay() {
+        multiplexer.subscribe("a", CENTER, 1);
+        assertFalse(QueryMultiplexer.addsRanges(CENTER, 1.05, CENTER, 1.1));
+        events.clear();
+
+        multiplexer.subscribe("b", CENTER, 1.05);
+        multiplexer.subscribe("c", CENTER, 1.1);
+        scheduler.runDue();
+
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), callBacks("b"));
+        assertEquals(Arrays.asList("onKeyEntered", "onGeoQueryReady"), callBacks("c"));
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void reattachReplaysEverySubscriber() {
+        multiplexer.subscribe("a", CENTER, 2);
+        multiplexer.subscribe("b", CENTER, 1);
+        events.clear();
+
+        multiplexer.reattach();
+
+        assertEquals(new HashSet<>(Arrays.asList("near", "middle")), keys("a"));
+        assertEquals(new HashSet<>(Arrays.asList("near")), keys("b"));
+        assertEquals(1, query().listenerCount());
+    }
+
+    @Test
+    public void lastUnsubscribeStopsTheQuery() {
+        multiplexer.subscribe("a", CENTER, 1);
+        multiplexer.subscribe("b", CENTER, 1.05);
+
+        assertTrue(multiplexer.unsubscribe("a"));
+        assertTrue(multiplexer.unsubscribe("b"));
+        assertFalse(multiplexer.unsubscribe("b"));
+
+        assertFalse(multiplexer.isSubscribed("a"));
+        assertEquals(0, query().listenerCount());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    private FakeGeoFire.Query query() {
+        List<FakeGeoFire.Query> queries = geoFire.queries();
+        return queries.get(queries.size() - 1);
+    }
+
+    private List<String> callBacks(String subscriberId) {
+        ArrayList<String> callBacks = new ArrayList<>();
+        for (HashMap<String, Object> event : events) {
+            if (subscriberId.equals(event.get("queryId"))) {
+                callBacks.add((String) event.get("callBack"));
+            }
+        }
+        return callBacks;
+    }
+
+    private HashSet<String> keys(String subscriberId) {
+        HashSet<String> keys = new HashSet<>();
+        for (HashMap<String, Object> event : events) {
+            if (subscriberId.equals(event.get("queryId")) && "onKeyEntered".equals(event.get("callBack"))) {
+                keys.add((String) event.get("key"));
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,142 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class QueryNearestTest {
+
+    private PluginHarness harness;
+    private FakeGeoFire geoFire;
+
+    @Before
+    public void setUp() {
+        harness = new PluginHarness().start();
+        geoFire = harness.geoFire;
+        // 0.009 degrees of latitude are about a kilometer
+        geoFire.setLocation("a", 52.524, 13.405);
+        geoFire.setLocation("b", 52.526, 13.405);
+        geoFire.setLocation("c", 52.5335, 13.405);
+        geoFire.setLocation("d", 52.547, 13.405);
+    }
+
+    @After
+    public void tearDown() {
+        harness.shutdown();
+    }
+
+    @Test
+    public void growsUntilItHoldsK() {
+        queryNearest(3, 1, 10);
+
+        List<HashMap<String, Object>> events = nearestEvents();
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("a", "b", "c"), keys(events.get(0)));
+        assertEquals(2.0, events.get(0).get("radius"));
+    }
+
+    @Test
+    public void stopsGrowingAtMaxRadius() {
+        queryNearest(10, 1, 3.5);
+
+        List<HashMap<String, Object>> events = nearestEvents();
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), keys(events.get(0)));
+        assertEquals(3.5, events.get(0).get("radius"));
+    }
+
+    @Test
+    public void smallMoveWithoutNewRangesStillReports() {
+        queryNearest(1, 1, 10);
+        harness.sink.clear();
+
+        // the same geohash ranges, so GeoFire itself stays silent
+        harness.call("updateQuery", "queryId", "near", "lat", 52.5201, "lng", 13.405, "radius", 10.0);
+        harness.scheduler.runDue();
+
+        List<HashMap<String, Object>> events = nearestEvents();
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("a"), keys(events.get(0)));
+        assertEquals(1.0, events.get(0).get("radius"));
+    }
+
+    @Test
+    public void twoMovesInOneTurnReportOnce() {
+        queryNearest(1, 1, 10);
+        harness.sink.clear();
+
+        harness.call("updateQuery", "queryId", "near", "lat", 52.5201, "lng", 13.405, "radius", 10.0);
+        harness.call("updateQuery", "queryId", "near", "lat", 52.5202, "lng", 13.405, "radius", 10.0);
+        harness.scheduler.runDue();
+
+        List<HashMap<String, Object>> events = nearestEvents();
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("a"), keys(events.get(0)));
+    }
+
+    @Test
+    public void farMoveStartsOver() {
+        queryNearest(1, 1, 10);
+        harness.sink.clear();
+
+        harness.call("updateQuery", "queryId", "near", "lat", 52.547, "lng", 13.405, "radius", 10.0);
+        harness.scheduler.runDue();
+
+        List<HashMap<String, Object>> events = nearestEvents();
+        assertEquals(Arrays.asList("d"), keys(events.get(events.size() - 1)));
+        assertEquals(1.0, events.get(events.size() - 1).get("radius"));
+    }
+
+    @Test
+    public void growsAgainWhenATopKeyLeaves() {
+        queryNearest(2, 1, 10);
+        harness.sink.clear();
+
+        geoFire.removeLocation("b");
+        harness.scheduler.runDue();
+
+        List<HashMap<String, Object>> events = nearestEvents();
+        HashMap<String, Object> last = events.get(events.size() - 1);
+        assertEquals(Arrays.asList("a", "c"), keys(last));
+        assertEquals(2.0, last.get("radius"));
+    }
+
+    @Test
+    public void rejectsNonPositiveArguments() {
+        assertEquals("INVALID_ARGUMENTS", harness.call("queryNearest", "queryId", "near", "lat", 52.52,
+                "lng", 13.405, "k", 0, "maxRadius", 10.0).errorCode);
+    }
+
+    private void queryNearest(int k, double initialRadius, double maxRadius) {
+        assertEquals(true, harness.call("queryNearest", "queryId", "near", "lat", 52.52, "lng", 13.405, "k", k,
+                "initialRadius", initialRadius, "maxRadius", maxRadius).value());
+        harness.scheduler.runDue();
+    }
+
+    private List<HashMap<String, Object>> nearestEvents() {
+        ArrayList<HashMap<String, Object>> events = new ArrayList<>();
+        for (HashMap<String, Object> event : harness.sink.events()) {
+            assertEquals("near", event.get("queryId"));
+            if ("onNearestChanged".equals(event.get("callBack"))) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> keys(HashMap<String, Object> event) {
+        ArrayList<String> keys = new ArrayList<>();
+        for (HashMap<String, Object> item : (List<HashMap<String, Object>>) event.get("result")) {
+            keys.add((String) item.get("key"));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,135 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+
+import com.firebase.geofire.GeoLocation;
+
+import org.junit.Test;
+
+public class RecenterControllerTest {
+
+    // 0.009 degrees of latitude are about a kilometer
+    private static final double KM = 0.009;
+    private static final double LAT = 52.52;
+    private static final double LNG = 13.405;
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final FakeGeoFire geoFire = new FakeGeoFire();
+    private GeoLocation visibleCenter;
+    private double visibleRadius;
+    private FakeGeoFire.Query query;
+
+    private final RecenterController.AreaFilter filter = new RecenterController.AreaFilter() {
+        @Override
+        public void setVisibleArea(GeoLocation center, double radius) {
+            visibleCenter = center;
+            visibleRadius = radius;
+        }
+    };
+
+    @Test
+    public void leavingTheOverFetchMarginAlwaysMoves() {
+        RecenterController controller = controller(1, "overFetch", 1.2, "recenterThreshold", 0.5);
+
+        // 0.3 radius is below the threshold, but 1.3 km no longer fit into the 1.2 km subscription
+        controller.request(new GeoLocation(LAT + 0.3 * KM, LNG), 1);
+
+        assertEquals(LAT + 0.3 * KM, query.center().latitude, 0);
+        assertEquals(1.2, query.radius(), 1e-9);
+    }
+
+    @Test
+    public void insideTheMarginIsServedLocally() {
+        RecenterController controller = controller(1, "overFetch", 2.0);
+
+        controller.request(new GeoLocation(LAT + 0.3 * KM, LNG), 0.9);
+
+        assertEquals(LAT, query.center().latitude, 0);
+        assertEquals(2, query.radius(), 0);
+        assertEquals(LAT + 0.3 * KM, visibleCenter.latitude, 0);
+        assertEquals(0.9, visibleRadius, 0);
+    }
+
+    @Test
+    public void thresholdRecentersInsideTheMargin() {
+        RecenterController controller = controller(1, "overFetch", 2.0, "recenterThreshold", 0.25);
+
+        controller.request(new GeoLocation(LAT + 0.2 * KM, LNG), 1);
+        assertEquals(LAT, query.center().latitude, 0);
+
+        controller.request(new GeoLocation(LAT + 0.3 * KM, LNG), 1);
+        assertEquals(LAT + 0.3 * KM, query.center().latitude, 0);
+    }
+
+    @Test
+    public void zoomingInShrinksTheSubscription() {
+        RecenterController controller = controller(1, "overFetch", 1.5);
+
+        controller.request(new GeoLocation(LAT, LNG), 0.7);
+        assertEquals(1.5, query.radius(), 0);
+
+        controller.request(new GeoLocation(LAT, LNG), 0.4);
+        assertEquals(0.6, query.radius(), 1e-9);
+    }
+
+    @Test
+    public void withoutOverFetchOnlyTheThresholdMoves() {
+        RecenterController controller = controller(1, "recenterThreshold", 0.5);
+
+        controller.request(new GeoLocation(LAT + 0.3 * KM, LNG), 1);
+        assertEquals(LAT, query.center().latitude, 0);
+
+        controller.request(new GeoLocation(LAT + 0.6 * KM, LNG), 1);
+        assertEquals(LAT + 0.6 * KM, query.center().latitude, 0);
+    }
+
+    @Test
+    public void intervalAppliesTheLatestRequestWhenItEnds() {
+        RecenterController controller = controller(1, "recenterInterval", 500);
+
+        controller.request(new GeoLocation(LAT + KM, LNG), 1);
+        controller.request(new GeoLocation(LAT + 2 * KM, LNG), 1);
+        scheduler.advance(499);
+        assertEquals(LAT, query.center().latitude, 0);
+
+        scheduler.advance(1);
+        assertEquals(LAT + 2 * KM, query.center().latitude, 0);
+        assertEquals(0, scheduler.pendingCount());
+
+        // the next interval starts with that move
+        controller.request(new GeoLocation(LAT + 3 * KM, LNG), 1);
+        assertEquals(LAT + 2 * KM, query.center().latitude, 0);
+        scheduler.advance(500);
+        assertEquals(LAT + 3 * KM, query.center().latitude, 0);
+    }
+
+    @Test
+    public void requestBackInsideDropsThePendingMove() {
+        RecenterController controller = controller(1, "recenterInterval", 500, "recenterThreshold", 0.5);
+
+        controller.request(new GeoLocation(LAT + KM, LNG), 1);
+        controller.request(new GeoLocation(LAT, LNG), 1);
+        scheduler.advance(500);
+
+        assertEquals(LAT, query.center().latitude, 0);
+    }
+
+    @Test
+    public void cancelDropsThePendingMove() {
+        RecenterController controller = controller(1, "recenterInterval", 500);
+
+        controller.request(new GeoLocation(LAT + KM, LNG), 1);
+        controller.cancel();
+        scheduler.advance(500);
+
+        assertEquals(LAT, query.center().latitude, 0);
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    private RecenterController controller(double radius, Object... options) {
+        QueryOptions queryOptions = EventPath.options(options);
+        query = geoFire.query(LAT, LNG, queryOptions.subscribedRadius(radius));
+        return new RecenterController(query.geoQuery, queryOptions, filter, new GeoLocation(LAT, LNG), radius,
+                scheduler);
+    }
+}
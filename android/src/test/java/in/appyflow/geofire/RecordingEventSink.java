@@ -0,0 +1,57 @@
+package in.appyflow.geofire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * EventSink that keeps every message instead of encoding it for Dart.
+ */
+final class RecordingEventSink implements EventChannel.EventSink {
+
+    final ArrayList<Object> messages = new ArrayList<>();
+    final ArrayList<String> errorCodes = new ArrayList<>();
+
+    @Override
+    public void success(Object message) {
+        messages.add(message);
+    }
+
+    @Override
+    public void error(String code, String message, Object details) {
+        errorCodes.add(code);
+    }
+
+    @Override
+    public void endOfStream() {
+    }
+
+    /** The events of all messages, with batches unpacked. */
+    @SuppressWarnings("unchecked")
+    List<HashMap<String, Object>> events() {
+        ArrayList<HashMap<String, Object>> events = new ArrayList<>();
+        for (Object message : messages) {
+            if (message instanceof List) {
+                events.addAll((List<HashMap<String, Object>>) message);
+            } else {
+                events.add((HashMap<String, Object>) message);
+            }
+        }
+        return events;
+    }
+
+    List<String> callBacks() {
+        ArrayList<String> callBacks = new ArrayList<>();
+        for (HashMap<String, Object> event : events()) {
+            callBacks.add((String) event.get("callBack"));
+        }
+        return callBacks;
+    }
+
+    void clear() {
+        messages.clear();
+        errorCodes.clear();
+    }
+}
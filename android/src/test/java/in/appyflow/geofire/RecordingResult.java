@@ -0,0 +1,41 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Result that keeps what a method call answered with.
+ */
+final class RecordingResult implements MethodChannel.Result {
+
+    int answers;
+    Object value;
+    String errorCode;
+    boolean notImplemented;
+
+    @Override
+    public void success(Object result) {
+        answers++;
+        value = result;
+    }
+
+    @Override
+    public void error(String code, String message, Object details) {
+        answers++;
+        errorCode = code;
+    }
+
+    @Override
+    public void notImplemented() {
+        answers++;
+        notImplemented = true;
+    }
+
+    /** The value of the single successful answer. */
+    Object value() {
+        assertEquals("answers", 1, answers);
+        assertEquals("error", null, errorCode);
+        return value;
+    }
+}
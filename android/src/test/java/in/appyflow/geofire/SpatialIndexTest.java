@@ -0,0 +1,135 @@
+package in.appyflow.geofire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SpatialIndexTest {
+
+    // one grid cell, 15 bits per axis
+    private static final double LAT_STEP = 180.0 / (1 << 15);
+    private static final double LNG_STEP = 360.0 / (1 << 15);
+
+    private final SpatialIndex index = new SpatialIndex();
+
+    @Before
+    public void setUp() {
+        // far more keys than cells in a small lookup, so lookups walk the grid instead of scanning
+        for (int i = 0; i < 1000; i++) {
+            index.put("filler" + i, 40 + (i % 40) * 0.01, 40 + (i / 40) * 0.01);
+        }
+    }
+
+    @Test
+    public void radiusListsNearestFirst() {
+        index.put("far", 52.53, 13.405);
+        index.put("near", 52.521, 13.405);
+        index.put("middle", 52.525, 13.405);
+        index.put("outside", 53, 13.405);
+
+        assertEquals(Arrays.asList("near", "middle", "far"), index.keysWithinRadius(52.52, 13.405, 5));
+    }
+
+    @Test
+    public void radiusReachesAcrossTheAntimeridian() {
+        // 0.001 degrees of longitude are about 111 meters at the equator
+        index.put("west", 0, 179.995);
+        index.put("east", 0, -179.996);
+        index.put("farEast", 0, -179.985);
+        index.put("farWest", 0, 179.985);
+
+        assertEquals(Arrays.asList("west", "east"), index.keysWithinRadius(0, 179.999, 1));
+        assertEquals(Arrays.asList("east", "west"), index.keysWithinRadius(0, -179.999, 1));
+        // east is 0.004 degrees from the line, west 0.005
+        assertEquals(Arrays.asList("east", "west"), index.keysWithinRadius(0, 180, 1));
+        assertEquals(Arrays.asList("east", "west"), index.keysWithinRadius(0, -180, 1));
+    }
+
+    @Test
+    public void radiusReachesAcrossThePoles() {
+        index.put("acrossNorth", 89.999, 180);
+        index.put("north", 89.995, 90);
+        index.put("awayFromNorth", 89.98, 0);
+        index.put("southPole", -90, 0);
+        index.put("nearSouthPole", -89.996, -135);
+
+        assertEquals(Arrays.asList("acrossNorth", "north"), index.keysWithinRadius(89.999, 0, 1));
+        assertEquals(Arrays.asList("acrossNorth", "north"), index.keysWithinRadius(90, 0, 1));
+        assertEquals(Arrays.asList("north"), index.keysWithinRadius(89.995, 90, 0.1));
+        assertEquals(Arrays.asList("southPole", "nearSouthPole"), index.keysWithinRadius(-89.9995, 45, 1));
+    }
+
+    @Test
+    public void keysOnCellEdgesAreFound() {
+        double row = -90 + 25000 * LAT_STEP;
+        double column = -180 + 20000 * LNG_STEP;
+        index.put("corner", row, column);
+        index.put("below", row - 1e-9, column);
+        index.put("left", row, column - 1e-9);
+
+        assertEquals(Arrays.asList("corner"),
+                index.keysInBoundingBox(row, column, row + LAT_STEP, column + LNG_STEP));
+        assertEquals(sorted("below", "corner", "left"),
+                sorted(index.keysInBoundingBox(row - LAT_STEP, column - LNG_STEP, row, column)));
+        assertEquals(sorted("below", "corner", "left"), sorted(index.keysWithinRadius(row, column, 0.001)));
+    }
+
+    @Test
+    public void boundingBoxCrossesTheAntimeridian() {
+        index.put("west", 0, 179.95);
+        index.put("east", 0, -179.95);
+        index.put("onTheLine", 0.5, 180);
+        index.put("tooFarWest", 0, 179.8);
+        index.put("tooFarEast", 0, -179.8);
+        index.put("tooFarNorth", 1.5, 179.95);
+
+        assertEquals(sorted("east", "onTheLine", "west"),
+                sorted(index.keysInBoundingBox(-1, 179.9, 1, -179.9)));
+        // 180 and -180 are the same meridian; a box ending there includes it
+        assertEquals(sorted("onTheLine", "west"), sorted(index.keysInBoundingBox(-1, 179.9, 1, 180)));
+    }
+
+    @Test
+    public void boundingBoxesReachThePoles() {
+        index.put("northPole", 90, 0);
+        index.put("nearNorthPole", 89.9999, -170);
+        index.put("southPole", -90, 100);
+
+        assertEquals(sorted("nearNorthPole", "northPole"), sorted(index.keysInBoundingBox(89.99, -180, 90, 180)));
+        assertEquals(Arrays.asList("southPole"), index.keysInBoundingBox(-90, 99, -89.99, 101));
+        assertEquals(1003, index.keysInBoundingBox(-90, -180, 90, 180).size());
+    }
+
+    @Test
+    public void movesAndRemovalsAcrossTheAntimeridianUpdateTheCells() {
+        index.put("a", 0, 179.9995);
+        index.put("a", 0, -179.9995);
+
+        assertTrue(index.keysInBoundingBox(-1, 179, 1, 179.99999).isEmpty());
+        assertEquals(Arrays.asList("a"), index.keysInBoundingBox(-1, -180, 1, -179));
+        assertEquals(Arrays.asList("a"), index.keysWithinRadius(0, 179.9995, 0.2));
+
+        index.remove("a");
+        assertFalse(index.contains("a"));
+        assertTrue(index.keysWithinRadius(0, 179.9995, 0.2).isEmpty());
+        assertEquals(1000, index.size());
+    }
+
+    private static List<String> sorted(String... keys) {
+        return sorted(Arrays.asList(keys));
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        ArrayList<String> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
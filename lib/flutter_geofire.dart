@@ -1,4 +1,6 @@
 import 'dart:async';
+import 'dart:convert';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 
@@ -18,8 +20,28 @@ class Geofire {
   static const onDataKeyExited = "onDataKeyExited";
   static const onDataKeyChanged = "onDataKeyChanged";
 
+  static const onNearestChanged = "onNearestChanged";
+
+  static const onMetrics = "onMetrics";
+
+  static const onFenceEntered = "onFenceEntered";
+  static const onFenceExited = "onFenceExited";
+
+  static const BasicMessageChannel<ByteData> _binaryStream =
+      const BasicMessageChannel<ByteData>(
+          'geofireBinaryStream', const BinaryCodec());
+
+  static StreamController<List<Map<String, dynamic>>>? _binaryEvents;
+  static final Map<int, String> _binaryKeys = <int, String>{};
+
   static Stream<dynamic>? _queryAtLocation;
   static Stream<dynamic>? _queryAtLocationWithData;
+  static StreamController<dynamic>? _events;
+  static StreamSubscription<dynamic>? _eventSubscription;
+  static bool _ackEvents = false;
+  // Handled messages are acknowledged together, every _ackEvery messages
+  static int _ackEvery = 1;
+  static int _unacked = 0;
 
   static Future<bool> initialize(String path) async {
     final dynamic r = await _channel
@@ -40,6 +62,54 @@ class Geofire {
     return isSet;
   }
 
+  /// Routes [setLocation] through a native publisher for devices that report
+  /// every GPS fix. Writes are held per key, the last one winning, and
+  /// flushed every [intervalMs]. A fix within [minDistance] meters of the
+  /// last written location and in the same geohash cell of [precision]
+  /// characters is skipped; a fix in a new cell is written immediately.
+  ///
+  /// A held [setLocation] completes once the write carrying its key
+  /// completes; a skipped one completes with `true`.
+  static Future<bool?> setLocationPublisher(bool enabled,
+      {int intervalMs = 1000, double minDistance = 5, int precision = 7}) async {
+    final bool? isSet =
+        await _channel.invokeMethod('setLocationPublisher', <String, dynamic>{
+      "enabled": enabled,
+      "intervalMs": intervalMs,
+      "minDistance": minDistance,
+      "precision": precision
+    });
+    return isSet;
+  }
+
+  /// Writes several locations in a single atomic multi-path update.
+  ///
+  /// Each entry needs an `id`, `lat` and `lng`. Returns the outcome per id;
+  /// entries with an invalid id or coordinates, including values that are
+  /// not numbers, are reported as `false` and are not written. An entry
+  /// without an `id` fails the whole call with `INVALID_ARGUMENTS`.
+  static Future<Map<String, bool>> setLocations(
+      List<Map<String, dynamic>> locations) async {
+    final Map<dynamic, dynamic>? response = await _channel.invokeMethod(
+        'setLocations', <String, dynamic>{"locations": locations});
+    return _toResultMap(response);
+  }
+
+  /// Removes several locations in a single atomic multi-path update.
+  static Future<Map<String, bool>> removeLocations(List<String> ids) async {
+    final Map<dynamic, dynamic>? response = await _channel
+        .invokeMethod('removeLocations', <String, dynamic>{"ids": ids});
+    return _toResultMap(response);
+  }
+
+  static Map<String, bool> _toResultMap(Map<dynamic, dynamic>? response) {
+    Map<String, bool> results = new Map();
+    response?.forEach((key, value) {
+      results[key.toString()] = value == true;
+    });
+    return results;
+  }
+
   static Future<bool?> stopListener() async {
     final bool? isSet =
         await _channel.invokeMethod('stopListener', <String, dynamic>{});
@@ -73,36 +143,650 @@ class Geofire {
     return location;
   }
 
+  /// Looks up many keys at once. All lookups run concurrently and the result
+  /// maps each id to the same map [getLocation] returns. Lookups that did not
+  /// finish within [timeout] milliseconds carry an `error`.
+  static Future<Map<String, Map<String, dynamic>>> getLocations(
+      List<String> ids,
+      {int timeout = 10000}) async {
+    final Map<dynamic, dynamic>? response = await _channel.invokeMethod(
+        'getLocations', <String, dynamic>{"ids": ids, "timeout": timeout});
+
+    Map<String, Map<String, dynamic>> locations = new Map();
+    response?.forEach((key, value) {
+      locations[key.toString()] = Map<String, dynamic>.from(value as Map);
+    });
+    return locations;
+  }
+
+  /// Listens for keys within [radius] kilometers of the given point.
+  ///
+  /// Moves of a key are only forwarded once it is at least [minMoveDistance]
+  /// meters from its last forwarded position and [minMoveInterval]
+  /// milliseconds have passed. The latest suppressed position is sent as soon
+  /// as both thresholds are met, or right before the key exits.
+  ///
+  /// When called again with a re-centering policy, the native query is only
+  /// moved once the center shifted by at least [recenterThreshold] times the
+  /// radius, and at most once per [recenterInterval] milliseconds (the latest
+  /// area is applied when the interval ends). With [overFetch] above 1 the
+  /// query subscribes to `radius * overFetch`, and areas inside that circle
+  /// are served by filtering locally, while leaving it always moves the
+  /// query; the threshold then only re-centers within that margin. Keys
+  /// entering or leaving the requested area are reported as usual. Calling
+  /// it with different move or re-centering options starts a new listener.
   static Stream<dynamic>? queryAtLocation(
-      double lat, double lng, double radius) {
-    _channel.invokeMethod('queryAtLocation',
-        {"lat": lat, "lng": lng, "radius": radius}).then((result) {
+      double lat, double lng, double radius,
+      {double minMoveDistance = 0,
+      int minMoveInterval = 0,
+      double recenterThreshold = 0,
+      int recenterInterval = 0,
+      double overFetch = 1}) {
+    _channel.invokeMethod('queryAtLocation', {
+      "lat": lat,
+      "lng": lng,
+      "radius": radius,
+      "minMoveDistance": minMoveDistance,
+      "minMoveInterval": minMoveInterval,
+      "recenterThreshold": recenterThreshold,
+      "recenterInterval": recenterInterval,
+      "overFetch": overFetch
+    }).then((result) {
       // print("result" + result);
     }).catchError((error) {
       // print("Error " + error);
     });
 
     if (_queryAtLocation == null) {
-      _queryAtLocation = _stream.receiveBroadcastStream();
+      _queryAtLocation = _forQuery(_sharedEvents(), null);
     }
     return _queryAtLocation;
   }
 
+  /// Like [queryAtLocation], but every event also carries the key's data.
+  ///
+  /// [fields] limits `data` to the given top-level fields. With [delta] set,
+  /// moved and changed events only carry the fields that were added or
+  /// changed since the previous event for the key, and list the names of
+  /// removed fields under `removed`. [minMoveDistance] and [minMoveInterval]
+  /// throttle moves as in [queryAtLocation].
+  ///
+  /// With [lazy] set, events carry keys and locations only. Payloads are read
+  /// from [dataPath] (the GeoFire path by default) when requested with
+  /// [fetchData] and kept in a native LRU cache of [cacheSize] keys; keys
+  /// passed to [setVisibleKeys] are subscribed to and report changes as
+  /// [onDataKeyChanged] events with `data`.
   static Stream<dynamic>? queryAtLocationWithData(
-      double lat, double lng, double radius) {
-    _channel.invokeMethod('queryAtLocationWithData',
-        {"lat": lat, "lng": lng, "radius": radius}).then((result) {
+      double lat, double lng, double radius,
+      {List<String>? fields,
+      bool delta = false,
+      double minMoveDistance = 0,
+      int minMoveInterval = 0,
+      bool lazy = false,
+      String? dataPath,
+      int cacheSize = 256}) {
+    _channel.invokeMethod('queryAtLocationWithData', {
+      "lat": lat,
+      "lng": lng,
+      "radius": radius,
+      "fields": fields,
+      "delta": delta,
+      "minMoveDistance": minMoveDistance,
+      "minMoveInterval": minMoveInterval,
+      "lazy": lazy,
+      "dataPath": dataPath,
+      "cacheSize": cacheSize
+    }).then((result) {
       // print("result" + result);
     }).catchError((error) {
       // print("Error " + error);
     });
 
     if (_queryAtLocationWithData == null) {
-      _queryAtLocationWithData = _stream.receiveBroadcastStream();
+      _queryAtLocationWithData =
+          _forQuery(_sharedEvents(), null);
     }
     return _queryAtLocationWithData;
   }
 
+  /// Payloads of the given keys of a lazy [queryAtLocationWithData], read
+  /// in one batch and answered from the native cache where possible. Keys
+  /// without data, or not read within [timeoutMs], map to `null`.
+  static Future<Map<String, dynamic>> fetchData(List<String> keys,
+      {int timeoutMs = 10000}) async {
+    final Map<dynamic, dynamic>? response = await _channel.invokeMethod(
+        'fetchData', <String, dynamic>{"keys": keys, "timeoutMs": timeoutMs});
+    return Map<String, dynamic>.from(response ?? {});
+  }
+
+  /// Keys whose payloads a lazy [queryAtLocationWithData] keeps current,
+  /// typically the ones on screen. Replaces the previous set.
+  static Future<bool?> setVisibleKeys(List<String> keys) async {
+    final bool? isSet = await _channel
+        .invokeMethod('setVisibleKeys', <String, dynamic>{"keys": keys});
+    return isSet;
+  }
+
+  /// Creates a query that runs alongside [queryAtLocation] and any other
+  /// named query. Its events carry `queryId` and are only delivered on the
+  /// returned stream. Creating a query with an existing id replaces it;
+  /// ids of [subscribeNearby] subscribers and `"fences"` are rejected with
+  /// `INVALID_ARGUMENTS`.
+  /// [fields] and [delta] apply to data queries as in
+  /// [queryAtLocationWithData]; moves are throttled as in [queryAtLocation].
+  /// The re-centering policy applies to [updateQuery] calls of key queries.
+  static Stream<dynamic> createQuery(
+      String queryId, double lat, double lng, double radius,
+      {bool withData = false,
+      List<String>? fields,
+      bool delta = false,
+      double minMoveDistance = 0,
+      int minMoveInterval = 0,
+      double recenterThreshold = 0,
+      int recenterInterval = 0,
+      double overFetch = 1}) {
+    final call = _channel.invokeMethod('createQuery', <String, dynamic>{
+      "queryId": queryId,
+      "lat": lat,
+      "lng": lng,
+      "radius": radius,
+      "withData": withData,
+      "fields": fields,
+      "delta": delta,
+      "minMoveDistance": minMoveDistance,
+      "minMoveInterval": minMoveInterval,
+      "recenterThreshold": recenterThreshold,
+      "recenterInterval": recenterInterval,
+      "overFetch": overFetch
+    });
+
+    return _withCallError(call, _forQuery(_sharedEvents(), queryId));
+  }
+
+  /// Keeps the [k] keys closest to the given point, searching no farther
+  /// than [maxRadius] kilometers. The search starts at [initialRadius] and
+  /// doubles it until at least [k] keys are found.
+  ///
+  /// Emits [onNearestChanged] events whose `result` lists the keys nearest
+  /// first, each with `key`, `latitude`, `longitude` and `distance` in
+  /// kilometers. The query is named [queryId]: [updateQuery] re-centers it
+  /// and takes the new `maxRadius` as its radius, [disposeQuery] stops it.
+  static Stream<dynamic> queryNearest(
+      double lat, double lng, int k, double maxRadius,
+      {String queryId = "nearest", double initialRadius = 1}) {
+    final call = _channel.invokeMethod('queryNearest', <String, dynamic>{
+      "queryId": queryId,
+      "lat": lat,
+      "lng": lng,
+      "k": k,
+      "maxRadius": maxRadius,
+      "initialRadius": initialRadius
+    });
+
+    return _withCallError(call, _forQuery(_sharedEvents(), queryId));
+  }
+
+  /// Runs a named key query over a polygon given as `[latitude, longitude]`
+  /// points. Only the geohash ranges covering the polygon are downloaded and
+  /// only keys inside it are reported, with the same callbacks as
+  /// [queryAtLocation]. A polygon whose points span more than 180 degrees of
+  /// longitude is taken to cross the antimeridian.
+  ///
+  /// Coordinates out of range, polygons without area and polygons wider than
+  /// 180 degrees either way round are reported as an `INVALID_ARGUMENTS`
+  /// error on the returned stream.
+  ///
+  /// Calling it again with the same [queryId] replaces the polygon;
+  /// [disposeQuery] stops it.
+  static Stream<dynamic> queryPolygon(List<List<double>> points,
+      {String queryId = "polygon",
+      double minMoveDistance = 0,
+      int minMoveInterval = 0}) {
+    final call = _channel.invokeMethod('queryPolygon', <String, dynamic>{
+      "queryId": queryId,
+      "points": points,
+      "minMoveDistance": minMoveDistance,
+      "minMoveInterval": minMoveInterval
+    });
+
+    return _withCallError(call, _forQuery(_sharedEvents(), queryId));
+  }
+
+  /// Like [queryPolygon] for a bounding box. A [minLng] greater than
+  /// [maxLng] wraps around the antimeridian.
+  static Stream<dynamic> queryBoundingBox(
+      double minLat, double minLng, double maxLat, double maxLng,
+      {String queryId = "boundingBox",
+      double minMoveDistance = 0,
+      int minMoveInterval = 0}) {
+    final call = _channel.invokeMethod('queryBoundingBox', <String, dynamic>{
+      "queryId": queryId,
+      "minLat": minLat,
+      "minLng": minLng,
+      "maxLat": maxLat,
+      "maxLng": maxLng,
+      "minMoveDistance": minMoveDistance,
+      "minMoveInterval": minMoveInterval
+    });
+
+    return _withCallError(call, _forQuery(_sharedEvents(), queryId));
+  }
+
+  /// Subscribes to keys within [radius] kilometers of the given point,
+  /// sharing one native GeoQuery with every other nearby subscriber. Events
+  /// are the same as for [queryAtLocation], tagged with [subscriberId] as
+  /// `queryId`, so ids of named queries and `"fences"` are rejected with
+  /// `INVALID_ARGUMENTS`.
+  ///
+  /// Subscribing again with the same id moves the circle. Subscribers inside
+  /// the area already covered are served from known keys without a new
+  /// database query.
+  static Stream<dynamic> subscribeNearby(
+      String subscriberId, double lat, double lng, double radius) {
+    final call = _channel.invokeMethod('subscribeNearby', <String, dynamic>{
+      "subscriberId": subscriberId,
+      "lat": lat,
+      "lng": lng,
+      "radius": radius
+    });
+
+    return _withCallError(call, _forQuery(_sharedEvents(), subscriberId));
+  }
+
+  /// Removes a [subscribeNearby] subscriber. The shared query stops with
+  /// the last one.
+  static Future<bool?> unsubscribeNearby(String subscriberId) async {
+    final bool? isRemoved = await _channel.invokeMethod(
+        'unsubscribeNearby', <String, dynamic>{"subscriberId": subscriberId});
+    return isRemoved;
+  }
+
+  /// Loads static fences into the native fence registry, replacing all
+  /// loaded fences unless [replace] is false, in which case only fences with
+  /// the same id are replaced. A fence is `{"id", "lat", "lng", "radius"}`
+  /// for a circle of radius kilometers or `{"id", "points"}` for a polygon of
+  /// `[lat, lng]` points. Returns the number of fences loaded.
+  static Future<int> setFences(List<Map<String, dynamic>> fences,
+      {bool replace = true}) async {
+    final int? count = await _channel.invokeMethod('setFences',
+        <String, dynamic>{"fences": fences, "replace": replace});
+    return count ?? 0;
+  }
+
+  /// Removes fences without reporting an exit. Returns how many existed.
+  static Future<int> removeFences(List<String> ids) async {
+    final int? count = await _channel
+        .invokeMethod('removeFences', <String, dynamic>{"ids": ids});
+    return count ?? 0;
+  }
+
+  /// Moves the device position checked against the fences. Fences entered or
+  /// left since the previous check are reported on [fenceEvents]. Returns the
+  /// ids of the fences containing the position.
+  static Future<List<String>> checkPosition(double lat, double lng,
+      {int? timestamp}) async {
+    final List<dynamic>? ids = await _channel.invokeMethod('checkPosition',
+        <String, dynamic>{"lat": lat, "lng": lng, "timestamp": timestamp});
+    return ids?.cast<String>() ?? <String>[];
+  }
+
+  /// Checks a track of `[lat, lng]` or `[lat, lng, timestamp]` positions in
+  /// order, as [checkPosition] would one by one. Returns the ids of the
+  /// fences containing the last position. A position that is shorter than
+  /// two numbers or out of range fails the whole call with
+  /// `INVALID_ARGUMENTS`, before any transition is reported.
+  static Future<List<String>> checkPositions(
+      List<List<num>> positions) async {
+    final List<dynamic>? ids = await _channel.invokeMethod(
+        'checkPositions', <String, dynamic>{"positions": positions});
+    return ids?.cast<String>() ?? <String>[];
+  }
+
+  /// [onFenceEntered] and [onFenceExited] events with the `fenceId`, the
+  /// checked `latitude` and `longitude` and, if given, its `timestamp`.
+  static Stream<dynamic> get fenceEvents {
+    return _forQuery(_sharedEvents(), "fences");
+  }
+
+  /// Moves or resizes a named query without recreating it.
+  static Future<bool?> updateQuery(
+      String queryId, double lat, double lng, double radius) async {
+    final bool? isSet = await _channel.invokeMethod(
+        'updateQuery', <String, dynamic>{
+      "queryId": queryId,
+      "lat": lat,
+      "lng": lng,
+      "radius": radius
+    });
+    return isSet;
+  }
+
+  /// Stops a named query and removes its listeners.
+  static Future<bool?> disposeQuery(String queryId) async {
+    final bool? isSet = await _channel
+        .invokeMethod('disposeQuery', <String, dynamic>{"queryId": queryId});
+    return isSet;
+  }
+
+  // One subscription to geofireStream shared by all queries. The controller is
+  // synchronous, so an acknowledgement is only sent once every listener has
+  // handled the message.
+  static Stream<dynamic> _sharedEvents() {
+    if (_events == null) {
+      _events = StreamController<dynamic>.broadcast(
+          sync: true,
+          onListen: () {
+            _eventSubscription =
+                _stream.receiveBroadcastStream().listen((event) {
+              _events!.add(event);
+              if (_ackEvents && ++_unacked >= _ackEvery) {
+                _channel.invokeMethod(
+                    'ackEvents', <String, dynamic>{"count": _unacked});
+                _unacked = 0;
+              }
+            }, onError: (error) => _events!.addError(error));
+          },
+          onCancel: () {
+            _eventSubscription?.cancel();
+            _eventSubscription = null;
+            // the native queue forgets its credits when the stream is cancelled
+            _unacked = 0;
+          });
+    }
+    return _events!.stream;
+  }
+
+  // Adds the error of a failed platform call, such as invalid arguments, to
+  // the events of the query it was meant to start.
+  static Stream<dynamic> _withCallError(
+      Future<dynamic> call, Stream<dynamic> events) {
+    Object? failure;
+    StreamController<dynamic>? controller;
+    StreamSubscription<dynamic>? subscription;
+    call.catchError((error) {
+      failure = error;
+      controller?.addError(error);
+    });
+    controller = StreamController<dynamic>.broadcast(
+        sync: true,
+        onListen: () {
+          subscription = events.listen(controller!.add,
+              onError: controller!.addError, onDone: controller!.close);
+          if (failure != null) {
+            controller!.addError(failure!);
+          }
+        },
+        onCancel: () {
+          subscription?.cancel();
+          subscription = null;
+        });
+    return controller.stream;
+  }
+
+  // Keeps only the events and errors of one query; batched events arrive as
+  // lists.
+  static Stream<dynamic> _forQuery(Stream<dynamic> events, String? queryId) {
+    return events.map((event) {
+      if (event is List) {
+        return event.where((e) => e["queryId"] == queryId).toList();
+      }
+      return event;
+    }).where((event) {
+      if (event is List) {
+        return event.isNotEmpty;
+      }
+      return event == null || event["queryId"] == queryId;
+    }).handleError((error) {}, test: (error) => !_isErrorFor(error, queryId));
+  }
+
+  // Query errors carry their queryId in the details, null for the unnamed
+  // query. Other errors concern the channel itself and reach every stream.
+  static bool _isErrorFor(dynamic error, String? queryId) {
+    if (error is PlatformException && error.details is Map) {
+      return error.details["queryId"] == queryId;
+    }
+    return true;
+  }
+
+  /// Keys of a running query within [radius] kilometers of the given point,
+  /// nearest first. Answered from the plugin's in-memory index of the query
+  /// results, without a new database query. Without [queryId] the unnamed
+  /// query is used.
+  static Future<List<String>> keysWithinRadius(
+      double lat, double lng, double radius,
+      {String? queryId}) async {
+    final List<dynamic>? keys = await _channel.invokeMethod(
+        'keysWithinRadius', <String, dynamic>{
+      "queryId": queryId,
+      "lat": lat,
+      "lng": lng,
+      "radius": radius
+    });
+    return keys?.cast<String>() ?? <String>[];
+  }
+
+  /// Keys of a running query inside the bounding box. A box with [minLng]
+  /// greater than [maxLng] crosses the antimeridian.
+  static Future<List<String>> keysInBoundingBox(
+      double minLat, double minLng, double maxLat, double maxLng,
+      {String? queryId}) async {
+    final List<dynamic>? keys = await _channel.invokeMethod(
+        'keysInBoundingBox', <String, dynamic>{
+      "queryId": queryId,
+      "minLat": minLat,
+      "minLng": minLng,
+      "maxLat": maxLat,
+      "maxLng": maxLng
+    });
+    return keys?.cast<String>() ?? <String>[];
+  }
+
+  /// All keys currently inside a query, mapped to `[latitude, longitude]`.
+  static Future<Map<String, List<double>>> querySnapshot(
+      {String? queryId}) async {
+    final Map<dynamic, dynamic>? response = await _channel.invokeMethod(
+        'querySnapshot', <String, dynamic>{"queryId": queryId});
+    Map<String, List<double>> snapshot = new Map();
+    response?.forEach((key, value) {
+      snapshot[key.toString()] = (value as List).cast<double>();
+    });
+    return snapshot;
+  }
+
+  /// Enables or disables batched delivery of query events.
+  ///
+  /// While enabled, events are collected natively for [windowMs] (or until
+  /// [maxEvents] are pending) and each stream event is a `List` of the usual
+  /// event maps. Repeated moves of the same key within a batch collapse into
+  /// the latest position.
+  static Future<bool?> setEventBatching(bool enabled,
+      {int windowMs = 16, int maxEvents = 256}) async {
+    final bool? isSet = await _channel.invokeMethod(
+        'setEventBatching', <String, dynamic>{
+      "enabled": enabled,
+      "windowMs": windowMs,
+      "maxEvents": maxEvents
+    });
+    return isSet;
+  }
+
+  /// Bounds the native queue of outgoing query events and enables
+  /// backpressure: at most [maxInFlight] messages are outstanding until the
+  /// stream listeners have handled them. When more than [capacity] events are
+  /// queued, moves are reduced according to [policy]:
+  ///
+  /// * `"coalesce"` keeps only the newest state per key: it drops queued
+  ///   moves that a later event of the same key supersedes, and otherwise
+  ///   the incoming move, so no key loses its latest queued position,
+  /// * `"dropOldest"` drops the oldest queued move.
+  ///
+  /// Enter, exit, change and ready events are never dropped. A [capacity] of
+  /// 0 removes the bound and the backpressure.
+  ///
+  /// Handled messages are acknowledged in groups of half of [maxInFlight],
+  /// so a bigger window also means fewer acknowledgement calls.
+  static Future<bool?> setEventQueue(
+      {int capacity = 1024,
+      String policy = "coalesce",
+      int maxInFlight = 4}) async {
+    _ackEvents = capacity > 0;
+    // at most maxInFlight messages are outstanding, so acking every half
+    // window always frees credits before the native side stalls
+    _ackEvery = maxInFlight > 1 ? (maxInFlight + 1) ~/ 2 : 1;
+    if (!_ackEvents) {
+      _unacked = 0;
+    }
+    final bool? isSet =
+        await _channel.invokeMethod('setEventQueue', <String, dynamic>{
+      "capacity": capacity,
+      "policy": policy,
+      "maxInFlight": maxInFlight
+    });
+    return isSet;
+  }
+
+  /// Current `depth` of the native event queue, the number of `dropped`
+  /// moves so far and the messages still `inFlight`.
+  static Future<Map<String, dynamic>> getEventQueueStats() async {
+    final Map<dynamic, dynamic>? response =
+        await _channel.invokeMethod('getEventQueueStats', <String, dynamic>{});
+    return Map<String, dynamic>.from(response ?? {});
+  }
+
+  /// Persists the results of [queryAtLocation] per database path and area
+  /// so that after a restart the last known keys of about the same area are
+  /// sent immediately as [onKeyEntered] events with `provisional: true`.
+  /// Results are saved once the query is ready and when it stops; only the
+  /// first query after starting or stopping shows cached keys. Keys the
+  /// live query reports are entered again without the flag; the others exit
+  /// when the query is ready. The cache directory is kept under [maxBytes].
+  static Future<bool?> setQueryCache(bool enabled,
+      {int maxBytes = 1024 * 1024}) async {
+    final bool? isSet = await _channel.invokeMethod('setQueryCache',
+        <String, dynamic>{"enabled": enabled, "maxBytes": maxBytes});
+    return isSet;
+  }
+
+  /// Deletes all cached query results.
+  static Future<bool?> clearQueryCache() async {
+    final bool? isSet =
+        await _channel.invokeMethod('clearQueryCache', <String, dynamic>{});
+    return isSet;
+  }
+
+  /// Runtime metrics of the native side: event counts and per-second
+  /// `eventRates` since the previous call, `queryReadyMs`,
+  /// `snapshotConversionUs` and `channelEncodeUs` histograms, the number of
+  /// `pendingWrites` and of `listenerReattaches`.
+  static Future<Map<String, dynamic>> getMetrics() async {
+    final Map<dynamic, dynamic>? response =
+        await _channel.invokeMethod('getMetrics', <String, dynamic>{});
+    return Map<String, dynamic>.from(response ?? {});
+  }
+
+  /// Pushes the same map as [getMetrics] every [intervalMs] as an
+  /// [onMetrics] event, with `eventRates` since the previous push. The event
+  /// has no `queryId`, so it only arrives on the streams of
+  /// [queryAtLocation] and [queryAtLocationWithData], not on named queries,
+  /// and it is counted among the `other` events. An [intervalMs] of 0 stops
+  /// it.
+  static Future<bool?> setMetricsPush(int intervalMs) async {
+    final bool? isSet = await _channel.invokeMethod(
+        'setMetricsPush', <String, dynamic>{"intervalMs": intervalMs});
+    return isSet;
+  }
+
+  /// Switches the key events of [queryAtLocation] to a compact binary
+  /// encoding delivered on [binaryEvents] instead of the regular stream.
+  ///
+  /// Data events from [queryAtLocationWithData] and query errors are not
+  /// affected and keep using the regular stream.
+  static Future<bool?> setBinaryEvents(bool enabled) async {
+    if (enabled) {
+      _listenBinary();
+    }
+    final bool? isSet = await _channel.invokeMethod(
+        'setBinaryEvents', <String, dynamic>{"enabled": enabled});
+    return isSet;
+  }
+
+  /// Key events received while binary events are enabled. Each stream event
+  /// holds all events of one native message, decoded into the same maps as
+  /// the regular stream.
+  static Stream<List<Map<String, dynamic>>> get binaryEvents {
+    _listenBinary();
+    return _binaryEvents!.stream;
+  }
+
+  static void _listenBinary() {
+    if (_binaryEvents != null) {
+      return;
+    }
+    _binaryEvents = StreamController<List<Map<String, dynamic>>>.broadcast();
+    _binaryStream.setMessageHandler((ByteData? message) async {
+      if (message != null) {
+        _binaryEvents!.add(_decodeBinaryEvents(message));
+      }
+      return ByteData(0);
+    });
+  }
+
+  // Layout is documented in BinaryEventStream.java.
+  static List<Map<String, dynamic>> _decodeBinaryEvents(ByteData data) {
+    final List<Map<String, dynamic>> events = <Map<String, dynamic>>[];
+    int offset = 0;
+    while (offset < data.lengthInBytes) {
+      final int type = data.getUint8(offset);
+      offset += 1;
+      switch (type) {
+        case 1: // RESET
+          _binaryKeys.clear();
+          break;
+        case 2: // KEY
+          final int id = data.getInt32(offset, Endian.little);
+          final int length = data.getInt32(offset + 4, Endian.little);
+          _binaryKeys[id] = utf8.decode(data.buffer
+              .asUint8List(data.offsetInBytes + offset + 8, length));
+          offset += 8 + length;
+          break;
+        case 3: // ENTERED
+        case 4: // MOVED
+          events.add(<String, dynamic>{
+            "callBack": type == 3 ? onKeyEntered : onKeyMoved,
+            "key": _binaryKeys[data.getInt32(offset, Endian.little)],
+            "latitude": data.getFloat64(offset + 4, Endian.little),
+            "longitude": data.getFloat64(offset + 12, Endian.little),
+          });
+          offset += 20;
+          break;
+        case 5: // EXITED
+          events.add(<String, dynamic>{
+            "callBack": onKeyExited,
+            "key": _binaryKeys.remove(data.getInt32(offset, Endian.little)),
+          });
+          offset += 4;
+          break;
+        case 6: // READY
+          final int count = data.getInt32(offset, Endian.little);
+          offset += 4;
+          final List<String?> keys = <String?>[];
+          for (int i = 0; i < count; i++) {
+            keys.add(_binaryKeys[data.getInt32(offset, Endian.little)]);
+            offset += 4;
+          }
+          events.add(<String, dynamic>{
+            "callBack": onGeoQueryReady,
+            "result": keys,
+          });
+          break;
+        default:
+          // unknown record, the rest of the message cannot be parsed
+          return events;
+      }
+    }
+    return events;
+  }
+
   /// Returns the geohash string for the given coordinates.
   ///
   /// [latitude] The latitude of the location.
@@ -118,4 +802,30 @@ class Geofire {
     });
     return hash;
   }
+
+  /// Geohashes many points in one call.
+  ///
+  /// Returns the hashes packed back to back, [precision] ASCII bytes each:
+  /// the hash of point `i` is `result.sublist(i * precision, (i + 1) * precision)`.
+  static Future<Uint8List> getLocationHashes(
+      Float64List latitudes, Float64List longitudes,
+      {int precision = 10}) async {
+    final Uint8List? hashes = await _channel.invokeMethod(
+        'getLocationHashes', <String, dynamic>{
+      "lat": latitudes,
+      "lng": longitudes,
+      "precision": precision
+    });
+    return hashes ?? Uint8List(0);
+  }
+
+  /// Decodes hashes packed as returned by [getLocationHashes] into cell
+  /// bounds, four values per hash: minLat, minLng, maxLat, maxLng.
+  static Future<Float64List> decodeLocationHashes(Uint8List hashes,
+      {int precision = 10}) async {
+    final Float64List? bounds = await _channel.invokeMethod(
+        'decodeLocationHashes',
+        <String, dynamic>{"hashes": hashes, "precision": precision});
+    return bounds ?? Float64List(0);
+  }
 }